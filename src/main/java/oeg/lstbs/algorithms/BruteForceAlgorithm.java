@@ -1,30 +1,25 @@
 package oeg.lstbs.algorithms;
 
-import com.google.common.collect.MinMaxPriorityQueue;
+import com.google.common.primitives.Doubles;
 import oeg.lstbs.data.Document;
-import oeg.lstbs.data.LuceneRepository;
+import oeg.lstbs.data.QuantizedStore;
 import oeg.lstbs.data.Similarity;
-import oeg.lstbs.io.ParallelExecutor;
-import oeg.lstbs.io.SerializationUtils;
+import oeg.lstbs.data.SimilarityJoin;
+import oeg.lstbs.data.TopKScanner;
+import oeg.lstbs.data.TopScores;
+import oeg.lstbs.data.VectorStore;
 import oeg.lstbs.metrics.ComparisonMetric;
-import org.apache.lucene.document.Field;
-import org.apache.lucene.document.StoredField;
-import org.apache.lucene.document.TextField;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.search.IndexSearcher;
-import org.apache.lucene.search.MatchAllDocsQuery;
-import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.util.BytesRef;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -36,19 +31,52 @@ public class BruteForceAlgorithm implements ExplorerAlgorithm {
 
     private static final Logger LOG = LoggerFactory.getLogger(BruteForceAlgorithm.class);
 
-    private final LuceneRepository repository;
-
     private final Double threshold;
 
+    private final VectorStore store;
+
+    // temporary folder of the vector store, deleted on close
+    private final File folder;
+
+    private final TopKScanner scanner = new TopKScanner();
+
+    private final SimilarityJoin join = new SimilarityJoin();
+
+    private final QuantizedStore quantized;
 
     public BruteForceAlgorithm() {
-        this.threshold = 0.9;
-        this.repository = new LuceneRepository("brute-force");
+        this(0.9);
     }
 
     public BruteForceAlgorithm(Double threshold) {
+        this(threshold, 0);
+    }
+
+    /**
+     * @param subspaces bytes per product-quantized vector ({@link QuantizedStore}). Searches scan the codes and only
+     *                  re-rank the best candidates with full precision. Vectors are not quantized when it is 0
+     */
+    public BruteForceAlgorithm(Double threshold, int subspaces) {
         this.threshold = threshold;
-        this.repository = new LuceneRepository("brute-force");
+        try {
+            this.folder = Files.createTempDirectory("brute-force").toFile();
+            this.store  = new VectorStore(folder, "vectors");
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+        this.quantized = subspaces > 0? new QuantizedStore(store, subspaces) : null;
+    }
+
+    /**
+     * Closes the vector store and deletes its temporary folder
+     */
+    public synchronized void close(){
+        store.close();
+        try {
+            FileUtils.deleteDirectory(folder);
+        } catch (IOException e) {
+            LOG.warn("Error deleting vector store " + folder, e);
+        }
     }
 
     @Override
@@ -60,13 +88,9 @@ public class BruteForceAlgorithm implements ExplorerAlgorithm {
     public boolean add(Document document) {
 
         try{
-            org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
-            luceneDoc.add(new TextField("name", document.getId(), Field.Store.YES));
-
-            BytesRef bytesRef = new BytesRef(SerializationUtils.serialize(document.getVector()));
-            luceneDoc.add(new StoredField("vector", bytesRef));
-
-            this.repository.add(luceneDoc);
+            double[] vector = Doubles.toArray(document.getVector());
+            if (quantized != null) this.quantized.append(document.getId(), vector);
+            else this.store.append(document.getId(), vector);
             return true;
         }catch (Exception e){
             LOG.error("Unexpected error",e);
@@ -77,7 +101,8 @@ public class BruteForceAlgorithm implements ExplorerAlgorithm {
 
     @Override
     public boolean commit() {
-        this.repository.commit();
+        if (quantized != null) this.quantized.flush();
+        else this.store.flush();
         return true;
     }
 
@@ -87,66 +112,12 @@ public class BruteForceAlgorithm implements ExplorerAlgorithm {
         ConcurrentLinkedDeque<Similarity> pairs = new ConcurrentLinkedDeque<>();
 
         try{
-            DirectoryReader reader = this.repository.getReader();
-
-            IndexSearcher searcher = new IndexSearcher(reader);
-
-
-            int total = reader.numDocs();
-
-            TopDocs results = searcher.search(new MatchAllDocsQuery(), total);
-            ParallelExecutor executor = new ParallelExecutor();
-            for(ScoreDoc scoreDoc: results.scoreDocs){
-
-                final int refId = scoreDoc.doc;
-
-                double ratio = (refId * 100.0) / Double.valueOf(total);
-                if (ratio % 10 == 0) LOG.info("" + ratio + "% progress");
-                executor.submit(() -> {
-                    try{
-                        IndexReader indexReader = repository.getReader();
-
-                        org.apache.lucene.document.Document doc = indexReader.document(refId);
-
-                        String id = String.format(doc.get("name"));
-
-                        BytesRef byteRef = doc.getBinaryValue("vector");
-                        List<Double> vector = (List<Double>) SerializationUtils.deserialize(byteRef.bytes);
-
-                        Document d1 = new Document(id,vector);
-
-
-                        for(int i=0; i < scoreDoc.doc; i++){
-
-                            try {
-                                org.apache.lucene.document.Document doc2 = indexReader.document(i);
-                                String id2 = String.format(doc2.get("name"));
-
-                                BytesRef byteRef2 = doc2.getBinaryValue("vector");
-                                List<Double> vector2 = (List<Double>) SerializationUtils.deserialize(byteRef2.bytes);
-
-                                Document d2 = new Document(id2,vector2);
-
-                                Double similarityScore = metric.similarity(vector, vector2);
-                                counter.incrementAndGet();
-                                if (similarityScore>=threshold){
-                                    pairs.add(new Similarity(similarityScore,d1,d2));
-                                }
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        indexReader.close();
-                    }catch (Exception e){
-                        LOG.error("Unexpected error",e);
-                    }
-
-                });
-            }
-
-            executor.awaitTermination(1, TimeUnit.HOURS);
-
-            reader.close();
+            // pairs are compared tile by tile, reading the blocks of each tile from the store
+            join.join(store, metric, threshold, (row, column, score) -> {
+                Document d1 = new Document(store.getId(row), Doubles.asList(store.get(row)));
+                Document d2 = new Document(store.getId(column), Doubles.asList(store.get(column)));
+                pairs.add(new Similarity(score,d1,d2));
+            }, counter);
 
         }catch (Exception e){
             LOG.error("Unexpected error",e);
@@ -161,35 +132,25 @@ public class BruteForceAlgorithm implements ExplorerAlgorithm {
 
 
         try{
-            DirectoryReader reader = this.repository.getReader();
-
-            IndexSearcher searcher = new IndexSearcher(reader);
-            int maxDocs = reader.numDocs();
-            TopDocs results = searcher.search(new MatchAllDocsQuery(), maxDocs);
-
-            MinMaxPriorityQueue<Similarity> pairs = MinMaxPriorityQueue.orderedBy(new Similarity.ScoreComparator()).maximumSize(maxResults).create();
-
-            for(ScoreDoc scoreDoc: results.scoreDocs){
-
-                org.apache.lucene.document.Document doc = reader.document(scoreDoc.doc);
-
-                String id = String.format(doc.get("name"));
-
-//            if (id.equalsIgnoreCase(query.getId())) continue;
-
-                BytesRef byteRef = doc.getBinaryValue("vector");
-                List<Double> vector = (List<Double>) SerializationUtils.deserialize(byteRef.bytes);
-
-                Document d1 = new Document(id,vector);
-
-                Similarity similarity = new Similarity(metric.similarity(d1.getVector(), query.getVector()), query, d1);
-
-                pairs.add(similarity);
-                counter.incrementAndGet();
+            double[] queryVector = Doubles.toArray(query.getVector());
+
+            TopScores scores;
+            if (quantized != null){
+                scores = quantized.top(queryVector, metric, maxResults);
+                counter.addAndGet(quantized.candidates(maxResults));
+            }else{
+                scores = scanner.top(store, queryVector, metric, maxResults);
+                counter.addAndGet(store.size());
             }
 
-            reader.close();
-            return pairs.stream().sorted((a,b) -> -a.getScore().compareTo(b.getScore())).collect(Collectors.toList());
+            // scores are already sorted, so documents are only built for the returned results
+            List<Similarity> pairs = new ArrayList<>(scores.size());
+            for(int i=0;i<scores.size();i++){
+                int ordinal = scores.ordinal(i);
+                Document d1 = new Document(store.getId(ordinal),Doubles.asList(store.get(ordinal)));
+                pairs.add(new Similarity(scores.score(i), query, d1));
+            }
+            return pairs;
 
         }catch (Exception e){
             LOG.error("Unexpected error",e);
@@ -1,9 +1,10 @@
 package oeg.lstbs.algorithms;
 
 import com.google.common.collect.MinMaxPriorityQueue;
+import com.google.common.primitives.Doubles;
 import oeg.lstbs.data.*;
 import oeg.lstbs.io.ParallelExecutor;
-import oeg.lstbs.io.SerializationUtils;
+import oeg.lstbs.io.VectorCodec;
 import oeg.lstbs.metrics.ComparisonMetric;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -21,11 +22,11 @@ import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -40,6 +41,7 @@ public abstract class GroupsBasedAlgorithm implements ExplorerAlgorithm {
     protected final LuceneRepository repository;
     private final int maxGroups;
     private int level;
+    private final VectorCodec codec = new VectorCodec();
 
     public GroupsBasedAlgorithm(String id, int maxGroups, int level) {
         this.repository = new LuceneRepository(id);
@@ -62,7 +64,7 @@ public abstract class GroupsBasedAlgorithm implements ExplorerAlgorithm {
 
         luceneDoc.add(new TextField("name", document.getId(), Field.Store.YES));
 
-        BytesRef bytesRef = new BytesRef(SerializationUtils.serialize(document.getVector()));
+        BytesRef bytesRef = new BytesRef(codec.encode(document.getVector()));
         luceneDoc.add(new StoredField("vector", bytesRef));
 
         for (int i = 1; i <= maxGroups; i++) {
@@ -116,6 +118,7 @@ public abstract class GroupsBasedAlgorithm implements ExplorerAlgorithm {
 
                         IndexSearcher searcher = new IndexSearcher(reader);
                         List<Document> docs = new ArrayList<>();
+                        List<double[]> vectors = new ArrayList<>();
 
                         TermQuery query = new TermQuery(new Term(fieldName, val));
 
@@ -127,24 +130,27 @@ public abstract class GroupsBasedAlgorithm implements ExplorerAlgorithm {
                             String id = String.format(doc.get("name"));
 
                             BytesRef byteRef = doc.getBinaryValue("vector");
-                            List<Double> vector = (List<Double>) SerializationUtils.deserialize(byteRef.bytes);
+                            double[] vector = VectorCodec.decode(byteRef.bytes, byteRef.offset, byteRef.length);
 
-                            Document d1 = new Document(id, vector);
+                            Document d1 = new Document(id, Doubles.asList(vector));
 
-                            for (Document d2 : docs) {
+                            for (int i = 0; i < docs.size(); i++) {
                                 counter.incrementAndGet();
-                                pairs.add(new Similarity(metric.similarity(d1.getVector(), d2.getVector()), d1, d2));
+                                pairs.add(new Similarity(metric.similarity(vector, vectors.get(i)), d1, docs.get(i)));
                             }
 
                             docs.add(d1);
+                            vectors.add(vector);
                         }
-                    }catch (Exception e){
-                        LOG.error("Unexpected error",e);
+                    }catch (IOException e){
+                        throw new RuntimeException("Unexpected error",e);
                     }
                 });
 
             }
-            executor.awaitTermination(1, TimeUnit.HOURS);
+            executor.shutdown();
+            // rethrows the first error of a group, instead of returning a partial list of pairs
+            executor.join();
             reader.close();
             return pairs.stream().sorted((a, b) -> -a.getScore().compareTo(b.getScore())).collect(Collectors.toList());
 
@@ -195,15 +201,17 @@ public abstract class GroupsBasedAlgorithm implements ExplorerAlgorithm {
 
             TopDocs results = searcher.search(topicQuery, maxQuery);
 
+            double[] queryVector = Doubles.toArray(document.getVector());
+
             for (ScoreDoc scoreDoc : results.scoreDocs) {
                 org.apache.lucene.document.Document d2 = reader.document(scoreDoc.doc);
 
                 String id = String.format(d2.get("name"));
 
                 BytesRef byteRef = d2.getBinaryValue("vector");
-                List<Double> vector = (List<Double>) SerializationUtils.deserialize(byteRef.bytes);
+                double[] vector = VectorCodec.decode(byteRef.bytes, byteRef.offset, byteRef.length);
 
-                pairs.add(new Similarity(metric.similarity(document.getVector(), vector), document, new Document(id,vector)));
+                pairs.add(new Similarity(metric.similarity(queryVector, vector), document, new Document(id,Doubles.asList(vector))));
                 counter.incrementAndGet();
             }
 
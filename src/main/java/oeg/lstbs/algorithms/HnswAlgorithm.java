@@ -0,0 +1,173 @@
+package oeg.lstbs.algorithms;
+
+import com.google.common.primitives.Doubles;
+import oeg.lstbs.data.Document;
+import oeg.lstbs.data.HnswIndex;
+import oeg.lstbs.data.Similarity;
+import oeg.lstbs.data.TopScores;
+import oeg.lstbs.io.ParallelExecutor;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Approximate search on a HNSW graph built with a given metric.
+ *
+ * When a graph file is given, the graph is loaded from it if it exists and saved to it on every commit, so later runs
+ * can reuse it. Documents already in a loaded graph are not added again. Searches with a metric other than the one used to
+ * build the graph re-rank the 'efSearch' candidates with it.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HnswAlgorithm implements ExplorerAlgorithm {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HnswAlgorithm.class);
+
+    private final HnswIndex index;
+
+    private final int efSearch;
+
+    private final Double threshold;
+
+    private final File graphFile;
+
+    public HnswAlgorithm(ComparisonMetric metric) {
+        this(metric, 16, 200, 100);
+    }
+
+    public HnswAlgorithm(ComparisonMetric metric, int m, int efConstruction, int efSearch) {
+        this(metric, m, efConstruction, efSearch, 0.9);
+    }
+
+    public HnswAlgorithm(ComparisonMetric metric, int m, int efConstruction, int efSearch, Double threshold) {
+        this(metric, m, efConstruction, efSearch, threshold, null);
+    }
+
+    /**
+     * @param graphFile where the graph is loaded from (if it exists) and saved to on commit, or null to keep it only
+     *                  in memory. A loaded graph keeps the 'm' and 'efConstruction' it was built with
+     */
+    public HnswAlgorithm(ComparisonMetric metric, int m, int efConstruction, int efSearch, Double threshold, File graphFile) {
+        this.graphFile  = graphFile;
+        if (graphFile != null && graphFile.exists()){
+            this.index  = HnswIndex.load(graphFile, metric);
+            LOG.info("Loaded HNSW graph of " + index.size() + " documents from " + graphFile);
+        }else{
+            this.index  = new HnswIndex(metric, m, efConstruction);
+        }
+        this.efSearch   = efSearch;
+        this.threshold  = threshold;
+    }
+
+    @Override
+    public String id() {
+        return "hnsw";
+    }
+
+    public String getName(){
+        return id() + "_" + index.getMetric().id();
+    }
+
+    /**
+     * @return file the graph is saved to, or null if it is not persisted
+     */
+    public File getGraphFile(){
+        return graphFile;
+    }
+
+    @Override
+    public boolean add(Document document) {
+
+        try{
+            double[] vector = Doubles.toArray(document.getVector());
+            if (this.index.add(document.getId(), vector) < 0) LOG.debug("Document '" + document.getId() + "' is already in the graph");
+            return true;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean commit() {
+        if (graphFile != null) this.index.save(graphFile);
+        return true;
+    }
+
+    @Override
+    public List<Similarity> findDuplicates(ComparisonMetric metric, AtomicInteger counter) {
+
+        ConcurrentLinkedDeque<Similarity> pairs = new ConcurrentLinkedDeque<>();
+        // each pair may be found from both of its documents
+        ConcurrentHashMap<Long,Boolean> found = new ConcurrentHashMap<>();
+
+        int size = index.size();
+        ParallelExecutor executor = new ParallelExecutor();
+        for(int i=0;i<size;i++){
+            final int ordinal = i;
+            executor.submit(() -> {
+                double[] vector = index.getVector(ordinal);
+                TopScores hits  = search(vector, metric, efSearch + 1, counter);
+                for(int j=0;j<hits.size();j++){
+                    int other = hits.ordinal(j);
+                    if (other == ordinal || hits.score(j) < threshold) continue;
+                    long key = ((long) Math.min(ordinal, other) << 32) | Math.max(ordinal, other);
+                    if (found.putIfAbsent(key, Boolean.TRUE) != null) continue;
+                    Document d1 = new Document(index.getId(ordinal), Doubles.asList(vector));
+                    Document d2 = new Document(index.getId(other), Doubles.asList(index.getVector(other)));
+                    pairs.add(new Similarity(hits.score(j), d1, d2));
+                }
+            });
+        }
+        executor.shutdown();
+        // rethrows the first error of a search, instead of returning a partial list of pairs
+        executor.join();
+
+        return pairs.stream().sorted((a,b) -> -a.getScore().compareTo(b.getScore())).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Similarity> findSimilarTo(Document query, ComparisonMetric metric, int maxResults, AtomicInteger counter) {
+
+        try{
+            double[] queryVector = Doubles.toArray(query.getVector());
+            TopScores hits = search(queryVector, metric, maxResults, counter);
+
+            List<Similarity> similarities = new ArrayList<>(hits.size());
+            for(int i=0;i<hits.size();i++){
+                int ordinal = hits.ordinal(i);
+                Document d1 = new Document(index.getId(ordinal), Doubles.asList(index.getVector(ordinal)));
+                similarities.add(new Similarity(hits.score(i), query, d1));
+            }
+            return similarities;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return Collections.emptyList();
+        }
+    }
+
+    private TopScores search(double[] query, ComparisonMetric metric, int maxResults, AtomicInteger counter){
+        int ef = Math.max(efSearch, maxResults);
+        if (metric.getClass().equals(index.getMetric().getClass())) return index.search(query, maxResults, ef, counter);
+
+        TopScores candidates = index.search(query, ef, ef, counter);
+        TopScores hits = new TopScores(Math.max(1, maxResults));
+        for(int i=0;i<candidates.size();i++){
+            double[] vector = index.getVector(candidates.ordinal(i));
+            hits.offer(candidates.ordinal(i), metric.similarity(query, 0, vector, 0, vector.length));
+        }
+        counter.addAndGet(candidates.size());
+        return hits.sort();
+    }
+
+}
@@ -0,0 +1,235 @@
+package oeg.lstbs.algorithms;
+
+import com.google.common.primitives.Doubles;
+import oeg.lstbs.data.Document;
+import oeg.lstbs.data.IvfIndex;
+import oeg.lstbs.data.Similarity;
+import oeg.lstbs.data.SimilarityJoin;
+import oeg.lstbs.data.TopScores;
+import oeg.lstbs.data.VectorStore;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Approximate search on an inverted file ({@link IvfIndex}) over the document space.
+ *
+ * Centroids are trained on the first commit from a sample of the added documents, and later documents are assigned as
+ * they are added. A query is only compared against the documents of its 'nprobe' closest lists, so the number of
+ * probes sets the trade-off between cost and recall. Duplicates are searched within each list.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class IvfAlgorithm implements ExplorerAlgorithm {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IvfAlgorithm.class);
+
+    private static final long SEED = 1234L;
+
+    private final IvfIndex index;
+
+    private final VectorStore store;
+
+    // temporary folder of the vector store, deleted on close
+    private final File folder;
+
+    private final int lists;
+
+    private final int nprobe;
+
+    private final int replicas;
+
+    private final int sampleSize;
+
+    private final Double threshold;
+
+    private final SimilarityJoin join = new SimilarityJoin();
+
+    public IvfAlgorithm(ComparisonMetric metric, int lists, int nprobe) {
+        this(metric, lists, nprobe, 1, 100 * lists, 0.9);
+    }
+
+    /**
+     * @param metric distance used to train the centroids and to assign documents
+     * @param lists number of centroids
+     * @param nprobe number of lists compared with a query
+     * @param replicas number of lists where each document is posted
+     * @param sampleSize maximum number of documents used to train the centroids
+     * @param threshold minimum similarity of a duplicated pair
+     */
+    public IvfAlgorithm(ComparisonMetric metric, int lists, int nprobe, int replicas, int sampleSize, Double threshold) {
+        this.index      = new IvfIndex(metric, lists);
+        this.lists      = lists;
+        this.nprobe     = nprobe;
+        this.replicas   = replicas;
+        this.sampleSize = sampleSize;
+        this.threshold  = threshold;
+        try {
+            this.folder = Files.createTempDirectory("ivf").toFile();
+            this.store  = new VectorStore(folder, "vectors");
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    /**
+     * Closes the vector store and deletes its temporary folder
+     */
+    public synchronized void close(){
+        store.close();
+        try {
+            FileUtils.deleteDirectory(folder);
+        } catch (IOException e) {
+            LOG.warn("Error deleting vector store " + folder, e);
+        }
+    }
+
+    @Override
+    public String id() {
+        return "ivf";
+    }
+
+    public String getName(){
+        return id() + "_" + index.getMetric().id() + "_" + lists + "_" + nprobe;
+    }
+
+    @Override
+    public boolean add(Document document) {
+
+        try{
+            double[] vector = Doubles.toArray(document.getVector());
+            int ordinal;
+            boolean trained;
+            synchronized (this){
+                ordinal = store.append(document.getId(), vector);
+                trained = index.isTrained();
+            }
+            // documents added before training are assigned on commit
+            if (trained) index.add(ordinal, vector, replicas);
+            return true;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean commit() {
+        this.store.flush();
+        if (!index.isTrained() && store.size() > 0){
+            int size = store.size();
+            List<double[]> sample = new ArrayList<>();
+            if (size <= sampleSize){
+                for(int i=0;i<size;i++) sample.add(store.get(i));
+            }else{
+                // reservoir sampling keeps the sample independent of the insertion order
+                Random random = new Random(SEED);
+                int[] reservoir = new int[sampleSize];
+                for(int i=0;i<size;i++){
+                    if (i < sampleSize) reservoir[i] = i;
+                    else {
+                        int j = random.nextInt(i + 1);
+                        if (j < sampleSize) reservoir[j] = i;
+                    }
+                }
+                for(int ordinal : reservoir) sample.add(store.get(ordinal));
+            }
+            index.train(sample);
+            for(int i=0;i<size;i++){
+                index.add(i, store.get(i), replicas);
+            }
+            LOG.info(size + " documents assigned to " + index.getLists() + " lists");
+        }
+        return true;
+    }
+
+    @Override
+    public List<Similarity> findDuplicates(ComparisonMetric metric, AtomicInteger counter) {
+
+        ConcurrentLinkedDeque<Similarity> pairs = new ConcurrentLinkedDeque<>();
+        // a pair may share several lists when documents are replicated
+        ConcurrentHashMap<Long,Boolean> found = new ConcurrentHashMap<>();
+
+        try{
+            int size      = store.size();
+            for(int list=0;list<index.getLists();list++){
+                // documents not committed yet are left out
+                int[] ordinals = Arrays.stream(index.list(list)).filter(ordinal -> ordinal < size).toArray();
+                if (ordinals.length < 2) continue;
+
+                join.join(store, ordinals, metric, threshold, (row, column, score) -> {
+                    int o1 = ordinals[row];
+                    int o2 = ordinals[column];
+                    if (replicas > 1){
+                        long key = ((long) Math.min(o1,o2) << 32) | Math.max(o1,o2);
+                        if (found.putIfAbsent(key, Boolean.TRUE) != null) return;
+                    }
+                    Document d1 = new Document(store.getId(o1), Doubles.asList(store.get(o1)));
+                    Document d2 = new Document(store.getId(o2), Doubles.asList(store.get(o2)));
+                    pairs.add(new Similarity(score,d1,d2));
+                }, counter);
+            }
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+        }
+
+        return pairs.stream().sorted((a,b) -> -a.getScore().compareTo(b.getScore())).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<Similarity> findSimilarTo(Document query, ComparisonMetric metric, int maxResults, AtomicInteger counter) {
+
+        try{
+            double[] queryVector = Doubles.toArray(query.getVector());
+
+            int[] probes = index.probe(queryVector, nprobe);
+            counter.addAndGet(index.getLists());
+
+            TopScores scores = new TopScores(Math.max(1, maxResults));
+            BitSet visited = replicas > 1? new BitSet(store.size()) : null;
+            for(int list : probes){
+                int[] ordinals = index.list(list);
+                int length = ordinals.length;
+                if (visited != null){
+                    length = 0;
+                    for(int ordinal : ordinals){
+                        if (visited.get(ordinal)) continue;
+                        visited.set(ordinal);
+                        ordinals[length++] = ordinal;
+                    }
+                }
+                store.scan(ordinals, length, queryVector, metric, scores::offer);
+                counter.addAndGet(length);
+            }
+            scores.sort();
+
+            List<Similarity> similarities = new ArrayList<>(scores.size());
+            for(int i=0;i<scores.size();i++){
+                int ordinal = scores.ordinal(i);
+                Document d1 = new Document(store.getId(ordinal), Doubles.asList(store.get(ordinal)));
+                similarities.add(new Similarity(scores.score(i), query, d1));
+            }
+            return similarities;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return Collections.emptyList();
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+package oeg.lstbs.algorithms;
+
+import com.google.common.primitives.Doubles;
+import oeg.lstbs.data.Document;
+import oeg.lstbs.data.LuceneRepository;
+import oeg.lstbs.data.Similarity;
+import oeg.lstbs.data.TopScores;
+import oeg.lstbs.data.VectorStore;
+import oeg.lstbs.hash.PStableHash;
+import oeg.lstbs.io.ParallelExecutor;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Duplicate detection based on p-stable locality-sensitive hashing ({@link PStableHash}) over √p.
+ *
+ * The bucket key of each table is indexed as a lucene StringField ('lsh'table), so only documents sharing a bucket
+ * are compared. Vectors are kept in a {@link VectorStore}, and each lucene document only stores the ordinal of its
+ * vector. The hash targets Hellinger distance, and it is also a close approximation for S2JSD.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class LSHAlgorithm implements ExplorerAlgorithm {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LSHAlgorithm.class);
+
+    private static final long SEED = 1234L;
+
+    private static final String ORDINAL_FIELD = "ordinal";
+
+    private final LuceneRepository repository;
+
+    private final VectorStore store;
+
+    // temporary folder of the vector store, deleted on close
+    private final File folder;
+
+    private final PStableHash hash;
+
+    private final Double threshold;
+
+    /**
+     * @param tables number of hash tables (L)
+     * @param projections number of projections per table (K)
+     * @param threshold minimum similarity of a duplicated pair. Bucket width is set to 4 times the √p distance of two
+     *                  distributions with that Hellinger similarity
+     */
+    public LSHAlgorithm(int tables, int projections, Double threshold) {
+        this(tables, projections, 4 * PStableHash.distanceOf(threshold), threshold);
+    }
+
+    public LSHAlgorithm(int tables, int projections, double width, Double threshold) {
+        this.repository = new LuceneRepository("lsh");
+        this.hash       = new PStableHash(tables, projections, width, SEED);
+        this.threshold  = threshold;
+        try {
+            this.folder = Files.createTempDirectory("lsh").toFile();
+            this.store  = new VectorStore(folder, "vectors");
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    /**
+     * Closes the vector store and the lucene index, and deletes both from disk
+     */
+    public synchronized void close(){
+        store.close();
+        repository.delete();
+        try {
+            FileUtils.deleteDirectory(folder);
+        } catch (IOException e) {
+            LOG.warn("Error deleting vector store " + folder, e);
+        }
+    }
+
+    @Override
+    public String id() {
+        return "lsh";
+    }
+
+    public String getName(){
+        return id() + "_L" + hash.getTables() + "K" + hash.getProjections();
+    }
+
+    public PStableHash getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean add(Document document) {
+
+        try{
+            double[] vector = Doubles.toArray(document.getVector());
+            String[] keys = hash.hash(vector);
+
+            org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+            luceneDoc.add(new StoredField(ORDINAL_FIELD, store.append(document.getId(), vector)));
+            for(int i=0;i<keys.length;i++){
+                luceneDoc.add(new StringField("lsh"+i, keys[i], Field.Store.NO));
+            }
+
+            this.repository.add(luceneDoc);
+            return true;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean commit() {
+        this.store.flush();
+        this.repository.commit();
+        return true;
+    }
+
+    @Override
+    public List<Similarity> findDuplicates(ComparisonMetric metric, AtomicInteger counter) {
+
+        ConcurrentLinkedDeque<Similarity> pairs = new ConcurrentLinkedDeque<>();
+
+        try{
+            IndexReader reader = repository.getReader();
+
+            int[] ordinals = new int[reader.maxDoc()];
+            for(int i=0;i<ordinals.length;i++) ordinals[i] = ordinal(reader, i);
+
+            // bucket of each vector in every table, so a pair sharing a bucket in several tables is only compared in
+            // the first one
+            int[][] buckets = new int[hash.getTables()][store.size()];
+
+            ParallelExecutor executor = new ParallelExecutor();
+            for(int t=0;t<hash.getTables();t++){
+                Terms terms = MultiFields.getTerms(reader, "lsh"+t);
+                if (terms == null) continue;
+                final int table = t;
+                List<int[]> candidates = new ArrayList<>();
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                int bucketId = 0;
+                while(termsEnum.next() != null){
+                    bucketId++;
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    int[] bucket = new int[termsEnum.docFreq()];
+                    int size = 0;
+                    int docId;
+                    while((docId = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS){
+                        bucket[size] = ordinals[docId];
+                        buckets[table][bucket[size++]] = bucketId;
+                    }
+                    if (size > 1) candidates.add(size < bucket.length? Arrays.copyOf(bucket, size) : bucket);
+                }
+                // buckets of the earlier tables are complete before the pairs of this one are compared
+                for(int[] bucket : candidates){
+                    executor.submit(() -> compare(bucket, table, buckets, metric, counter, pairs));
+                }
+            }
+            executor.shutdown();
+            // rethrows the first error of a bucket, instead of returning a partial list of pairs
+            executor.join();
+            reader.close();
+
+        }catch (IOException e){
+            throw new RuntimeException("Unexpected error",e);
+        }
+
+        return pairs.stream().sorted((a,b) -> -a.getScore().compareTo(b.getScore())).collect(Collectors.toList());
+    }
+
+    private void compare(int[] bucket, int table, int[][] buckets, ComparisonMetric metric, AtomicInteger counter, ConcurrentLinkedDeque<Similarity> pairs){
+        // vectors are read once per bucket
+        double[][] vectors = new double[bucket.length][];
+        for(int i=1;i<bucket.length;i++){
+            for(int j=0;j<i;j++){
+                if (sharedBefore(buckets, table, bucket[i], bucket[j])) continue;
+                if (vectors[i] == null) vectors[i] = store.get(bucket[i]);
+                if (vectors[j] == null) vectors[j] = store.get(bucket[j]);
+                counter.incrementAndGet();
+                double score = metric.similarity(vectors[i], vectors[j]);
+                if (score >= threshold){
+                    Document d1 = new Document(store.getId(bucket[i]), Doubles.asList(vectors[i]));
+                    Document d2 = new Document(store.getId(bucket[j]), Doubles.asList(vectors[j]));
+                    pairs.add(new Similarity(score, d1, d2));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if both vectors share a bucket in a table before the given one
+     */
+    private boolean sharedBefore(int[][] buckets, int table, int o1, int o2){
+        for(int t=0;t<table;t++){
+            if (buckets[t][o1] == buckets[t][o2]) return true;
+        }
+        return false;
+    }
+
+    private int ordinal(IndexReader reader, int docId) throws IOException {
+        return reader.document(docId).getField(ORDINAL_FIELD).numericValue().intValue();
+    }
+
+    @Override
+    public List<Similarity> findSimilarTo(Document query, ComparisonMetric metric, int maxResults, AtomicInteger counter) {
+
+        try{
+            IndexReader reader = repository.getReader();
+            IndexSearcher searcher = new IndexSearcher(reader);
+
+            double[] queryVector = Doubles.toArray(query.getVector());
+            String[] keys = hash.hash(queryVector);
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for(int i=0;i<keys.length;i++){
+                builder.add(new TermQuery(new Term("lsh"+i, keys[i])), BooleanClause.Occur.SHOULD);
+            }
+            TopDocs results = searcher.search(builder.build(), Math.max(1,reader.numDocs()));
+
+            // candidates are scanned in the order of the store
+            int[] candidates = new int[results.scoreDocs.length];
+            for(int i=0;i<candidates.length;i++) candidates[i] = ordinal(reader, results.scoreDocs[i].doc);
+            Arrays.sort(candidates);
+            counter.addAndGet(candidates.length);
+
+            TopScores scores = new TopScores(Math.max(1,maxResults));
+            store.scan(candidates, candidates.length, queryVector, metric, scores::offer);
+
+            scores.sort();
+            List<Similarity> similarities = new ArrayList<>(scores.size());
+            for(int i=0;i<scores.size();i++){
+                int ordinal = scores.ordinal(i);
+                Document d1 = new Document(store.getId(ordinal), Doubles.asList(store.get(ordinal)));
+                similarities.add(new Similarity(scores.score(i), query, d1));
+            }
+            reader.close();
+            return similarities;
+        }catch (Exception e){
+            LOG.error("Unexpected error",e);
+            return Collections.emptyList();
+        }
+    }
+
+}
@@ -0,0 +1,355 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.hash.HashCode;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Similarity of hierarchical hash codes as a Lucene query over the hash fields.
+ *
+ * Every topic of level l is searched in the levels l..depth-1, and a document matching it at level i scores
+ * (depth - i)^2: the deeper the match, the lower its weight. The score of a document is the sum of the weights of the
+ * (topic, level) pairs it matches (times the boost of the query), so pairs repeated by several levels add up, as they
+ * did as boosted clauses of a boolean query. There is no limit on the number of pairs.
+ *
+ * The scorer prunes with MaxScore: once {@link HashScorer#setMinCompetitiveScore(float)} is raised, the pairs whose
+ * total weight cannot reach it no longer produce candidates, and are only checked for documents found by the others.
+ * {@link #search(IndexSearcher, int)} collects the top-k documents raising it with the k-th score.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HierarchicalHashQuery extends Query {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HierarchicalHashQuery.class);
+
+    private final String[] fields;
+
+    private final BytesRef[] terms;
+
+    // ascending
+    private final float[] weights;
+
+    public HierarchicalHashQuery(HashCode hashcode) {
+        int depth = hashcode.getDepth();
+        // (level, topic) pairs
+        Map<Long,Float> pairs = new LinkedHashMap<>();
+        for(int level=0;level<depth;level++){
+            for(int topic : hashcode.getTopics(level)){
+                for(int i=level;i<depth;i++){
+                    float weight = (depth - i) * (depth - i);
+                    pairs.merge(((long) i << 32) | topic, weight, Float::sum);
+                }
+            }
+        }
+        List<Map.Entry<Long,Float>> entries = new ArrayList<>(pairs.entrySet());
+        entries.sort((a, b) -> Float.compare(a.getValue(), b.getValue()));
+        this.fields     = new String[entries.size()];
+        this.terms      = new BytesRef[entries.size()];
+        this.weights    = new float[entries.size()];
+        for(int i=0;i<entries.size();i++){
+            long pair   = entries.get(i).getKey();
+            fields[i]   = Repository.hashField((int) (pair >>> 32));
+            terms[i]    = TopicTokenStream.term((int) pair);
+            weights[i]  = entries.get(i).getValue();
+        }
+    }
+
+    /**
+     * @return number of distinct (topic, level) pairs
+     */
+    public int getPairs(){
+        return weights.length;
+    }
+
+    /**
+     * @return the k documents with the highest score (on ties, those with the lowest doc ids), sorted by descending score
+     */
+    public ScoreDoc[] search(IndexSearcher searcher, int k) throws IOException {
+        TopScores top = new TopScores(Math.max(1, k));
+        searcher.search(this, new TopScoresCollector(top));
+        top.sort();
+        ScoreDoc[] docs = new ScoreDoc[top.size()];
+        for(int i=0;i<docs.length;i++) docs[i] = new ScoreDoc(top.ordinal(i), (float) top.score(i));
+        return docs;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        return new HashWeight(boost);
+    }
+
+    @Override
+    public String toString(String field) {
+        StringBuilder description = new StringBuilder("HierarchicalHashQuery(");
+        for(int i=0;i<weights.length;i++){
+            if (i > 0) description.append(' ');
+            description.append(fields[i]).append(':').append(terms[i].utf8ToString()).append('^').append(weights[i]);
+        }
+        return description.append(')').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!sameClassAs(o)) return false;
+        HierarchicalHashQuery other = (HierarchicalHashQuery) o;
+        return Arrays.equals(fields, other.fields) && Arrays.equals(terms, other.terms) && Arrays.equals(weights, other.weights);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = classHash();
+        result = 31 * result + Arrays.hashCode(fields);
+        result = 31 * result + Arrays.hashCode(terms);
+        result = 31 * result + Arrays.hashCode(weights);
+        return result;
+    }
+
+    private class HashWeight extends Weight {
+
+        private final float boost;
+
+        HashWeight(float boost) {
+            super(HierarchicalHashQuery.this);
+            this.boost = boost;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> set) {
+            for(int i=0;i<weights.length;i++) set.add(new Term(fields[i], terms[i]));
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException {
+            Scorer scorer = scorer(context);
+            if (scorer == null || scorer.iterator().advance(doc) != doc) return Explanation.noMatch("no matching (topic, level) pair");
+            return Explanation.match(scorer.score(), "sum of the weights of " + ((HashScorer) scorer).freq() + " matching (topic, level) pairs");
+        }
+
+        /**
+         * @return a scorer over the pairs found in the segment, or null if there is none
+         */
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException {
+            LeafReader reader = context.reader();
+            DocIdSetIterator[] postings = new DocIdSetIterator[weights.length];
+            float[] scaled = new float[weights.length];
+            int size = 0;
+            for(int i=0;i<weights.length;i++){
+                PostingsEnum posting = reader.postings(new Term(fields[i], terms[i]), PostingsEnum.NONE);
+                if (posting == null) continue;
+                postings[size]  = posting;
+                scaled[size++]  = weights[i] * boost;
+            }
+            if (size == 0) return null;
+            return new HashScorer(this, Arrays.copyOf(postings, size), Arrays.copyOf(scaled, size));
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            return true;
+        }
+    }
+
+    /**
+     * Disjunction of the postings of the pairs, sorted by ascending weight, with MaxScore pruning
+     */
+    static class HashScorer extends Scorer {
+
+        private final DocIdSetIterator[] postings;
+
+        private final float[] weights;
+
+        // upper bound of the score of a document matching only the pairs [0, i)
+        private final float[] bound;
+
+        private final int[] current;
+
+        private final DocIdSetIterator iterator;
+
+        private float minCompetitiveScore;
+
+        // pairs below 'essential' can not make a document competitive on their own
+        private int essential;
+
+        private int doc = -1;
+
+        private float score;
+
+        private int freq;
+
+        HashScorer(Weight weight, DocIdSetIterator[] postings, float[] weights) {
+            super(weight);
+            this.postings   = postings;
+            this.weights    = weights;
+            this.bound      = new float[postings.length+1];
+            for(int i=0;i<postings.length;i++) bound[i+1] = bound[i] + weights[i];
+            this.current    = new int[postings.length];
+            Arrays.fill(current, -1);
+            long cost = 0;
+            for(DocIdSetIterator posting : postings) cost += posting.cost();
+            final long totalCost = cost;
+            this.iterator = new DocIdSetIterator() {
+                @Override
+                public int docID() {
+                    return doc;
+                }
+
+                @Override
+                public int nextDoc() throws IOException {
+                    return advance(doc + 1);
+                }
+
+                @Override
+                public int advance(int target) throws IOException {
+                    return doc = next(target);
+                }
+
+                @Override
+                public long cost() {
+                    return totalCost;
+                }
+            };
+        }
+
+        /**
+         * Documents scoring less than 'minScore' may be skipped from now on. It can only be raised
+         */
+        public void setMinCompetitiveScore(float minScore){
+            if (minScore <= minCompetitiveScore) return;
+            this.minCompetitiveScore = minScore;
+            while(essential < postings.length && bound[essential+1] < minScore) essential++;
+        }
+
+        /**
+         * @return the highest score a document can get
+         */
+        public float maxScore(){
+            return bound[postings.length];
+        }
+
+        /**
+         * @return number of pairs matched by the current document
+         */
+        public int freq(){
+            return freq;
+        }
+
+        @Override
+        public int docID() {
+            return doc;
+        }
+
+        @Override
+        public float score() {
+            return score;
+        }
+
+        @Override
+        public DocIdSetIterator iterator() {
+            return iterator;
+        }
+
+        private int next(int target) throws IOException {
+            if (target == DocIdSetIterator.NO_MORE_DOCS) return target;
+            while(true){
+                int candidate = DocIdSetIterator.NO_MORE_DOCS;
+                for(int i=essential;i<postings.length;i++){
+                    if (current[i] < target) current[i] = postings[i].advance(target);
+                    if (current[i] < candidate) candidate = current[i];
+                }
+                if (candidate == DocIdSetIterator.NO_MORE_DOCS) return candidate;
+
+                float sum   = 0f;
+                int matches = 0;
+                for(int i=essential;i<postings.length;i++){
+                    if (current[i] == candidate){
+                        sum += weights[i];
+                        matches++;
+                    }
+                }
+                // non-essential pairs, from the heaviest, while the document can still be competitive
+                int i = essential - 1;
+                for(;i>=0 && sum + bound[i+1] >= minCompetitiveScore;i--){
+                    if (current[i] < candidate) current[i] = postings[i].advance(candidate);
+                    if (current[i] == candidate){
+                        sum += weights[i];
+                        matches++;
+                    }
+                }
+                if (i < 0 && sum >= minCompetitiveScore){
+                    this.score  = sum;
+                    this.freq   = matches;
+                    return candidate;
+                }
+                target = candidate + 1;
+            }
+        }
+    }
+
+    /**
+     * Keeps the top-k documents, raising the minimum competitive score of the scorers with the k-th score
+     */
+    private static class TopScoresCollector implements Collector {
+
+        private final TopScores top;
+
+        TopScoresCollector(TopScores top) {
+            this.top = top;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) {
+            final int docBase = context.docBase;
+            return new LeafCollector() {
+
+                private Scorer scorer;
+
+                @Override
+                public void setScorer(Scorer scorer) {
+                    this.scorer = scorer;
+                    prune();
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    if (top.offer(docBase + doc, scorer.score())) prune();
+                }
+
+                private void prune(){
+                    // ties are kept by ascending doc id, so a document must beat the k-th score
+                    if (top.size() == top.capacity() && scorer instanceof HashScorer){
+                        ((HashScorer) scorer).setMinCompetitiveScore(Math.nextUp((float) top.minScore()));
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean needsScores() {
+            return true;
+        }
+    }
+}
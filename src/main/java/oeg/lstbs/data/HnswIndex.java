@@ -0,0 +1,526 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.metrics.ComparisonMetric;
+import oeg.lstbs.metrics.Hellinger;
+import oeg.lstbs.metrics.SqrtHellinger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin, 2016) over topic vectors.
+ *
+ * Every vector is a node placed in levels 0..l, with l drawn from an exponential distribution, and linked to its
+ * closest nodes in each of them (at most M per level, 2M in level 0) following the neighbour selection heuristic.
+ * Searches go greedily down from the top level and explore 'ef' candidates in level 0.
+ *
+ * Documents can be added concurrently: the links of a node are immutable arrays replaced under the lock of that node,
+ * so searches never block. Distances come from the given {@link ComparisonMetric}. For {@link Hellinger} the graph keeps
+ * the square root of each vector and compares them with {@link SqrtHellinger}, which gives the same values.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HnswIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HnswIndex.class);
+
+    private static final int MAGIC = 0x484E5357;
+
+    private static final byte VERSION = 1;
+
+    private final ComparisonMetric metric;
+
+    private final ComparisonMetric kernel;
+
+    private final int m;
+
+    private final int maxM0;
+
+    private final int efConstruction;
+
+    private final double levelMultiplier;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Map<String,Integer> ordinals = new ConcurrentHashMap<>();
+
+    private final Object entryLock = new Object();
+
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    private volatile Node[] nodes = new Node[1024];
+
+    private volatile int entry = -1;
+
+    private volatile int dimension = -1;
+
+    public HnswIndex(ComparisonMetric metric) {
+        this(metric, 16, 200);
+    }
+
+    /**
+     * @param metric distance used to build and search the graph
+     * @param m maximum number of links per node and level (twice in level 0)
+     * @param efConstruction size of the candidate list while inserting
+     */
+    public HnswIndex(ComparisonMetric metric, int m, int efConstruction) {
+        if (m < 2) throw new IllegalArgumentException("M must be at least 2");
+        this.metric             = metric;
+        this.kernel             = (metric instanceof Hellinger)? new SqrtHellinger() : metric;
+        this.m                  = m;
+        this.maxM0              = 2 * m;
+        this.efConstruction     = Math.max(efConstruction, m);
+        this.levelMultiplier    = 1.0 / Math.log(m);
+    }
+
+    public ComparisonMetric getMetric() {
+        return metric;
+    }
+
+    public int size(){
+        return size.get();
+    }
+
+    public boolean contains(String id){
+        return ordinals.containsKey(id);
+    }
+
+    public String getId(int ordinal){
+        return node(ordinal).id;
+    }
+
+    public double[] getVector(int ordinal){
+        return node(ordinal).vector;
+    }
+
+    /**
+     * Inserts a new vector in the graph. It can be called concurrently. Ids already in the graph (e.g. documents added
+     * again to a loaded graph) are skipped.
+     * @return ordinal of the new node, or -1 if the id was already in the graph
+     */
+    public int add(String id, double[] vector){
+        checkDimension(vector.length);
+
+        int level   = (int) Math.floor(-Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * levelMultiplier);
+        int ordinal = allocate(new Node(id, vector, point(vector), level));
+        if (ordinal < 0) return -1;
+        Node node   = node(ordinal);
+        double[] point = node.point;
+
+        int current;
+        synchronized (entryLock){
+            if (entry < 0){
+                entry = ordinal;
+                return ordinal;
+            }
+            current = entry;
+        }
+
+        int[] counter = new int[1];
+        int top = node(current).level;
+        double currentDistance = distance(point, current, counter);
+        for(int l = top; l > level; l--){
+            current         = greedy(point, current, currentDistance, l, counter);
+            currentDistance = distance(point, current, counter);
+        }
+
+        for(int l = Math.min(level, top); l >= 0; l--){
+            Heap results    = searchLayer(point, current, currentDistance, efConstruction, l, counter);
+            int[] ids       = new int[results.size];
+            double[] dists  = new double[results.size];
+            int found       = results.size;
+            for(int i = results.size - 1; i >= 0; i--){
+                dists[i]    = -results.peekKey();
+                ids[i]      = results.pop();
+            }
+            // a concurrent insertion may have linked this node already
+            int length = 0;
+            for(int i=0;i<found;i++){
+                if (ids[i] == ordinal) continue;
+                ids[length]     = ids[i];
+                dists[length++] = dists[i];
+            }
+            if (length == 0) continue;
+            int[] neighbours = select(ids, dists, length, l == 0? maxM0 : m);
+            synchronized (node){
+                node.links.set(l, neighbours);
+            }
+            for(int neighbour : neighbours){
+                link(neighbour, ordinal, l);
+            }
+            current         = ids[0];
+            currentDistance = dists[0];
+        }
+
+        if (level > top){
+            synchronized (entryLock){
+                if (level > node(entry).level) entry = ordinal;
+            }
+        }
+        return ordinal;
+    }
+
+    /**
+     * Approximate k nearest neighbours of the query
+     * @param ef size of the candidate list in level 0 (at least k)
+     * @param counter incremented with the number of distances computed
+     * @return up to k nodes sorted by descending similarity
+     */
+    public TopScores search(double[] query, int k, int ef, AtomicInteger counter){
+        int current = entry;
+        TopScores hits = new TopScores(Math.max(1,k));
+        if (current < 0) return hits.sort();
+        checkDimension(query.length);
+        query = point(query);
+
+        int[] computed = new int[1];
+        double currentDistance = distance(query, current, computed);
+        for(int l = node(current).level; l > 0; l--){
+            current         = greedy(query, current, currentDistance, l, computed);
+            currentDistance = distance(query, current, computed);
+        }
+        Heap results = searchLayer(query, current, currentDistance, Math.max(ef, k), 0, computed);
+
+        TopScores nearest = new TopScores(Math.max(1,k));
+        while(results.size > 0){
+            double distance = -results.peekKey();
+            nearest.offer(results.pop(), -distance);
+        }
+        nearest.sort();
+        for(int i=0;i<nearest.size();i++){
+            double[] target = node(nearest.ordinal(i)).point;
+            hits.offer(nearest.ordinal(i), kernel.similarity(query, 0, target, 0, target.length));
+        }
+        if (counter != null) counter.addAndGet(computed[0]);
+        return hits.sort();
+    }
+
+    /**
+     * Writes the graph to a file. It should not be called while vectors are being added.
+     */
+    public void save(File file){
+        file.getParentFile().mkdirs();
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20))){
+            int total = size.get();
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeUTF(metric.id());
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(dimension);
+            out.writeInt(total);
+            out.writeInt(entry);
+            for(int i=0;i<total;i++){
+                Node node = node(i);
+                out.writeUTF(node.id);
+                out.writeInt(node.level);
+                for(double value : node.vector) out.writeDouble(value);
+                for(int l=0;l<=node.level;l++){
+                    int[] links = node.links.get(l);
+                    out.writeInt(links.length);
+                    for(int link : links) out.writeInt(link);
+                }
+            }
+            LOG.info("HNSW graph with " + total + " nodes saved at: " + file.getAbsolutePath());
+        }catch (IOException e){
+            throw new RuntimeException("Error saving HNSW graph: " + file, e);
+        }
+    }
+
+    /**
+     * Reads a graph written by {@link #save(File)}. The metric must be the one used to build it.
+     */
+    public static HnswIndex load(File file, ComparisonMetric metric){
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20))){
+            if (in.readInt() != MAGIC) throw new IOException("Not a HNSW graph: " + file);
+            byte version = in.readByte();
+            if (version > VERSION) throw new IOException("Unsupported HNSW graph version: " + version);
+            String metricId = in.readUTF();
+            if (!metricId.equals(metric.id())) throw new IllegalArgumentException("HNSW graph " + file + " was built with '" + metricId + "' but '" + metric.id() + "' was given");
+            HnswIndex index = new HnswIndex(metric, in.readInt(), in.readInt());
+            int dim     = in.readInt();
+            int total   = in.readInt();
+            int entry   = in.readInt();
+            Node[] nodes = new Node[Math.max(total, 1024)];
+            for(int i=0;i<total;i++){
+                String id   = in.readUTF();
+                int level   = in.readInt();
+                double[] vector = new double[dim];
+                for(int j=0;j<dim;j++) vector[j] = in.readDouble();
+                Node node   = new Node(id, vector, index.point(vector), level);
+                for(int l=0;l<=level;l++){
+                    int[] links = new int[in.readInt()];
+                    for(int j=0;j<links.length;j++) links[j] = in.readInt();
+                    node.links.set(l, links);
+                }
+                nodes[i] = node;
+                index.ordinals.put(id, i);
+            }
+            index.dimension = dim;
+            index.nodes     = nodes;
+            index.size.set(total);
+            index.entry     = entry;
+            return index;
+        }catch (IOException e){
+            throw new RuntimeException("Error loading HNSW graph: " + file, e);
+        }
+    }
+
+    private double[] point(double[] vector){
+        return (kernel instanceof SqrtHellinger)? SqrtHellinger.transform(vector) : vector;
+    }
+
+    private Node node(int ordinal){
+        return nodes[ordinal];
+    }
+
+    private synchronized int allocate(Node node){
+        if (ordinals.containsKey(node.id)) return -1;
+        int ordinal = size.get();
+        if (ordinal == nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        nodes[ordinal] = node;
+        size.set(ordinal + 1);
+        ordinals.put(node.id, ordinal);
+        return ordinal;
+    }
+
+    private void checkDimension(int length){
+        if (dimension < 0){
+            synchronized (this){
+                if (dimension < 0) dimension = length;
+            }
+        }
+        if (length != dimension) throw new IllegalArgumentException("Vector has " + length + " dimensions, but " + dimension + " were expected");
+    }
+
+    private double distance(double[] query, int ordinal, int[] counter){
+        counter[0]++;
+        double[] target = node(ordinal).point;
+        return kernel.distance(query, 0, target, 0, target.length);
+    }
+
+    private int greedy(double[] query, int current, double currentDistance, int level, int[] counter){
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int neighbour : node(current).links.get(level)){
+                double d = distance(query, neighbour, counter);
+                if (d < currentDistance){
+                    currentDistance = d;
+                    current         = neighbour;
+                    changed         = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the 'ef' closest nodes found, keyed by negative distance (the furthest one on top)
+     */
+    private Heap searchLayer(double[] query, int start, double startDistance, int ef, int level, int[] counter){
+        Visited marks = visited.get();
+        marks.reset(size.get());
+        Heap candidates = new Heap(Math.min(ef, 64));
+        Heap results    = new Heap(Math.min(ef, 64) + 1);
+        candidates.push(start, startDistance);
+        results.push(start, -startDistance);
+        marks.visit(start);
+
+        while(candidates.size > 0){
+            double closest = candidates.peekKey();
+            if (results.size >= ef && closest > -results.peekKey()) break;
+            int current = candidates.pop();
+            for(int neighbour : node(current).links.get(level)){
+                if (!marks.visit(neighbour)) continue;
+                double d = distance(query, neighbour, counter);
+                if (results.size < ef || d < -results.peekKey()){
+                    candidates.push(neighbour, d);
+                    results.push(neighbour, -d);
+                    if (results.size > ef) results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the base node than to any neighbour
+     * already selected. Discarded candidates fill the remaining slots.
+     * @param ids candidates sorted by ascending distance to the base node
+     */
+    private int[] select(int[] ids, double[] distances, int length, int max){
+        if (length <= max) return Arrays.copyOf(ids, length);
+        int[] selected  = new int[max];
+        int[] pruned    = new int[length];
+        int numSelected = 0;
+        int numPruned   = 0;
+        for(int i=0; i<length && numSelected < max; i++){
+            double[] candidate = node(ids[i]).point;
+            boolean good = true;
+            for(int j=0;j<numSelected;j++){
+                double[] other = node(selected[j]).point;
+                if (kernel.distance(candidate, 0, other, 0, candidate.length) < distances[i]){
+                    good = false;
+                    break;
+                }
+            }
+            if (good) selected[numSelected++] = ids[i];
+            else pruned[numPruned++] = ids[i];
+        }
+        for(int i=0; i<numPruned && numSelected < max; i++){
+            selected[numSelected++] = pruned[i];
+        }
+        return numSelected == max? selected : Arrays.copyOf(selected, numSelected);
+    }
+
+    private void link(int from, int to, int level){
+        Node node = node(from);
+        synchronized (node){
+            int[] links = node.links.get(level);
+            int max     = level == 0? maxM0 : m;
+            int[] updated = Arrays.copyOf(links, links.length + 1);
+            updated[links.length] = to;
+            if (updated.length > max){
+                double[] distances = new double[updated.length];
+                for(int i=0;i<updated.length;i++){
+                    double[] target = node(updated[i]).point;
+                    distances[i] = kernel.distance(node.point, 0, target, 0, target.length);
+                }
+                sortByDistance(updated, distances);
+                updated = select(updated, distances, updated.length, max);
+            }
+            node.links.set(level, updated);
+        }
+    }
+
+    private static void sortByDistance(int[] ids, double[] distances){
+        for(int i=1;i<ids.length;i++){
+            int id      = ids[i];
+            double d    = distances[i];
+            int j = i - 1;
+            while(j >= 0 && distances[j] > d){
+                ids[j+1]        = ids[j];
+                distances[j+1]  = distances[j];
+                j--;
+            }
+            ids[j+1]        = id;
+            distances[j+1]  = d;
+        }
+    }
+
+    private static class Node {
+
+        private final String id;
+        private final double[] vector;
+        private final double[] point;
+        private final int level;
+        private final AtomicReferenceArray<int[]> links;
+
+        Node(String id, double[] vector, double[] point, int level) {
+            this.id     = id;
+            this.vector = vector;
+            this.point  = point;
+            this.level  = level;
+            this.links  = new AtomicReferenceArray<>(level + 1);
+            for(int l=0;l<=level;l++) links.set(l, new int[0]);
+        }
+    }
+
+    /**
+     * Binary min-heap of (node, key) pairs
+     */
+    private static class Heap {
+
+        private int[] ids;
+        private double[] keys;
+        private int size = 0;
+
+        Heap(int capacity) {
+            this.ids    = new int[Math.max(capacity, 2)];
+            this.keys   = new double[Math.max(capacity, 2)];
+        }
+
+        void push(int id, double key){
+            if (size == ids.length){
+                ids     = Arrays.copyOf(ids, size * 2);
+                keys    = Arrays.copyOf(keys, size * 2);
+            }
+            int index = size++;
+            while(index > 0){
+                int parent = (index - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                ids[index]  = ids[parent];
+                keys[index] = keys[parent];
+                index = parent;
+            }
+            ids[index]  = id;
+            keys[index] = key;
+        }
+
+        double peekKey(){
+            return keys[0];
+        }
+
+        int pop(){
+            int top = ids[0];
+            size--;
+            if (size > 0){
+                int id      = ids[size];
+                double key  = keys[size];
+                int index   = 0;
+                while(true){
+                    int child = 2 * index + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                    if (key <= keys[child]) break;
+                    ids[index]  = ids[child];
+                    keys[index] = keys[child];
+                    index = child;
+                }
+                ids[index]  = id;
+                keys[index] = key;
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Visited marks reused by the searches of a thread
+     */
+    private static class Visited {
+
+        private int[] marks = new int[0];
+        private int generation = 0;
+
+        void reset(int capacity){
+            if (marks.length < capacity){
+                marks       = new int[Math.max(capacity, marks.length * 2)];
+                generation  = 0;
+            }
+            if (++generation == Integer.MAX_VALUE){
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /**
+         * @return true if the node had not been visited yet
+         */
+        boolean visit(int ordinal){
+            if (ordinal >= marks.length) marks = Arrays.copyOf(marks, Math.max(ordinal + 1, marks.length * 2));
+            if (marks[ordinal] == generation) return false;
+            marks[ordinal] = generation;
+            return true;
+        }
+    }
+
+}
@@ -14,21 +14,54 @@ public class Index {
 
     private static final Logger LOG = LoggerFactory.getLogger(Index.class);
 
+    private static final int BATCH_SIZE = 1000;
+
     private final Repository repository;
 
+    private double throughput;
+
     public Index(String id, String path, Integer size, HierarchicalHashMethod method) {
 
+        RepositoryManifest manifest = new RepositoryManifest(method, path + "?size=" + size);
+        this.repository = open(id, manifest);
+        this.repository.setHashMethod(method);
+        if (repository.getMode() == Repository.Mode.APPEND){
+            LOG.info("Reusing index " + id + " with " + repository.getSize() + " documents");
+            return;
+        }
+
         LOG.info("Creating index for " + size + " documents from " + id + " with hash algorithm: " + StringUtils.substringAfterLast(method.getClass().getCanonicalName(),"."));
-        this.repository = new Repository(id);
-        VectorReader.VectorAction action = (x, vector) -> repository.add(x, method.hash(vector), vector);
+        // vectors are hashed in parallel and added in batches, with a single commit at the end
+        Repository.BulkLoader loader = repository.bulkLoader(BATCH_SIZE);
+        VectorReader.VectorAction action = (x, vector) -> loader.add(x, method.encode(vector), vector);
         Integer interval = size >0? Double.valueOf(Math.ceil(Double.valueOf(size) / 100.0)).intValue() : 100;
         VectorReader.VectorValidation predicate = (x, vector) -> true;
         VectorReader.from(path, 0, action, predicate,  interval, size);
-        LOG.info(repository.getSize() + " documents indexed");
+        loader.finish();
+        this.throughput = loader.getThroughput();
+        LOG.info(repository.getSize() + " documents indexed (" + String.format("%.1f", throughput) + " docs/sec)");
         repository.close();
 
     }
 
+    /**
+     * An existing index built from the same documents with the same settings is reopened instead of rebuilt
+     */
+    private static Repository open(String id, RepositoryManifest manifest){
+        if (manifest.equals(Repository.manifestOf(id).orElse(null))){
+            Repository existing = new Repository(id, manifest, Repository.Mode.APPEND);
+            if (existing.exists()) return existing;
+        }
+        return new Repository(id, manifest, Repository.Mode.CREATE);
+    }
+
+    /**
+     * @return documents indexed per second, or 0 if an existing index was reused
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
     public Repository getRepository() {
         return repository;
     }
@@ -0,0 +1,152 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.apache.commons.math3.ml.clustering.CentroidCluster;
+import org.apache.commons.math3.ml.clustering.DoublePoint;
+import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
+import org.apache.commons.math3.ml.distance.DistanceMeasure;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Inverted file over the document space.
+ *
+ * A k-means quantizer trained on a sample of topic distributions splits the space in 'lists' cells, and every
+ * document ordinal is posted to the list of its closest centroid(s). Both training and assignment use the given
+ * {@link ComparisonMetric} as distance.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class IvfIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IvfIndex.class);
+
+    private final ComparisonMetric metric;
+
+    private final int lists;
+
+    private final int iterations;
+
+    private volatile double[][] centroids;
+
+    private int[][] postings;
+
+    private int[] sizes;
+
+    private Object[] locks;
+
+    public IvfIndex(ComparisonMetric metric, int lists) {
+        this(metric, lists, 100);
+    }
+
+    /**
+     * @param metric distance used to train the centroids and to assign documents
+     * @param lists number of centroids
+     * @param iterations maximum number of k-means iterations
+     */
+    public IvfIndex(ComparisonMetric metric, int lists, int iterations) {
+        if (lists < 1) throw new IllegalArgumentException("At least one list is required");
+        this.metric     = metric;
+        this.lists      = lists;
+        this.iterations = iterations;
+    }
+
+    public ComparisonMetric getMetric() {
+        return metric;
+    }
+
+    public boolean isTrained(){
+        return centroids != null;
+    }
+
+    /**
+     * @return number of lists, which can be lower than the requested one when the sample is too small
+     */
+    public int getLists(){
+        return centroids == null? 0 : centroids.length;
+    }
+
+    public synchronized void train(List<double[]> sample){
+        if (sample.isEmpty()) throw new IllegalArgumentException("Empty training sample");
+        int k = Math.min(lists, sample.size());
+        KMeansPlusPlusClusterer<DoublePoint> clusterer = new KMeansPlusPlusClusterer<>(k, iterations, new MetricDistanceMeasure(metric));
+        List<CentroidCluster<DoublePoint>> clusters = clusterer.cluster(sample.stream().map(DoublePoint::new).collect(Collectors.toList()));
+
+        List<double[]> trained = new ArrayList<>();
+        for(CentroidCluster<DoublePoint> cluster : clusters){
+            trained.add(cluster.getCenter().getPoint());
+        }
+        this.postings   = new int[trained.size()][16];
+        this.sizes      = new int[trained.size()];
+        this.locks      = new Object[trained.size()];
+        for(int i=0;i<locks.length;i++) locks[i] = new Object();
+        this.centroids  = trained.toArray(new double[trained.size()][]);
+        LOG.info("Trained " + centroids.length + " centroids from " + sample.size() + " distributions");
+    }
+
+    /**
+     * @return the 'n' lists closest to the vector, from the closest one
+     */
+    public int[] probe(double[] vector, int n){
+        double[][] current = centroids;
+        if (current == null) throw new IllegalStateException("Index has not been trained");
+        TopScores closest = new TopScores(Math.max(1, Math.min(n, current.length)));
+        for(int i=0;i<current.length;i++){
+            closest.offer(i, -metric.distance(vector, 0, current[i], 0, vector.length));
+        }
+        closest.sort();
+        int[] probes = new int[closest.size()];
+        for(int i=0;i<probes.length;i++) probes[i] = closest.ordinal(i);
+        return probes;
+    }
+
+    /**
+     * Posts the ordinal to its 'replicas' closest lists
+     */
+    public void add(int ordinal, double[] vector, int replicas){
+        for(int list : probe(vector, replicas)){
+            synchronized (locks[list]){
+                post(list, ordinal);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the ordinals posted to the list
+     */
+    public int[] list(int list){
+        synchronized (locks[list]){
+            return Arrays.copyOf(postings[list], sizes[list]);
+        }
+    }
+
+    private void post(int list, int ordinal){
+        int[] posting = postings[list];
+        if (sizes[list] == posting.length){
+            posting = Arrays.copyOf(posting, posting.length * 2);
+            postings[list] = posting;
+        }
+        posting[sizes[list]++] = ordinal;
+    }
+
+    private static class MetricDistanceMeasure implements DistanceMeasure {
+
+        private final ComparisonMetric metric;
+
+        MetricDistanceMeasure(ComparisonMetric metric) {
+            this.metric = metric;
+        }
+
+        @Override
+        public double compute(double[] p1, double[] p2) {
+            return metric.distance(p1, 0, p2, 0, p1.length);
+        }
+    }
+
+}
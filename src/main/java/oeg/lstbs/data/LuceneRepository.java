@@ -13,6 +13,7 @@ import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,6 +31,7 @@ public class LuceneRepository {
     private final IndexWriter writer;
     private final FSDirectory directory;
     private final String id;
+    private final File indexFile;
     private DirectoryReader reader;
     private AtomicInteger counter = new AtomicInteger();
     private IndexSearcher searcher;
@@ -37,7 +39,7 @@ public class LuceneRepository {
     public LuceneRepository(String id) {
         try {
             this.id = id;
-            File indexFile = File.createTempFile(id,".tmp");
+            this.indexFile = File.createTempFile(id,".tmp");
             indexFile.getParentFile().mkdirs();
             if (indexFile.exists()) indexFile.delete();
             this.directory = FSDirectory.open(indexFile.toPath());
@@ -102,6 +104,20 @@ public class LuceneRepository {
         }
     }
 
+    /**
+     * Closes the index and removes it from disk
+     */
+    public synchronized void delete(){
+        try {
+            if (writer.isOpen()) writer.close();
+            if (reader != null) reader.close();
+            directory.close();
+            FileUtils.deleteDirectory(indexFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
     public DirectoryReader getReader(){
         try {
             close();
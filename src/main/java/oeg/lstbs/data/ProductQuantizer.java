@@ -0,0 +1,249 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.io.ParallelExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Product quantization (Jégou et al. 2011) of topic distributions.
+ *
+ * Vectors are mapped to √p and split in 'subspaces' contiguous sub-vectors. Each sub-space has its own codebook of up
+ * to 256 centroids trained with k-means, so a vector is encoded as one byte per sub-vector. In the √p space the squared
+ * euclidean distance is twice the squared Hellinger distance, so the codes approximate Hellinger and keep the ranking
+ * of the other divergences close enough to be used as a first stage.
+ *
+ * Queries are not quantized: {@link #table(double[])} computes the distance of each query sub-vector to every centroid
+ * once, and the distance to an encoded vector is the sum of one lookup per sub-space (asymmetric distance).
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class ProductQuantizer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductQuantizer.class);
+
+    public static final int MAX_CENTROIDS = 256;
+
+    private final int dimension;
+
+    private final int subspaces;
+
+    private final int[] offsets;
+
+    private final int iterations;
+
+    private final long seed;
+
+    private int centroids;
+
+    // codebooks[s] holds 'centroids' rows of the sub-space length, row-major
+    private volatile double[][] codebooks;
+
+    /**
+     * @param dimension number of topics
+     * @param subspaces number of sub-vectors, i.e. bytes per encoded vector
+     * @param iterations maximum number of k-means iterations per sub-space
+     * @param seed seed of the k-means initialization
+     */
+    public ProductQuantizer(int dimension, int subspaces, int iterations, long seed) {
+        if (subspaces < 1 || subspaces > dimension) throw new IllegalArgumentException("Sub-spaces must be between 1 and " + dimension);
+        this.dimension  = dimension;
+        this.subspaces  = subspaces;
+        this.iterations = iterations;
+        this.seed       = seed;
+        // the remainder of the division is spread over the first sub-spaces
+        this.offsets    = new int[subspaces + 1];
+        for(int s=0;s<subspaces;s++){
+            offsets[s+1] = offsets[s] + dimension / subspaces + (s < dimension % subspaces? 1 : 0);
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    public boolean isTrained(){
+        return codebooks != null;
+    }
+
+    /**
+     * Trains the codebooks of every sub-space in parallel
+     * @param sample row-major matrix of topic distributions
+     * @param rows number of distributions in the matrix
+     */
+    public void train(double[] sample, int rows){
+        if (rows < 1) throw new IllegalArgumentException("Empty training sample");
+        double[] points = new double[rows * dimension];
+        for(int i=0;i<points.length;i++) points[i] = Math.sqrt(sample[i]);
+
+        int k = Math.min(MAX_CENTROIDS, rows);
+        double[][] trained = new double[subspaces][];
+        ParallelExecutor executor = new ParallelExecutor();
+        for(int s=0;s<subspaces;s++){
+            final int subspace = s;
+            executor.submit(() -> trained[subspace] = kmeans(points, rows, subspace, k));
+        }
+        executor.shutdown();
+        executor.join();
+        this.centroids = k;
+        this.codebooks = trained;
+        LOG.info("Trained " + subspaces + " codebooks of " + k + " centroids from " + rows + " distributions");
+    }
+
+    /**
+     * Writes the code of the vector (one byte per sub-space) at the given offset
+     */
+    public void encode(double[] vector, byte[] codes, int offset){
+        for(int s=0;s<subspaces;s++){
+            int from    = offsets[s];
+            int length  = offsets[s+1] - from;
+            double[] codebook = codebooks[s];
+            int best = 0;
+            double min = Double.MAX_VALUE;
+            for(int c=0;c<centroids;c++){
+                double sum = 0;
+                int base = c * length;
+                for(int j=0;j<length;j++){
+                    double diff = Math.sqrt(vector[from+j]) - codebook[base+j];
+                    sum += diff * diff;
+                }
+                if (sum < min){
+                    min = sum;
+                    best = c;
+                }
+            }
+            codes[offset + s] = (byte) best;
+        }
+    }
+
+    /**
+     * @return squared euclidean distances in √p from each query sub-vector to each centroid ('subspaces' rows of 256)
+     */
+    public double[] table(double[] query){
+        if (query.length != dimension) throw new IllegalArgumentException("Query has " + query.length + " dimensions, but " + dimension + " were expected");
+        double[] table = new double[subspaces * MAX_CENTROIDS];
+        for(int s=0;s<subspaces;s++){
+            int from    = offsets[s];
+            int length  = offsets[s+1] - from;
+            double[] codebook = codebooks[s];
+            for(int c=0;c<centroids;c++){
+                double sum = 0;
+                int base = c * length;
+                for(int j=0;j<length;j++){
+                    double diff = Math.sqrt(query[from+j]) - codebook[base+j];
+                    sum += diff * diff;
+                }
+                table[s * MAX_CENTROIDS + c] = sum;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return approximate squared euclidean distance in √p between the query of the table and the encoded vector
+     */
+    public double distance(double[] table, byte[] codes, int offset){
+        double sum = 0;
+        for(int s=0, base=0;s<subspaces;s++, base+=MAX_CENTROIDS){
+            sum += table[base + (codes[offset + s] & 0xFF)];
+        }
+        return sum;
+    }
+
+    /**
+     * Writes the trained codebooks
+     */
+    public void write(DataOutputStream out) throws IOException {
+        if (codebooks == null) throw new IllegalStateException("Quantizer has not been trained");
+        out.writeInt(dimension);
+        out.writeInt(subspaces);
+        out.writeInt(iterations);
+        out.writeLong(seed);
+        out.writeInt(centroids);
+        for(double[] codebook : codebooks){
+            for(double value : codebook) out.writeDouble(value);
+        }
+    }
+
+    public static ProductQuantizer read(DataInputStream in) throws IOException {
+        ProductQuantizer quantizer = new ProductQuantizer(in.readInt(), in.readInt(), in.readInt(), in.readLong());
+        int k = in.readInt();
+        double[][] codebooks = new double[quantizer.subspaces][];
+        for(int s=0;s<codebooks.length;s++){
+            codebooks[s] = new double[k * (quantizer.offsets[s+1] - quantizer.offsets[s])];
+            for(int i=0;i<codebooks[s].length;i++) codebooks[s][i] = in.readDouble();
+        }
+        quantizer.centroids = k;
+        quantizer.codebooks = codebooks;
+        return quantizer;
+    }
+
+    private double[] kmeans(double[] points, int rows, int subspace, int k){
+        int from    = offsets[subspace];
+        int length  = offsets[subspace+1] - from;
+        double[] centers = new double[k * length];
+
+        // initial centers are distinct rows drawn at random
+        Random random = new Random(seed + subspace);
+        int[] rowIds = new int[rows];
+        for(int i=0;i<rows;i++) rowIds[i] = i;
+        for(int c=0;c<k;c++){
+            int swap = c + random.nextInt(rows - c);
+            int tmp = rowIds[c]; rowIds[c] = rowIds[swap]; rowIds[swap] = tmp;
+            System.arraycopy(points, rowIds[c] * dimension + from, centers, c * length, length);
+        }
+
+        int[] assignment = new int[rows];
+        double[] sums = new double[k * length];
+        int[] counts = new int[k];
+        for(int iteration=0;iteration<iterations;iteration++){
+            int changes = 0;
+            for(int i=0;i<rows;i++){
+                int base = i * dimension + from;
+                int best = 0;
+                double min = Double.MAX_VALUE;
+                for(int c=0;c<k;c++){
+                    double sum = 0;
+                    int cbase = c * length;
+                    for(int j=0;j<length && sum < min;j++){
+                        double diff = points[base+j] - centers[cbase+j];
+                        sum += diff * diff;
+                    }
+                    if (sum < min){
+                        min = sum;
+                        best = c;
+                    }
+                }
+                if (iteration == 0 || assignment[i] != best) changes++;
+                assignment[i] = best;
+            }
+            if (changes == 0) break;
+
+            Arrays.fill(sums, 0.0);
+            Arrays.fill(counts, 0);
+            for(int i=0;i<rows;i++){
+                int c = assignment[i];
+                counts[c]++;
+                int base = i * dimension + from;
+                for(int j=0;j<length;j++) sums[c * length + j] += points[base+j];
+            }
+            for(int c=0;c<k;c++){
+                // empty clusters keep their previous center
+                if (counts[c] == 0) continue;
+                for(int j=0;j<length;j++) centers[c * length + j] = sums[c * length + j] / counts[c];
+            }
+        }
+        return centers;
+    }
+
+}
@@ -0,0 +1,285 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.io.ParallelExecutor;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@link VectorStore} with a product-quantized copy of its vectors ({@link ProductQuantizer}).
+ *
+ * Only the codes (one byte per sub-space) are kept in memory. A search scans the codes with the asymmetric distance
+ * table of the query, and then re-ranks the best 'rerank' x k candidates with the given metric on the full-precision
+ * vectors of the store, which are memory-mapped and only touched for those candidates.
+ *
+ * Codebooks are trained on a sample of the first vectors, once 'sampleSize' of them are flushed (or at the first search
+ * if the store never gets that big). Until then searches are exhaustive.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class QuantizedStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QuantizedStore.class);
+
+    private static final int MIN_PARTITION_SIZE = 50000;
+
+    private static final long SEED = 1234L;
+
+    private static final int MAGIC = 0x4C535051;
+
+    private final VectorStore store;
+
+    private final int subspaces;
+
+    private final int rerank;
+
+    private final int sampleSize;
+
+    private final TopKScanner scanner = new TopKScanner();
+
+    private volatile ProductQuantizer quantizer;
+
+    private volatile Codes codes = new Codes(new byte[0], 0);
+
+    public QuantizedStore(VectorStore store, int subspaces) {
+        this(store, subspaces, 10, 10000);
+    }
+
+    /**
+     * @param store full-precision vectors
+     * @param subspaces bytes per encoded vector
+     * @param rerank number of candidates, as a multiple of the requested results, re-ranked with full precision
+     * @param sampleSize number of vectors used to train the codebooks
+     */
+    public QuantizedStore(VectorStore store, int subspaces, int rerank, int sampleSize) {
+        this.store      = store;
+        this.subspaces  = subspaces;
+        this.rerank     = Math.max(1, rerank);
+        this.sampleSize = sampleSize;
+    }
+
+    public VectorStore getStore() {
+        return store;
+    }
+
+    public boolean isTrained(){
+        return quantizer != null;
+    }
+
+    public synchronized void reset(){
+        store.reset();
+        this.quantizer  = null;
+        this.codes      = new Codes(new byte[0], 0);
+    }
+
+    /**
+     * Appends the vector to the store and, once the codebooks are trained, encodes it
+     * @return ordinal of the vector
+     */
+    public synchronized int append(String id, double[] vector){
+        int ordinal = store.append(id, vector);
+        if (quantizer != null) encode(quantizer, ordinal, vector);
+        return ordinal;
+    }
+
+    public synchronized void flush(){
+        store.flush();
+        if (quantizer == null && store.size() >= sampleSize) train();
+    }
+
+    /**
+     * Saves the codebooks and the codes of the flushed vectors
+     */
+    public synchronized void save(File file){
+        if (quantizer == null) return;
+        store.flush();
+        Codes current = codes;
+        int size = Math.min(current.size, store.size());
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))){
+            out.writeInt(MAGIC);
+            quantizer.write(out);
+            out.writeInt(size);
+            out.write(current.data, 0, size * quantizer.getSubspaces());
+        }catch (IOException e){
+            throw new RuntimeException("Error saving quantized vectors: " + file, e);
+        }
+        LOG.info("Saved " + size + " quantized vectors to " + file);
+    }
+
+    /**
+     * Loads the codebooks and codes saved by {@link #save(File)}. Vectors appended to the store afterwards are encoded
+     */
+    public synchronized void load(File file){
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))){
+            if (in.readInt() != MAGIC) throw new IOException("Not a quantized vector file: " + file);
+            ProductQuantizer loaded = ProductQuantizer.read(in);
+            if (store.size() > 0 && loaded.getDimension() != store.dimension()) throw new IOException("Quantized vectors have " + loaded.getDimension() + " dimensions, but the store has " + store.dimension());
+            int size = Math.min(in.readInt(), store.size());
+            byte[] data = new byte[size * loaded.getSubspaces()];
+            in.readFully(data);
+            this.codes      = new Codes(data, size);
+            for(int ordinal=size;ordinal<store.size();ordinal++){
+                encode(loaded, ordinal, store.get(ordinal));
+            }
+            this.quantizer  = loaded;
+            LOG.info("Loaded " + size + " quantized vectors from " + file);
+        }catch (IOException e){
+            throw new RuntimeException("Error loading quantized vectors: " + file, e);
+        }
+    }
+
+    /**
+     * Marks the vector of the document as deleted
+     * @return true if the document had a live vector
+     */
+    public boolean delete(String id){
+        return store.delete(id);
+    }
+
+    /**
+     * Rewrites the store without the deleted vectors and drops their codes. Searches must not run meanwhile, since
+     * ordinals change
+     * @return new ordinal of each previous one (-1 for deleted vectors), or null if nothing was deleted
+     */
+    public synchronized int[] compact(){
+        int[] mapping = store.compact();
+        if (mapping == null || quantizer == null) return mapping;
+        int bytes       = quantizer.getSubspaces();
+        Codes current   = codes;
+        int size        = Math.min(current.size, mapping.length);
+        byte[] data     = new byte[size * bytes];
+        int live        = 0;
+        for(int ordinal=0;ordinal<size;ordinal++){
+            if (mapping[ordinal] < 0) continue;
+            System.arraycopy(current.data, ordinal * bytes, data, mapping[ordinal] * bytes, bytes);
+            live++;
+        }
+        this.codes = new Codes(data, live);
+        return mapping;
+    }
+
+    /**
+     * @return the k most similar vectors, sorted by descending score
+     */
+    public TopScores top(double[] query, ComparisonMetric metric, int k){
+        if (quantizer == null){
+            synchronized (this){
+                if (quantizer == null && store.size() > 0) train();
+            }
+        }
+        ProductQuantizer current = quantizer;
+        if (current == null) return scanner.top(store, query, metric, k);
+
+        // vectors are encoded in ordinal order, so the visible ones are those both flushed and encoded
+        Codes encoded   = codes;
+        int size        = Math.min(encoded.size, store.size());
+        byte[] data     = encoded.data;
+        int candidates  = (int) Math.min((long) k * rerank, size);
+        TopScores approximate = approximate(current, data, size, query, Math.max(1, candidates));
+
+        int[] ordinals = new int[approximate.size()];
+        for(int i=0;i<ordinals.length;i++) ordinals[i] = approximate.ordinal(i);
+        Arrays.sort(ordinals);
+        TopScores exact = new TopScores(Math.max(1, k));
+        store.scan(ordinals, ordinals.length, query, metric, exact::offer);
+        return exact.sort();
+    }
+
+    /**
+     * @return number of candidates that a search of k results compares with full precision
+     */
+    public int candidates(int k){
+        return quantizer == null? store.size() : (int) Math.min((long) k * rerank, store.size());
+    }
+
+    private TopScores approximate(ProductQuantizer current, byte[] data, int size, double[] query, int k){
+        double[] table  = current.table(query);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int partitions  = (int) Math.max(1, Math.min(parallelism, (size + (long) MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE));
+        if (partitions == 1) return approximate(current, data, 0, size, table, k);
+
+        TopScores[] partials = new TopScores[partitions];
+        ParallelExecutor executor = new ParallelExecutor(partitions);
+        int step = (size + partitions - 1) / partitions;
+        for(int i=0;i<partitions;i++){
+            final int index = i;
+            final int from  = i * step;
+            final int to    = Math.min(size, from + step);
+            executor.submit(() -> partials[index] = approximate(current, data, from, to, table, k));
+        }
+        executor.shutdown();
+        executor.join();
+
+        TopScores result = partials[0];
+        for(int i=1;i<partitions;i++){
+            result.addAll(partials[i]);
+        }
+        return result;
+    }
+
+    private TopScores approximate(ProductQuantizer current, byte[] data, int from, int to, double[] table, int k){
+        TopScores heap = new TopScores(k);
+        int bytes = current.getSubspaces();
+        boolean deletions = store.deletions() > 0;
+        for(int ordinal=from;ordinal<to;ordinal++){
+            // deleted vectors keep their codes until the store is compacted, and would be dropped by the re-rank
+            if (deletions && store.isDeleted(ordinal)) continue;
+            heap.offer(ordinal, -current.distance(table, data, ordinal * bytes));
+        }
+        return heap;
+    }
+
+    private void train(){
+        // every appended vector has to be readable to be encoded
+        store.flush();
+        int size        = store.size();
+        int dimension   = store.dimension();
+        int rows        = Math.min(size, sampleSize);
+
+        // the sample is drawn without replacement (partial Fisher-Yates) to not depend on the insertion order
+        int[] ordinals = new int[size];
+        for(int i=0;i<size;i++) ordinals[i] = i;
+        Random random = new Random(SEED);
+        double[] sample = new double[rows * dimension];
+        for(int i=0;i<rows;i++){
+            int swap = i + random.nextInt(size - i);
+            int tmp = ordinals[i]; ordinals[i] = ordinals[swap]; ordinals[swap] = tmp;
+            System.arraycopy(store.get(ordinals[i]), 0, sample, i * dimension, dimension);
+        }
+
+        ProductQuantizer trained = new ProductQuantizer(dimension, Math.min(subspaces, dimension), 10, SEED);
+        trained.train(sample, rows);
+        for(int ordinal=0;ordinal<size;ordinal++){
+            encode(trained, ordinal, store.get(ordinal));
+        }
+        this.quantizer = trained;
+        LOG.info("Encoded " + size + " vectors in " + trained.getSubspaces() + " bytes each");
+    }
+
+    private void encode(ProductQuantizer current, int ordinal, double[] vector){
+        int bytes = current.getSubspaces();
+        byte[] data = codes.data;
+        if ((ordinal + 1) * bytes > data.length){
+            data = Arrays.copyOf(data, Math.max((ordinal + 1) * bytes, data.length * 2));
+        }
+        current.encode(vector, data, ordinal * bytes);
+        this.codes = new Codes(data, ordinal + 1);
+    }
+
+    private static class Codes {
+
+        private final byte[] data;
+        private final int size;
+
+        Codes(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+    }
+
+}
@@ -4,7 +4,7 @@ import com.google.common.collect.MinMaxPriorityQueue;
 import oeg.lstbs.algorithms.BruteForceAlgorithm;
 import oeg.lstbs.io.ParallelExecutor;
 import oeg.lstbs.io.ReaderUtils;
-import oeg.lstbs.io.SerializationUtils;
+import oeg.lstbs.io.VectorCodec;
 import oeg.lstbs.metrics.JSD;
 import org.apache.lucene.analysis.core.KeywordAnalyzer;
 import org.apache.lucene.document.Field;
@@ -34,6 +34,7 @@ public class Rater {
     private final Corpus corpus;
     private final LuceneRepository repository;
     private Map<String,Integer> categories = new HashMap<>();
+    private final VectorCodec codec = new VectorCodec();
 
 
     public Rater(Corpus corpus, Integer size) {
@@ -52,7 +53,7 @@ public class Rater {
                 org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
                 luceneDoc.add(new TextField("name", document.getId(), Field.Store.YES));
 
-                BytesRef bytesRef = new BytesRef(SerializationUtils.serialize(document.getVector()));
+                BytesRef bytesRef = new BytesRef(codec.encode(document.getVector()));
                 luceneDoc.add(new StoredField("vector", bytesRef));
 
                 this.repository.add(luceneDoc);
@@ -88,7 +89,9 @@ public class Rater {
 
             org.apache.lucene.document.Document luceneDoc = reader.document(result.scoreDocs[0].doc);
 
-            List<Double> v1 = (List<Double>) SerializationUtils.deserialize(luceneDoc.getBinaryValue("vector").bytes);
+            BytesRef vectorRef = luceneDoc.getBinaryValue("vector");
+            double[] v1 = VectorCodec.decode(vectorRef.bytes, vectorRef.offset, vectorRef.length);
+            double[] v2 = new double[v1.length];
 
             TopDocs results = searcher.search(new MatchAllDocsQuery(), reader.numDocs());
 
@@ -101,9 +104,9 @@ public class Rater {
                 String id2 = String.format(doc.get("name"));
 
                 BytesRef byteRef = doc.getBinaryValue("vector");
-                List<Double> v2 = (List<Double>) SerializationUtils.deserialize(byteRef.bytes);
+                int length = VectorCodec.decode(byteRef.bytes, byteRef.offset, byteRef.length, v2);
 
-                Similarity similarity = new Similarity(metric.similarity(v1, v2), new Document(document), new Document(id2));
+                Similarity similarity = new Similarity(metric.similarity(v1, 0, v2, 0, length), new Document(document), new Document(id2));
 
                 pairs.add(similarity);
             }
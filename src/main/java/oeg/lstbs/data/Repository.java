@@ -1,8 +1,10 @@
 package oeg.lstbs.data;
 
-import com.google.common.collect.MinMaxPriorityQueue;
+import com.google.common.primitives.Doubles;
+import oeg.lstbs.hash.HashCode;
+import oeg.lstbs.hash.HierarchicalHashMethod;
 import oeg.lstbs.io.ParallelExecutor;
-import oeg.lstbs.io.SerializationUtils;
+import oeg.lstbs.io.VectorCodec;
 import oeg.lstbs.metrics.ComparisonMetric;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenFilter;
@@ -17,6 +19,7 @@ import org.apache.lucene.queries.mlt.MoreLikeThis;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,11 +30,34 @@ import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
+ * Lucene index of hash codes and topic vectors.
+ *
+ * The writer stays open while documents are added, and readers are served by a near-real-time {@link SearcherManager}
+ * built on it, so the repository can be queried during ingestion. Searchers are reference-counted: use
+ * {@link #acquire()} and {@link #release(IndexSearcher)}. New documents become visible on {@link #refresh()}, which is
+ * done before a read when there are pending changes or periodically by a background thread
+ * ({@link #setRefreshInterval(long, TimeUnit)}).
+ *
+ * Settings are recorded in a {@link RepositoryManifest} when the repository is closed, so an existing repository can be
+ * reopened ({@link Mode#APPEND}, {@link Mode#READ_ONLY}) without ingesting its documents again.
+ *
+ * Hash codes are indexed from their compact form ({@link HashCode}): the tokens of every level are produced straight
+ * from its topics, and queries build their terms from them too.
+ *
+ * Documents can be replaced ({@link #upsert(String, HashCode, List)}) or removed ({@link #delete(String)}) by id. The index
+ * reclaims deleted documents in background merges, and deleted vectors are skipped by scans until the vector store is
+ * compacted on close.
+ *
+ * Large collections are loaded with a {@link BulkLoader}, which adds documents in batches from several threads and
+ * commits once at the end, instead of {@link #add(String, HashCode, List)} which is serialized and commits every 500.
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -42,35 +68,182 @@ public class Repository {
     private FSDirectory directory;
     private final String id;
     private final File indexFile;
-    private DirectoryReader reader;
+    private volatile SearcherManager searcherManager;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private ScheduledExecutorService refresher;
+    private boolean created;
     private AtomicInteger counter = new AtomicInteger();
-    private IndexSearcher searcher;
+    private final VectorCodec codec;
+    private final VectorStore store;
+    private final TopKScanner scanner = new TopKScanner();
+    private final QuantizedStore quantized;
+    private final RepositoryManifest manifest;
+    private final Mode mode;
+    private volatile HierarchicalHashMethod hashMethod;
 
     private static final Integer MAX_CLAUSES = 1024;
 
+    private static final int DELETE_BATCH_SIZE = 1024;
+
+    private static final Set<String> ID_FIELD = Collections.singleton("id");
+
+    private static final String[] HASH_FIELDS = new String[16];
+
+    static {
+        for(int i=0;i<HASH_FIELDS.length;i++) HASH_FIELDS[i] = "hash" + i;
+    }
+
+    // vectors are compacted on close when more than this ratio of them are deleted
+    private static final double MAX_DELETED_VECTORS = 0.2;
+
     public Repository(String id) {
+        this(id, new VectorCodec());
+    }
+
+    public Repository(String id, VectorCodec codec) {
+        this(id, codec, VectorStore.Transform.NONE);
+    }
+
+    /**
+     * @param transform how vectors are kept in the scan column. {@link VectorStore.Transform#SQRT} turns Hellinger
+     *                  searches into a dot-product kernel
+     */
+    public Repository(String id, VectorCodec codec, VectorStore.Transform transform) {
+        this(id, codec, transform, 0);
+    }
+
+    /**
+     * @param subspaces bytes per product-quantized vector ({@link QuantizedStore}) used by top-k searches. Vectors are
+     *                  not quantized when it is 0
+     */
+    public Repository(String id, VectorCodec codec, VectorStore.Transform transform, int subspaces) {
+        this(id, new RepositoryManifest(null, 0, codec.getType(), transform, subspaces, null), Mode.CREATE);
+    }
+
+    /**
+     * @param manifest settings of the repository. When an existing repository is reopened they must match the ones it
+     *                 was built with
+     * @param mode {@link Mode#CREATE} replaces any previous content on the first write, {@link Mode#APPEND} and
+     *             {@link Mode#READ_ONLY} reopen the index, the vectors and the quantization codes found on disk
+     */
+    public Repository(String id, RepositoryManifest manifest, Mode mode) {
         this.id = id;
         this.indexFile = Paths.get("repository",id).toFile();
+        this.codec = new VectorCodec(manifest.getCodec());
+        this.store = new VectorStore(indexFile.getParentFile(), id, manifest.getCodec(), manifest.getTransform());
+        this.quantized = manifest.getSubspaces() > 0? new QuantizedStore(store, manifest.getSubspaces()) : null;
+        this.manifest = manifest;
+        this.mode = mode;
+        this.created = mode != Mode.CREATE;
+        if (mode != Mode.CREATE) reopen();
+    }
+
+    /**
+     * @return settings the repository was built with, if it exists
+     */
+    public static Optional<RepositoryManifest> manifestOf(String id){
+        return RepositoryManifest.read(manifestFileOf(id));
+    }
+
+    private static File manifestFileOf(String id){
+        return Paths.get("repository", id + ".manifest").toFile();
+    }
+
+    private File quantizedFile(){
+        return new File(indexFile.getParentFile(), id + ".pq");
+    }
+
+    public RepositoryManifest getManifest() {
+        return manifest;
     }
 
-    public void delete(){
-        if (indexFile.exists()) indexFile.delete();
+    public Mode getMode() {
+        return mode;
     }
 
-    public synchronized void add(String id, Map<Integer,List<String>> hashcode, List<Double> vector){
+    public HierarchicalHashMethod getHashMethod() {
+        return hashMethod;
+    }
+
+    /**
+     * @param method hash method of the indexed documents, used by {@link #search(List, int, ComparisonMetric, int)} to
+     *               hash the queries. It must be the one in the manifest, if any
+     */
+    public void setHashMethod(HierarchicalHashMethod method) {
+        if (manifest.getHashMethod() != null && !manifest.getHashMethod().equals(method.id()))
+            throw new IllegalArgumentException("Repository '" + id + "' was hashed with '" + manifest.getHashMethod() + "', not '" + method.id() + "'");
+        this.hashMethod = method;
+    }
+
+    /**
+     * @return true if there is a committed index on disk
+     */
+    public boolean exists(){
         try {
-            open();
-            org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
-            doc.add(new StringField("id", id, Field.Store.YES));
+            if (!indexFile.exists()) return false;
+            synchronized (this){
+                if (directory == null) directory = FSDirectory.open(indexFile.toPath());
+            }
+            return DirectoryReader.indexExists(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
 
-            BytesRef bytesRef = new BytesRef(SerializationUtils.serialize(vector));
-            doc.add(new StoredField("vector", bytesRef));
+    private void reopen(){
+        Optional<RepositoryManifest> existing = manifestOf(id);
+        boolean exists = exists();
+        if (existing.isPresent()){
+            List<String> differences = existing.get().differencesWith(manifest);
+            if (!differences.isEmpty()) throw new IllegalStateException("Repository '" + id + "' can not be reopened: " + String.join(", ", differences));
+        }else if (exists){
+            LOG.warn("Repository '" + id + "' has no manifest, it is assumed to be built with " + manifest);
+        }
+        if (!exists){
+            if (mode == Mode.READ_ONLY) throw new IllegalStateException("Repository '" + id + "' does not exist");
+            return;
+        }
 
-            for(Map.Entry<Integer,List<String>> entry: hashcode.entrySet()){
-                doc.add(new TextField("hash" + entry.getKey(), entry.getValue().stream().collect(Collectors.joining(" ")), Field.Store.YES));
+        if (store.exists()){
+            int documents = getSize();
+            // vectors are flushed before the index is committed, so an interrupted commit leaves extra vectors
+            if (store.size() != documents) LOG.warn("Repository '" + id + "' has " + documents + " documents but " + store.size() + " vectors");
+        }
+        if (quantized != null && quantizedFile().exists()) quantized.load(quantizedFile());
+        LOG.info("Reopened repository '" + id + "' (" + mode + ")");
+    }
+
+    /**
+     * Removes the repository from disk: index, vectors, quantization codes and manifest
+     */
+    public synchronized void delete(){
+        close();
+        try {
+            if (directory != null){
+                directory.close();
+                directory = null;
             }
+            FileUtils.deleteDirectory(indexFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+        resetVectors();
+        quantizedFile().delete();
+        manifestFileOf(id).delete();
+        this.created = false;
+    }
 
-            writer.addDocument(doc);
+    public void add(String id, Map<Integer,List<String>> hashcode, List<Double> vector){
+        add(id, HashCode.of(hashcode), vector);
+    }
+
+    public synchronized void add(String id, HashCode hashcode, List<Double> vector){
+        try {
+            open();
+            double[] values = Doubles.toArray(vector);
+            writer.addDocument(document(id, hashcode, values));
+            append(id, values);
+            pending.set(true);
             if (counter.incrementAndGet() % 500 == 0 ) {
                 commit();
                 LOG.info("Added " + counter.get() + " documents");
@@ -81,6 +254,94 @@ public class Repository {
         }
     }
 
+    public void upsert(String id, Map<Integer,List<String>> hashcode, List<Double> vector){
+        upsert(id, HashCode.of(hashcode), vector);
+    }
+
+    /**
+     * Adds the document, or replaces the previous one with the same id (both in the index and in the vector store)
+     */
+    public synchronized void upsert(String id, HashCode hashcode, List<Double> vector){
+        try {
+            open();
+            double[] values = Doubles.toArray(vector);
+            writer.updateDocument(new Term("id", id), document(id, hashcode, values));
+            deleteVector(id);
+            append(id, values);
+            pending.set(true);
+            if (counter.incrementAndGet() % 500 == 0 ) {
+                commit();
+                LOG.info("Upserted " + counter.get() + " documents");
+            }
+        } catch (Exception e) {
+            LOG.warn("Error on document: '" + id + "'",e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void delete(String id){
+        delete(Collections.singletonList(id));
+    }
+
+    /**
+     * Deletes the documents with the given ids. Terms are sent to the writer in batches, and the space is reclaimed by
+     * background merges
+     */
+    public synchronized void delete(Collection<String> ids){
+        try {
+            open();
+            List<Term> batch = new ArrayList<>(DELETE_BATCH_SIZE);
+            for(String docId : ids){
+                batch.add(new Term("id", docId));
+                deleteVector(docId);
+                if (batch.size() == DELETE_BATCH_SIZE){
+                    writer.deleteDocuments(batch.toArray(new Term[batch.size()]));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) writer.deleteDocuments(batch.toArray(new Term[batch.size()]));
+            pending.set(true);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    private Document document(String id, HashCode hashcode, double[] values){
+        org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+
+        BytesRef bytesRef = new BytesRef(codec.encode(values));
+        doc.add(new StoredField("vector", bytesRef));
+
+        addHashFields(doc, hashcode);
+        return doc;
+    }
+
+    private Document document(String id, String name, String txt){
+        org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+
+        doc.add(new TextField("name", name.replace("|", " "), Field.Store.YES));
+
+        doc.add(new TextField("txt", txt.replace("|"," "), Field.Store.YES));
+        return doc;
+    }
+
+    /**
+     * Indexes every level from its topics (pre-analyzed, with the same terms the analyzer would produce from the
+     * tokens) and stores its tokens
+     */
+    private void addHashFields(Document doc, HashCode hashcode){
+        for(int level=0;level<hashcode.getDepth();level++){
+            doc.add(new TextField(hashField(level), new TopicTokenStream(hashcode.getTopics(level))));
+            doc.add(new StoredField(hashField(level), hashcode.getTokens(level)));
+        }
+    }
+
+    static String hashField(int level){
+        return level < HASH_FIELDS.length? HASH_FIELDS[level] : "hash" + level;
+    }
+
     public List<String> getIds(){
         List<String> idList = new ArrayList<>();
         TopDocs topDocs = getBy(new MatchAllDocsQuery(), getSize());
@@ -94,17 +355,20 @@ public class Repository {
         return idList;
     }
 
-    public synchronized void add(String id, Map<Integer,List<String>> hashcode){
+    public void add(String id, Map<Integer,List<String>> hashcode){
+        add(id, HashCode.of(hashcode));
+    }
+
+    public synchronized void add(String id, HashCode hashcode){
         try {
             open();
             org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
             doc.add(new StringField("id", id, Field.Store.YES));
 
-            for(Map.Entry<Integer,List<String>> entry: hashcode.entrySet()){
-                doc.add(new TextField("hash" + entry.getKey(), entry.getValue().stream().collect(Collectors.joining(" ")), Field.Store.YES));
-            }
+            addHashFields(doc, hashcode);
 
             writer.addDocument(doc);
+            pending.set(true);
             if (counter.incrementAndGet() % 500 == 0 ) {
                 commit();
                 LOG.info("Added " + counter.get() + " documents");
@@ -121,10 +385,13 @@ public class Repository {
             org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
             doc.add(new StringField("id", id, Field.Store.YES));
 
-            BytesRef bytesRef = new BytesRef(SerializationUtils.serialize(vector));
+            double[] values = Doubles.toArray(vector);
+            BytesRef bytesRef = new BytesRef(codec.encode(values));
             doc.add(new StoredField("vector", bytesRef));
 
             writer.addDocument(doc);
+            pending.set(true);
+            append(id, values);
             if (counter.incrementAndGet() % 500 == 0 ) {
                 commit();
                 LOG.info("Added " + counter.get() + " documents");
@@ -138,14 +405,8 @@ public class Repository {
     public synchronized void add(String id, String name, String txt){
         try {
             open();
-            org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document();
-            doc.add(new StringField("id", id, Field.Store.YES));
-
-            doc.add(new TextField("name", name.replace("|", " "), Field.Store.YES));
-
-            doc.add(new TextField("txt", txt.replace("|"," "), Field.Store.YES));
-
-            writer.addDocument(doc);
+            writer.addDocument(document(id, name, txt));
+            pending.set(true);
 
             if (counter.incrementAndGet() % 500 == 0 ) {
                 commit();
@@ -158,48 +419,40 @@ public class Repository {
     }
 
     public boolean contains(String id){
-        close();
         Query termQuery             = new TermQuery(new Term("id",id));
         BooleanClause booleanClause = new BooleanClause(termQuery, BooleanClause.Occur.MUST);
         BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
         booleanQuery.add(booleanClause);
+        IndexSearcher searcher = acquire();
         try {
             TopDocs topDocs = searcher.search(booleanQuery.build(),1);
             return topDocs.totalHits >0;
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            release(searcher);
         }
         return false;
     }
 
     public int getSize(){
-        return getReader().numDocs();
+        IndexSearcher searcher = acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            release(searcher);
+        }
     }
 
 
     public Map<String,Double> getSimilarTo(List<Double> vector, Integer top, ComparisonMetric metric){
 
-        MinMaxPriorityQueue<Similarity> pairs = MinMaxPriorityQueue.orderedBy(new Similarity.ScoreComparator()).maximumSize(top).create();
-        close();
-//        ParallelExecutor executor = new ParallelExecutor();
-        for(int i=0;i<reader.numDocs();i++){
-            Integer index  = i;
-//            executor.submit(() -> {
-                try {
-                    Document doc = reader.document(index);
-                    List<Double> v2 = (List<Double>) SerializationUtils.deserialize(doc.getBinaryValue("vector").bytes);
-                    add(pairs,new Similarity(metric.similarity(vector,v2), new oeg.lstbs.data.Document(doc.get("id")),null));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-//            });
-        }
-//        executor.awaitTermination(1l, TimeUnit.HOURS);
+        if (pending.get()) refresh();
+        TopScores scores = (quantized != null)? quantized.top(Doubles.toArray(vector), metric, top) : scanner.top(store, Doubles.toArray(vector), metric, top);
 
         Map<String,Double> documents = new HashMap<>();
-        while(!pairs.isEmpty()){
-            Similarity s = pairs.poll();
-            documents.put(s.getD1().getId(), s.getScore());
+        for(int i=0;i<scores.size();i++){
+            documents.put(store.getId(scores.ordinal(i)), scores.score(i));
         }
 
         return documents;
@@ -208,21 +461,12 @@ public class Repository {
 
     public Map<String,Double> getSimilarToByThreshold(List<Double> vector, Double threshold, ComparisonMetric metric){
 
+        if (pending.get()) refresh();
+        TopScores scores = scanner.above(store, Doubles.toArray(vector), metric, threshold);
+
         ConcurrentHashMap<String, Double> documentMap = new ConcurrentHashMap<String, Double>();
-        close();
-        for(int i=0;i<reader.numDocs();i++){
-            Integer index  = i;
-            try {
-                Document doc = reader.document(index);
-                List<Double> v2 = (List<Double>) SerializationUtils.deserialize(doc.getBinaryValue("vector").bytes);
-                Double score = metric.similarity(vector, v2);
-                if (score > threshold){
-                    oeg.lstbs.data.Document d = new oeg.lstbs.data.Document(doc.get("id"));
-                    documentMap.put(d.getId(), score);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        for(int i=0;i<scores.size();i++){
+            documentMap.put(store.getId(scores.ordinal(i)), scores.score(i));
         }
 
         return documentMap;
@@ -230,37 +474,95 @@ public class Repository {
     }
 
     public Map<String,Double> getSimilarTo(Map<Integer,List<String>> hashcode, Integer top){
+        return getSimilarTo(HashCode.of(hashcode), top);
+    }
 
-        close();
-
-        MinMaxPriorityQueue<Similarity> pairs = MinMaxPriorityQueue.orderedBy(new Similarity.ScoreComparator()).maximumSize(top).create();
+    /**
+     * @return the top documents by hierarchical hash similarity ({@link HierarchicalHashQuery}), evaluated on the
+     * postings without expanding the hash code into a boolean query
+     */
+    public Map<String,Double> getSimilarTo(HashCode hashcode, Integer top){
 
-        IndexSearcher searcher = new IndexSearcher(reader);
+        Map<String,Double> documents = new HashMap<>();
 
-        Query query = getSimilarToQuery(hashcode).build();
+        IndexSearcher searcher = acquire();
 
         try {
-            TopDocs topDocs = searcher.search(query,reader.numDocs());
-            for(int i=0;i<topDocs.totalHits;i++){
-                ScoreDoc d = topDocs.scoreDocs[i];
-                Document doc = getDocument(d.doc);
-                Similarity similarity = new Similarity(Double.valueOf(d.score), new oeg.lstbs.data.Document(doc.get("id")),null);
-                pairs.add(similarity);
+            ScoreDoc[] scoreDocs = new HierarchicalHashQuery(hashcode).search(searcher, top);
+            for(ScoreDoc d : scoreDocs){
+                Document doc = searcher.doc(d.doc, ID_FIELD);
+                documents.put(doc.get("id"), Double.valueOf(d.score));
             }
         } catch (IOException e) {
             LOG.error("Unexpected error",e);
-        }
-
-        Map<String,Double> documents = new HashMap<>();
-        while(!pairs.isEmpty()){
-            Similarity s = pairs.poll();
-            documents.put(s.getD1().getId(), s.getScore());
+        } finally {
+            release(searcher);
         }
 
         return documents;
     }
 
 
+    /**
+     * Two-stage search with the configured hash method ({@link #setHashMethod(HierarchicalHashMethod)})
+     */
+    public SearchResult search(List<Double> vector, int k, ComparisonMetric metric, int candidateBudget){
+        HierarchicalHashMethod method = hashMethod;
+        if (method == null) throw new IllegalStateException("No hash method set for repository '" + id + "'");
+        return search(vector, k, metric, candidateBudget, method);
+    }
+
+    /**
+     * Retrieves the 'candidateBudget' documents most similar by hash code to the one of the vector, and re-ranks them
+     * exactly with the metric over their stored vectors. Recall grows with the budget up to the one of an exact scan
+     * ({@link #getSimilarTo(List, Integer, ComparisonMetric)}), and so does the re-rank time. At least k candidates are
+     * retrieved.
+     * @return the k most similar candidates, with the candidates examined and the time of every stage
+     */
+    public SearchResult search(List<Double> vector, int k, ComparisonMetric metric, int candidateBudget, HierarchicalHashMethod method){
+
+        if (pending.get()) refresh();
+
+        long start = System.nanoTime();
+        HashCode hashcode = method.encode(vector);
+        long hashed = System.nanoTime();
+
+        int[] ordinals;
+        int candidates;
+        IndexSearcher searcher = acquire();
+        try {
+            ScoreDoc[] scoreDocs = new HierarchicalHashQuery(hashcode).search(searcher, Math.max(k, candidateBudget));
+            candidates = scoreDocs.length;
+            ordinals = new int[candidates];
+            int size = 0;
+            for(ScoreDoc d : scoreDocs){
+                // documents without a vector can not be re-ranked
+                int ordinal = store.ordinalOf(searcher.doc(d.doc, ID_FIELD).get("id"));
+                if (ordinal >= 0) ordinals[size++] = ordinal;
+            }
+            ordinals = Arrays.copyOf(ordinals, size);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
+        }
+        long retrieved = System.nanoTime();
+
+        // in storage order, so the vectors are read sequentially
+        Arrays.sort(ordinals);
+        TopScores scores = new TopScores(Math.max(1, k));
+        store.scan(ordinals, ordinals.length, Doubles.toArray(vector), metric, scores::offer);
+        scores.sort();
+
+        LinkedHashMap<String,Double> documents = new LinkedHashMap<>();
+        for(int i=0;i<scores.size();i++){
+            documents.put(store.getId(scores.ordinal(i)), scores.score(i));
+        }
+        long reranked = System.nanoTime();
+
+        return new SearchResult(documents, candidates, ordinals.length, hashed - start, retrieved - hashed, reranked - retrieved);
+    }
+
     public Map<Integer,List<String>> getHashcodeOf(int docId, int depth){
 
         Map<Integer,List<String>> hashcode = new HashMap<>();
@@ -278,18 +580,27 @@ public class Repository {
     }
 
     public BooleanQuery.Builder getSimilarToQuery(Map<Integer,List<String>> hashcode){
+        return getSimilarToQuery(HashCode.of(hashcode));
+    }
+
+    /**
+     * Every topic of a level is searched in that level and the deeper ones, boosted by the square of the distance to
+     * the deepest level. Terms are built from the topics, without intermediate strings. The query is limited to
+     * MAX_CLAUSES clauses, {@link HierarchicalHashQuery} has no limit
+     */
+    public BooleanQuery.Builder getSimilarToQuery(HashCode hashcode){
         BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
-        AtomicInteger counter = new AtomicInteger();
-        for(Map.Entry<Integer,List<String>> entry : hashcode.entrySet()){
-            Integer index = entry.getKey();
-            for(String topic: entry.getValue()){
-                for(int i=index;i<hashcode.size();i++){
-                    if (counter.incrementAndGet() > MAX_CLAUSES){
+        int counter = 0;
+        int depth = hashcode.getDepth();
+        for(int index=0;index<depth;index++){
+            for(int topic: hashcode.getTopics(index)){
+                for(int i=index;i<depth;i++){
+                    if (++counter > MAX_CLAUSES){
                         LOG.warn("Max clauses limit reached");
                         break;
                     }
-                    Integer boost = hashcode.size()-i;
-                    Query termQuery             = new TermQuery(new Term("hash"+i,topic));
+                    Integer boost = depth-i;
+                    Query termQuery             = new TermQuery(new Term(hashField(i), TopicTokenStream.term(topic)));
                     Query boostedQuery          = new BoostQuery(termQuery,boost*boost);
                     BooleanClause booleanClause = new BooleanClause(boostedQuery, BooleanClause.Occur.SHOULD);
                     booleanQuery.add(booleanClause);
@@ -300,23 +611,31 @@ public class Repository {
     }
 
     public Double getRatioHitsTo(Map<Integer,List<String>> hashcode){
-        close();
+        return getRatioHitsTo(HashCode.of(hashcode));
+    }
 
+    /**
+     * @return percentage of documents sharing at least a (topic, level) pair with the hash code
+     */
+    public Double getRatioHitsTo(HashCode hashcode){
+        IndexSearcher searcher = acquire();
         try {
-            IndexSearcher searcher = new IndexSearcher(reader);
-            TopDocs topDocs = searcher.search(getSimilarToQuery(hashcode).build(), reader.numDocs());
-            return (Double.valueOf(topDocs.totalHits) * 100.0) / Double.valueOf(reader.numDocs());
+            IndexReader reader = searcher.getIndexReader();
+            int hits = searcher.count(new HierarchicalHashQuery(hashcode));
+            return (Double.valueOf(hits) * 100.0) / Double.valueOf(reader.numDocs());
         } catch (IOException e) {
             LOG.error("Unexpected query error",e);
             return 100.0;
+        } finally {
+            release(searcher);
         }
     }
 
     public Map<String,Integer> getTermsFreqAt(String field){
-        close();
-
         Map<String,Integer> topicsFreq = new HashMap<>();
+        IndexSearcher searcher = acquire();
         try {
+            IndexReader reader = searcher.getIndexReader();
             Terms terms = MultiFields.getTerms(reader, field);
 
             TermsEnum termsEnum = terms.iterator();
@@ -331,65 +650,153 @@ public class Repository {
 
         } catch (IOException e) {
             LOG.error("Unexpected query error",e);
+        } finally {
+            release(searcher);
         }
         return topicsFreq;
     }
 
     public Long getTotalHitsTo(Query query){
-        close();
+        IndexSearcher searcher = acquire();
         try {
-            IndexSearcher searcher = new IndexSearcher(reader);
-            TopDocs topDocs = searcher.search(query, reader.numDocs());
-            return topDocs.totalHits;
+            return Long.valueOf(searcher.count(query));
         } catch (IOException e) {
             LOG.error("Unexpected query error",e);
             return 0l;
+        } finally {
+            release(searcher);
         }
     }
 
 
-    private synchronized void add(MinMaxPriorityQueue<Similarity> queue, Similarity similarity){
-        queue.add(similarity);
+    private void append(String id, double[] vector){
+        if (quantized != null) quantized.append(id, vector);
+        else store.append(id, vector);
+    }
+
+    private void deleteVector(String id){
+        if (quantized != null) quantized.delete(id);
+        else store.delete(id);
+    }
+
+    private void flushVectors(){
+        if (quantized != null) quantized.flush();
+        else store.flush();
+    }
+
+    private void resetVectors(){
+        if (quantized != null) quantized.reset();
+        else store.reset();
     }
 
     public void commit(){
         try {
-            writer.commit();
+            flushVectors();
+            if (writer != null && writer.isOpen()) writer.commit();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Makes the documents added so far visible to new searchers, without committing them
+     */
+    public void refresh(){
+        try {
+            pending.set(false);
+            flushVectors();
+            SearcherManager manager = this.searcherManager;
+            if (manager != null) manager.maybeRefreshBlocking();
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    /**
+     * Refreshes searchers in background with the given period. Reads do not wait for pending changes then
+     */
+    public synchronized void setRefreshInterval(long period, TimeUnit unit){
+        stopRefresher();
+        if (period <= 0) return;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "refresh-" + id);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher.scheduleWithFixedDelay(() -> {
+            try{
+                if (pending.get()) refresh();
+            }catch (Exception e){
+                LOG.error("Unexpected error",e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * @return a searcher over the current view of the index. It must be released by {@link #release(IndexSearcher)}
+     */
+    public IndexSearcher acquire(){
+        try {
+            if (refresher == null && pending.get()) refresh();
+            return manager().acquire();
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    public void release(IndexSearcher searcher){
+        try {
+            SearcherManager manager = this.searcherManager;
+            if (manager != null) manager.release(searcher);
+            // the manager was closed meanwhile, so the reader is not shared anymore
+            else searcher.getIndexReader().decRef();
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        }
+    }
+
+    private SearcherManager manager() throws IOException {
+        SearcherManager manager = this.searcherManager;
+        if (manager != null) return manager;
+        synchronized (this){
+            if (searcherManager == null){
+                // read-only view of the last commit when no document is being added
+                if (directory == null) directory = FSDirectory.open(indexFile.toPath());
+                searcherManager = new SearcherManager(directory, new SearcherFactory());
+            }
+            return searcherManager;
+        }
+    }
+
     public org.apache.lucene.document.Document getDocument(int docId){
+        IndexSearcher searcher = acquire();
         try {
-            close();
-            return reader.document(docId);
+            return searcher.doc(docId);
 
         } catch (IOException e) {
             throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
         }
     }
 
 
     public Map<String,Double> getMoreLikeThis(Integer docId, String[] fields, Integer max){
         Map<String,Double> related = new HashMap<>();
+        IndexSearcher searcher = acquire();
         try {
-            close();
-
-
-            MoreLikeThis mlt = new MoreLikeThis(reader);
+            MoreLikeThis mlt = new MoreLikeThis(searcher.getIndexReader());
             mlt.setFieldNames(fields);
             mlt.setMinWordLen(2);
 //            mlt.setBoost(true);
             mlt.setAnalyzer(new StandardAnalyzer());
             Query q = mlt.like(docId);
-            TopDocs topDocs = getBy(q, max+1);
+            TopDocs topDocs = searcher.search(q, max+1);
 
-            long limit = max+1 <= topDocs.totalHits? max+1 : topDocs.totalHits;
-            for(int i=0;i<limit;i++){
+            for(int i=0;i<topDocs.scoreDocs.length;i++){
                 ScoreDoc d = topDocs.scoreDocs[i];
                 if (d.doc == docId) continue;
-                Document doc = getDocument(d.doc);
+                Document doc = searcher.doc(d.doc);
                 Double score = Double.valueOf(d.score);
                 related.put(doc.get("id"), score);
             }
@@ -397,85 +804,137 @@ public class Repository {
         } catch (Exception e) {
             LOG.warn("error",e);
             throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
         }
         return related;
     }
 
     public Optional<org.apache.lucene.document.Document> getDocumentBy(String id){
+        IndexSearcher searcher = acquire();
         try {
-            Optional<Integer> dId = getDocumentIdBy(id);
+            Optional<Integer> dId = getDocumentIdBy(searcher, id);
             if (!dId.isPresent()) return Optional.empty();
-            return Optional.of(reader.document(dId.get()));
+            return Optional.of(searcher.doc(dId.get()));
 
         } catch (IOException e) {
             throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
         }
     }
 
     public Optional<Integer> getDocumentIdBy(String id){
+        IndexSearcher searcher = acquire();
         try {
-            close();
-            BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
-            Query termQuery             = new TermQuery(new Term("id",id));
-            BooleanClause booleanClause = new BooleanClause(termQuery, BooleanClause.Occur.MUST);
-            booleanQuery.add(booleanClause);
-
-            IndexSearcher searcher = new IndexSearcher(reader);
-
-            Query query = booleanQuery.build();
-
-
-            TopDocs topDocs = searcher.search(query, reader.numDocs());
+            return getDocumentIdBy(searcher, id);
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
+        }
+    }
 
-            if (topDocs.totalHits == 0){
-                return Optional.empty();
-            }
+    private Optional<Integer> getDocumentIdBy(IndexSearcher searcher, String id) throws IOException {
+        BooleanQuery.Builder booleanQuery = new BooleanQuery.Builder();
+        Query termQuery             = new TermQuery(new Term("id",id));
+        BooleanClause booleanClause = new BooleanClause(termQuery, BooleanClause.Occur.MUST);
+        booleanQuery.add(booleanClause);
 
-            return Optional.of(topDocs.scoreDocs[0].doc);
+        TopDocs topDocs = searcher.search(booleanQuery.build(), 1);
 
-        } catch (IOException e) {
-            throw new RuntimeException("Unexpected error",e);
+        if (topDocs.totalHits == 0){
+            return Optional.empty();
         }
+
+        return Optional.of(topDocs.scoreDocs[0].doc);
     }
 
     public TopDocs getBy(Query query, int max){
+        IndexSearcher searcher = acquire();
         try {
-            close();
-            return searcher.search(query, (max<0? reader.numDocs() : max));
+            int numDocs = searcher.getIndexReader().numDocs();
+            return searcher.search(query, Math.max(1, (max<0? numDocs : max)));
 
         } catch (IOException e) {
             throw new RuntimeException("Unexpected error",e);
+        } finally {
+            release(searcher);
         }
     }
 
+    /**
+     * Commits pending documents and releases the writer. The repository can still be read (from its last commit) and
+     * written (by reopening the writer)
+     */
     public synchronized void close() {
             try {
+                stopRefresher();
                 if (writer != null && writer.isOpen()) {
+                    flushVectors();
                     writer.commit();
-                    writer.close();
+                    compactVectors();
+                    if (quantized != null) quantized.save(quantizedFile());
+                    // the manifest is only written for indexes closed after a successful commit
+                    manifest.write(manifestFileOf(id));
                 }
-                if (directory == null){
-                    directory = FSDirectory.open(indexFile.toPath());
+                if (searcherManager != null){
+                    searcherManager.close();
+                    searcherManager = null;
                 }
-                if (reader == null){
-                    reader = DirectoryReader.open(directory);
-                    searcher  = new IndexSearcher(reader);
+                if (writer != null){
+                    writer.close();
+                    writer = null;
                 }
+                pending.set(false);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
     }
 
+    private void compactVectors(){
+        int size = store.size();
+        if (size == 0 || store.deletions() <= size * MAX_DELETED_VECTORS) return;
+        if (quantized != null) quantized.compact();
+        else store.compact();
+    }
+
+    private void stopRefresher(){
+        if (refresher == null) return;
+        refresher.shutdown();
+        this.refresher = null;
+    }
+
     public synchronized void open() {
+        if (mode == Mode.READ_ONLY) throw new IllegalStateException("Repository '" + id + "' is read-only");
         try {
             if (writer == null) {
                 indexFile.getParentFile().mkdirs();
-                if (indexFile.exists()) indexFile.delete();
-                this.directory = FSDirectory.open(indexFile.toPath());
+                // the index is only created once, a writer reopened after close() appends to it
+                if (!created){
+                    // the index is a directory: segments and locks of a previous one must not survive
+                    if (directory != null){
+                        directory.close();
+                        directory = null;
+                    }
+                    FileUtils.deleteDirectory(indexFile);
+                    resetVectors();
+                    manifestFileOf(id).delete();
+                    quantizedFile().delete();
+                }
+                if (directory == null) this.directory = FSDirectory.open(indexFile.toPath());
                 IndexWriterConfig writerConfig = new IndexWriterConfig(new RepositoryAnalyzer());
-                writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+                writerConfig.setOpenMode(created? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
                 writerConfig.setRAMBufferSizeMB(500.0);
+                // deleted and updated documents are reclaimed by merges running in background threads
+                writerConfig.setMergePolicy(new TieredMergePolicy().setReclaimDeletesWeight(3.0));
+                writerConfig.setMergeScheduler(new ConcurrentMergeScheduler());
                 this.writer = new IndexWriter(directory, writerConfig);
+                // searchers are now served from the writer (near-real-time)
+                SearcherManager previous = this.searcherManager;
+                this.searcherManager = new SearcherManager(writer, new SearcherFactory());
+                if (previous != null) previous.close();
+                this.created = true;
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -483,16 +942,131 @@ public class Repository {
     }
 
 
+    /**
+     * @return a new reader over the current view of the index. It is owned, and must be closed, by the caller
+     */
     public DirectoryReader getReader(){
         try {
-            close();
-            return DirectoryReader.open(directory);
-
+            if (pending.get()) refresh();
+            synchronized (this){
+                if (writer != null && writer.isOpen()) return DirectoryReader.open(writer);
+                if (directory == null) directory = FSDirectory.open(indexFile.toPath());
+                return DirectoryReader.open(directory);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Unexpected error",e);
         }
     }
 
+    /**
+     * @param batchSize documents sent together to the writer by each thread
+     * @return a loader to add many documents from several threads
+     */
+    public BulkLoader bulkLoader(int batchSize){
+        open();
+        return new BulkLoader(batchSize);
+    }
+
+    public enum Mode {
+        CREATE, APPEND, READ_ONLY
+    }
+
+    /**
+     * Adds documents from several threads without locking the repository. Each thread fills its own batch, which is
+     * sent to the (thread-safe) writer with a single addDocuments call, and nothing is committed until
+     * {@link #finish()}. Documents are not visible to searchers until then.
+     */
+    public class BulkLoader {
+
+        private final int batchSize;
+
+        private final ConcurrentLinkedQueue<List<Document>> batches = new ConcurrentLinkedQueue<>();
+
+        private final ThreadLocal<List<Document>> batch;
+
+        private final AtomicInteger added = new AtomicInteger();
+
+        private final long start = System.currentTimeMillis();
+
+        private BulkLoader(int batchSize) {
+            this.batchSize  = Math.max(1, batchSize);
+            this.batch      = ThreadLocal.withInitial(() -> {
+                List<Document> documents = new ArrayList<>(this.batchSize);
+                batches.add(documents);
+                return documents;
+            });
+        }
+
+        public void add(String id, Map<Integer,List<String>> hashcode, List<Double> vector){
+            add(id, HashCode.of(hashcode), vector);
+        }
+
+        public void add(String id, HashCode hashcode, List<Double> vector){
+            try {
+                double[] values = Doubles.toArray(vector);
+                List<Document> documents = batch.get();
+                documents.add(document(id, hashcode, values));
+                append(id, values);
+                if (documents.size() >= batchSize) send(documents);
+                int total = added.incrementAndGet();
+                if (total % 10000 == 0) LOG.info("Added " + total + " documents (" + getThroughput() + " docs/sec)");
+            } catch (Exception e) {
+                LOG.warn("Error on document: '" + id + "'",e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Adds a textual document (id, name and text), as {@link Repository#add(String, String, String)}
+         */
+        public void add(String id, String name, String txt){
+            try {
+                List<Document> documents = batch.get();
+                documents.add(document(id, name, txt));
+                if (documents.size() >= batchSize) send(documents);
+                int total = added.incrementAndGet();
+                if (total % 10000 == 0) LOG.info("Added " + total + " documents (" + getThroughput() + " docs/sec)");
+            } catch (Exception e) {
+                LOG.warn("Error on document: '" + id + "'",e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Sends the remaining batches and commits the repository once. It must be called when no thread is adding
+         * documents anymore
+         */
+        public void finish(){
+            try {
+                for(List<Document> documents : batches){
+                    if (!documents.isEmpty()) send(documents);
+                }
+                commit();
+                pending.set(true);
+                LOG.info("Loaded " + added.get() + " documents in " + (System.currentTimeMillis() - start) + "msecs (" + getThroughput() + " docs/sec)");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public int getAdded(){
+            return added.get();
+        }
+
+        /**
+         * @return documents added per second since the loader was created
+         */
+        public double getThroughput(){
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+            return added.get() * 1000.0 / elapsed;
+        }
+
+        private void send(List<Document> documents) throws IOException {
+            writer.addDocuments(documents);
+            documents.clear();
+        }
+    }
+
     public class RepositoryAnalyzer extends Analyzer {
 
         @Override
@@ -0,0 +1,167 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.hash.HierarchicalHashMethod;
+import oeg.lstbs.io.VectorCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Settings used to build a {@link Repository}, kept next to its index ('id'.manifest) so that it is reopened with the
+ * same hash method, depth and vector encoding.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class RepositoryManifest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryManifest.class);
+
+    private static final String VERSION = "1";
+
+    private final String hashMethod;
+
+    private final int depth;
+
+    private final VectorCodec.Type codec;
+
+    private final VectorStore.Transform transform;
+
+    private final int subspaces;
+
+    private final String source;
+
+    public RepositoryManifest(HierarchicalHashMethod method) {
+        this(method, null);
+    }
+
+    /**
+     * @param source description of the data the repository is built from (e.g. path and number of documents)
+     */
+    public RepositoryManifest(HierarchicalHashMethod method, String source) {
+        this(method.id(), method.getDepth(), VectorCodec.Type.FLOAT64, VectorStore.Transform.NONE, 0, source);
+    }
+
+    /**
+     * @param hashMethod id of the hash method, or null when documents are not hashed
+     * @param depth levels of the hash codes
+     * @param codec encoding of the stored vectors
+     * @param transform transform of the scan column
+     * @param subspaces bytes per product-quantized vector, 0 if vectors are not quantized
+     * @param source description of the data the repository is built from, or null
+     */
+    public RepositoryManifest(String hashMethod, int depth, VectorCodec.Type codec, VectorStore.Transform transform, int subspaces, String source) {
+        this.hashMethod = hashMethod;
+        this.depth      = depth;
+        this.codec      = codec;
+        this.transform  = transform;
+        this.subspaces  = subspaces;
+        this.source     = source;
+    }
+
+    public String getHashMethod() {
+        return hashMethod;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public VectorCodec.Type getCodec() {
+        return codec;
+    }
+
+    public VectorStore.Transform getTransform() {
+        return transform;
+    }
+
+    public int getSubspaces() {
+        return subspaces;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return differences in the settings that determine the content of the index (the source is not compared)
+     */
+    public List<String> differencesWith(RepositoryManifest other){
+        List<String> differences = new ArrayList<>();
+        if (!Objects.equals(hashMethod, other.hashMethod)) differences.add("hash method is '" + hashMethod + "' instead of '" + other.hashMethod + "'");
+        if (depth != other.depth) differences.add("depth is " + depth + " instead of " + other.depth);
+        if (codec != other.codec) differences.add("codec is " + codec + " instead of " + other.codec);
+        if (transform != other.transform) differences.add("transform is " + transform + " instead of " + other.transform);
+        if (subspaces != other.subspaces) differences.add("sub-spaces are " + subspaces + " instead of " + other.subspaces);
+        return differences;
+    }
+
+    public void write(File file){
+        Properties properties = new Properties();
+        properties.setProperty("version", VERSION);
+        if (hashMethod != null) properties.setProperty("hash.method", hashMethod);
+        properties.setProperty("hash.depth", String.valueOf(depth));
+        properties.setProperty("vector.codec", codec.name());
+        properties.setProperty("vector.transform", transform.name());
+        properties.setProperty("vector.subspaces", String.valueOf(subspaces));
+        if (source != null) properties.setProperty("source", source);
+        file.getParentFile().mkdirs();
+        try(OutputStream out = new FileOutputStream(file)){
+            properties.store(out, "repository manifest");
+        }catch (IOException e){
+            throw new RuntimeException("Error writing manifest: " + file, e);
+        }
+    }
+
+    public static Optional<RepositoryManifest> read(File file){
+        if (!file.exists()) return Optional.empty();
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(file)){
+            properties.load(in);
+        }catch (IOException e){
+            throw new RuntimeException("Error reading manifest: " + file, e);
+        }
+        try{
+            return Optional.of(new RepositoryManifest(
+                    properties.getProperty("hash.method"),
+                    Integer.valueOf(properties.getProperty("hash.depth", "0")),
+                    VectorCodec.Type.valueOf(properties.getProperty("vector.codec", VectorCodec.Type.FLOAT64.name())),
+                    VectorStore.Transform.valueOf(properties.getProperty("vector.transform", VectorStore.Transform.NONE.name())),
+                    Integer.valueOf(properties.getProperty("vector.subspaces", "0")),
+                    properties.getProperty("source")));
+        }catch (IllegalArgumentException e){
+            throw new IllegalStateException("Invalid manifest: " + file, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RepositoryManifest that = (RepositoryManifest) o;
+        return differencesWith(that).isEmpty() && Objects.equals(source, that.source);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hashMethod, depth, codec, transform, subspaces, source);
+    }
+
+    @Override
+    public String toString() {
+        return "RepositoryManifest{" +
+                "hashMethod='" + hashMethod + '\'' +
+                ", depth=" + depth +
+                ", codec=" + codec +
+                ", transform=" + transform +
+                ", subspaces=" + subspaces +
+                ", source='" + source + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package oeg.lstbs.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Documents found by a two-stage search ({@link Repository#search}) and what each stage cost: the hash code of the
+ * query, the candidates retrieved by hash similarity and their exact re-rank with the metric.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class SearchResult {
+
+    private final LinkedHashMap<String,Double> documents;
+
+    private final int candidates;
+
+    private final int reranked;
+
+    private final long hashTime;
+
+    private final long candidatesTime;
+
+    private final long rerankTime;
+
+    /**
+     * @param documents similarity by document, in descending order
+     * @param candidates documents retrieved by the hash code
+     * @param reranked candidates with a vector, compared with the metric
+     * @param hashTime nanoseconds spent hashing the query
+     * @param candidatesTime nanoseconds spent retrieving the candidates
+     * @param rerankTime nanoseconds spent comparing the candidates
+     */
+    public SearchResult(LinkedHashMap<String,Double> documents, int candidates, int reranked, long hashTime, long candidatesTime, long rerankTime) {
+        this.documents      = documents;
+        this.candidates     = candidates;
+        this.reranked       = reranked;
+        this.hashTime       = hashTime;
+        this.candidatesTime = candidatesTime;
+        this.rerankTime     = rerankTime;
+    }
+
+    /**
+     * @return similarity by document, in descending order
+     */
+    public Map<String,Double> getDocuments() {
+        return documents;
+    }
+
+    public int getCandidates() {
+        return candidates;
+    }
+
+    public int getReranked() {
+        return reranked;
+    }
+
+    public long getHashTime(TimeUnit unit) {
+        return unit.convert(hashTime, TimeUnit.NANOSECONDS);
+    }
+
+    public long getCandidatesTime(TimeUnit unit) {
+        return unit.convert(candidatesTime, TimeUnit.NANOSECONDS);
+    }
+
+    public long getRerankTime(TimeUnit unit) {
+        return unit.convert(rerankTime, TimeUnit.NANOSECONDS);
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(hashTime + candidatesTime + rerankTime, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult{" +
+                "documents=" + documents.size() +
+                ", candidates=" + candidates +
+                ", reranked=" + reranked +
+                ", hashTime=" + TimeUnit.NANOSECONDS.toMicros(hashTime) + "us" +
+                ", candidatesTime=" + TimeUnit.NANOSECONDS.toMicros(candidatesTime) + "us" +
+                ", rerankTime=" + TimeUnit.NANOSECONDS.toMicros(rerankTime) + "us" +
+                '}';
+    }
+}
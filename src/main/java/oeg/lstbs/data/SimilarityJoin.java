@@ -0,0 +1,135 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.io.ParallelExecutor;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * All-pairs similarity join over a dense row-major matrix of vectors, or over the vectors of a {@link VectorStore}.
+ *
+ * The lower triangle of the pair space is split in tiles of blockSize x blockSize vectors, sized so that the row and
+ * column blocks of a tile fit together in the L2 cache. Every row block is processed by one task, which walks the
+ * column blocks up to the diagonal. Only pairs scoring at least the threshold are notified to the sink. Vectors of a
+ * store are read block by block as the tiles are processed, so the store is never copied to the heap as a whole.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class SimilarityJoin {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SimilarityJoin.class);
+
+    public static final int DEFAULT_CACHE_SIZE = 256 * 1024;
+
+    private final int cacheSize;
+
+    private final int parallelism;
+
+    public SimilarityJoin() {
+        this(DEFAULT_CACHE_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param cacheSize bytes of cache available to each worker for the two blocks of a tile
+     * @param parallelism number of workers
+     */
+    public SimilarityJoin(int cacheSize, int parallelism) {
+        this.cacheSize      = cacheSize;
+        this.parallelism    = Math.max(1, parallelism);
+    }
+
+    /**
+     * Compares every pair of vectors (i,j) with j &lt; i
+     * @param matrix vectors in row-major order
+     * @param dimension length of each vector
+     * @param metric similarity metric
+     * @param threshold minimum similarity of a notified pair
+     * @param sink receives the pairs above the threshold. It is called concurrently from several workers
+     * @param counter incremented with the number of comparisons performed
+     */
+    public void join(double[] matrix, int dimension, ComparisonMetric metric, double threshold, PairSink sink, AtomicInteger counter){
+        if (dimension < 1) return;
+        // blocks are views of the matrix, with offsets from its first vector
+        join(matrix.length / dimension, dimension, (from, to) -> matrix, true, metric, threshold, sink, counter);
+    }
+
+    /**
+     * Compares every pair of vectors (i,j) with j &lt; i of the store. Rows and columns are ordinals
+     * @see #join(double[], int, ComparisonMetric, double, PairSink, AtomicInteger)
+     */
+    public void join(VectorStore store, ComparisonMetric metric, double threshold, PairSink sink, AtomicInteger counter){
+        join(store.size(), store.dimension(), store::read, false, metric, threshold, sink, counter);
+    }
+
+    /**
+     * Compares every pair of the given vectors of the store. Rows and columns are positions in 'ordinals'
+     * @see #join(double[], int, ComparisonMetric, double, PairSink, AtomicInteger)
+     */
+    public void join(VectorStore store, int[] ordinals, ComparisonMetric metric, double threshold, PairSink sink, AtomicInteger counter){
+        join(ordinals.length, store.dimension(), (from, to) -> store.read(ordinals, from, to), false, metric, threshold, sink, counter);
+    }
+
+    private void join(int size, int dimension, BlockReader reader, boolean shared, ComparisonMetric metric, double threshold, PairSink sink, AtomicInteger counter){
+        if (dimension < 1) return;
+        final int blockSize = blockSize(dimension);
+        final int blocks    = (int) ((size + (long) blockSize - 1) / blockSize);
+
+        AtomicInteger completed = new AtomicInteger();
+        ParallelExecutor executor = new ParallelExecutor(parallelism);
+        for(int b=0;b<blocks;b++){
+            final int rowBlock = b;
+            executor.submit(() -> {
+                int rowStart    = (int) Math.min(size, (long) rowBlock * blockSize);
+                int rowEnd      = (int) Math.min(size, (long) rowStart + blockSize);
+                double[] rows   = reader.read(rowStart, rowEnd);
+                int rowOrigin   = shared? 0 : rowStart;
+                for(int colStart = 0; colStart <= rowStart; colStart += blockSize){
+                    int colEnd      = (int) Math.min(size, (long) colStart + blockSize);
+                    double[] cols   = (colStart == rowStart)? rows : reader.read(colStart, colEnd);
+                    int colOrigin   = shared? 0 : colStart;
+                    long comparisons = tile(rows, rowOrigin, rowStart, rowEnd, cols, colOrigin, colStart, colEnd, dimension, metric, threshold, sink);
+                    counter.addAndGet((int) comparisons);
+                }
+                int done = completed.incrementAndGet();
+                if (blocks >= 10 && done % (blocks / 10) == 0) LOG.info("" + ((done * 100L) / blocks) + "% progress");
+            });
+        }
+        executor.shutdown();
+        // rethrows the first error of a tile, so a failed join is never returned as a partial one
+        executor.join();
+    }
+
+    int blockSize(int dimension){
+        return Math.max(1, cacheSize / (2 * dimension * Double.BYTES));
+    }
+
+    /**
+     * @param rows vectors of the row block, where vector i is at (i - rowOrigin) * dimension
+     * @param cols vectors of the column block, where vector j is at (j - colOrigin) * dimension
+     */
+    private long tile(double[] rows, int rowOrigin, int rowStart, int rowEnd, double[] cols, int colOrigin, int colStart, int colEnd, int dimension, ComparisonMetric metric, double threshold, PairSink sink){
+        long comparisons = 0;
+        for(int i = rowStart; i < rowEnd; i++){
+            int rowOffset   = (i - rowOrigin) * dimension;
+            int end         = Math.min(colEnd, i);
+            for(int j = colStart; j < end; j++){
+                double score = metric.similarity(rows, rowOffset, cols, (j - colOrigin) * dimension, dimension);
+                if (score >= threshold) sink.accept(i, j, score);
+            }
+            if (end > colStart) comparisons += end - colStart;
+        }
+        return comparisons;
+    }
+
+    public interface PairSink {
+        void accept(int row, int column, double score);
+    }
+
+    private interface BlockReader {
+        double[] read(int from, int to);
+    }
+
+}
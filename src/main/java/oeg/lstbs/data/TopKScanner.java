@@ -0,0 +1,88 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.io.ParallelExecutor;
+import oeg.lstbs.metrics.ComparisonMetric;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Parallel exhaustive scan over a {@link VectorStore}.
+ *
+ * The ordinal space is split in contiguous partitions, one per worker. Each worker keeps its own {@link TopScores}, so
+ * there is no shared state while scanning, and the partial heaps are merged when all of them are done.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class TopKScanner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopKScanner.class);
+
+    private static final int MIN_PARTITION_SIZE = 10000;
+
+    private final int parallelism;
+
+    public TopKScanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public TopKScanner(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * @return the k most similar vectors, sorted by descending score
+     */
+    public TopScores top(VectorStore store, double[] query, ComparisonMetric metric, int k){
+        return scan(store, query, metric, k, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @return every vector whose score is strictly greater than the threshold, sorted by descending score
+     */
+    public TopScores above(VectorStore store, double[] query, ComparisonMetric metric, double threshold){
+        return scan(store, query, metric, Integer.MAX_VALUE, threshold);
+    }
+
+    private TopScores scan(VectorStore store, double[] query, ComparisonMetric metric, int k, double threshold){
+        int size        = store.size();
+        int partitions  = (int) Math.max(1, Math.min(parallelism, (size + (long) MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE));
+        if (partitions == 1) return scan(store, 0, size, query, metric, k, threshold).sort();
+
+        TopScores[] partials = new TopScores[partitions];
+        ParallelExecutor executor = new ParallelExecutor(partitions);
+        int step = (size + partitions - 1) / partitions;
+        for(int i=0;i<partitions;i++){
+            final int index = i;
+            final int from  = i * step;
+            final int to    = Math.min(size, from + step);
+            executor.submit(() -> partials[index] = scan(store, from, to, query, metric, k, threshold));
+        }
+        executor.shutdown();
+        executor.join();
+
+        for(int i=0;i<partitions;i++){
+            if (partials[i] == null) throw new IllegalStateException("Partition " + i + " of the scan did not complete");
+        }
+        TopScores result = partials[0];
+        for(int i=1;i<partitions;i++){
+            result.addAll(partials[i]);
+        }
+        LOG.debug("Scanned " + size + " vectors in " + partitions + " partitions");
+        return result.sort();
+    }
+
+    private TopScores scan(VectorStore store, int from, int to, double[] query, ComparisonMetric metric, int k, double threshold){
+        TopScores heap = new TopScores(k);
+        if (threshold == Double.NEGATIVE_INFINITY){
+            store.scan(from, to, query, metric, heap::offer);
+        }else{
+            store.scan(from, to, query, metric, (ordinal, score) -> {
+                if (score > threshold) heap.offer(ordinal, score);
+            });
+        }
+        return heap;
+    }
+
+}
@@ -0,0 +1,142 @@
+package oeg.lstbs.data;
+
+import java.util.Arrays;
+
+/**
+ * Bounded min-heap of (ordinal, score) pairs kept in primitive arrays.
+ *
+ * The root is the lowest score retained, so a candidate below the current k-th score is rejected with a single
+ * comparison and no allocation. Instances are not thread-safe: each scan worker fills its own heap and they are
+ * merged once the workers are done.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class TopScores {
+
+    private final int capacity;
+
+    private int[] ordinals;
+
+    private double[] scores;
+
+    private int size = 0;
+
+    private boolean sorted = false;
+
+    public TopScores(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be greater than 0");
+        this.capacity   = capacity;
+        int initial     = Math.min(capacity, 16);
+        this.ordinals   = new int[initial];
+        this.scores     = new double[initial];
+    }
+
+    /**
+     * @return true if the pair has been retained. NaN scores are never retained, since they do not compare with any
+     * other score and would break the order of the heap
+     */
+    public boolean offer(int ordinal, double score){
+        if (Double.isNaN(score)) return false;
+        if (size == capacity){
+            if (!(score > scores[0])) return false;
+            checkHeap();
+            ordinals[0] = ordinal;
+            scores[0]   = score;
+            siftDown(0);
+            return true;
+        }
+        checkHeap();
+        if (size == ordinals.length){
+            int length  = (int) Math.min(capacity, Math.max(16L, ordinals.length * 2L));
+            ordinals    = Arrays.copyOf(ordinals, length);
+            scores      = Arrays.copyOf(scores, length);
+        }
+        ordinals[size]  = ordinal;
+        scores[size]    = score;
+        siftUp(size++);
+        return true;
+    }
+
+    public void addAll(TopScores other){
+        for(int i=0;i<other.size;i++){
+            offer(other.ordinals[i], other.scores[i]);
+        }
+    }
+
+    /**
+     * @return lowest score that still gets into the heap, or -Infinity while it is not full
+     */
+    public double minScore(){
+        return size < capacity? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public int capacity(){
+        return capacity;
+    }
+
+    /**
+     * Orders the pairs by descending score. No more pairs can be offered afterwards.
+     */
+    public TopScores sort(){
+        if (sorted) return this;
+        // heap-sort in place: the root (lowest score) is moved to the end on each step
+        for(int end = size - 1; end > 0; end--){
+            swap(0, end);
+            siftDown(0, end);
+        }
+        this.sorted = true;
+        return this;
+    }
+
+    public int ordinal(int index){
+        return ordinals[index];
+    }
+
+    public double score(int index){
+        return scores[index];
+    }
+
+    private void checkHeap(){
+        if (sorted) throw new IllegalStateException("Scores have already been sorted");
+    }
+
+    private void siftUp(int index){
+        while(index > 0){
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) break;
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index){
+        siftDown(index, size);
+    }
+
+    private void siftDown(int index, int limit){
+        while(true){
+            int left = 2 * index + 1;
+            if (left >= limit) break;
+            int right    = left + 1;
+            int smallest = (right < limit && scores[right] < scores[left])? right : left;
+            if (scores[index] <= scores[smallest]) break;
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j){
+        int ordinal = ordinals[i];
+        ordinals[i] = ordinals[j];
+        ordinals[j] = ordinal;
+        double score = scores[i];
+        scores[i]    = scores[j];
+        scores[j]    = score;
+    }
+
+}
@@ -1,6 +1,7 @@
 package oeg.lstbs.data;
 
 import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,9 +9,13 @@ import org.slf4j.LoggerFactory;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
+ * Groups of topics of a document sorted by descending score, and hash codes of their leading or trailing groups.
+ *
+ * Hash codes are the murmur3 of the group labels joined by '#'. The encoded labels are fed to the hasher one after
+ * the other, which gives the same value as hashing the joined string without building it.
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -20,43 +25,74 @@ public class TopicSummary {
 
     private final List<TopicPoint> groups;
 
-    private final HashFunction hf = Hashing.murmur3_32();
+    private static final HashFunction hf = Hashing.murmur3_32();
 
     private static final String GROUP_SEPARATOR = "#";
 
+    private static final byte[] ENCODED_SEPARATOR = GROUP_SEPARATOR.getBytes(Charset.defaultCharset());
+
+    private final byte[][] labels;
+
 
     public TopicSummary(List<TopicPoint> groups) {
         this.groups = groups;
         Collections.sort(this.groups, (a, b) -> -a.getScore().compareTo(b.getScore()));
+        this.labels = new byte[groups.size()][];
+        for(int i=0;i<labels.length;i++) labels[i] = groups.get(i).getId().getBytes(Charset.defaultCharset());
     }
 
     public String getReducedHashTopicsBy(int num) {
-        if (groups.size()<=num) return groups.subList(0,1).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR));
-        return groups.subList(0,groups.size()-num).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR));
+        if (groups.size()<=num) return join(0,1);
+        return join(0,groups.size()-num);
     }
 
     public Integer getReducedHashCodeBy(int num){
-        if (groups.size()<=num) return hf.hashString(groups.subList(0,1).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR)), Charset.defaultCharset()).asInt();
-        return hf.hashString(groups.subList(0,groups.size()-num).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR)), Charset.defaultCharset()).asInt();
+        if (groups.size()<=num) return hash(0,1);
+        return hash(0,groups.size()-num);
     }
 
     public String getTopHashTopicsBy(int num) {
         if (groups.size()<=num) return getReducedHashTopicsBy(0);
-        return groups.subList(0,num).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR));
+        return join(0,num);
     }
 
     public Integer getTopHashCodeBy(int num){
         if (groups.size()<=num) return getReducedHashCodeBy(0);
-        return hf.hashString(groups.subList(0,num).stream().map(tp -> tp.getId()).collect(Collectors.joining(GROUP_SEPARATOR)), Charset.defaultCharset()).asInt();
+        return hash(0,num);
     }
 
 
     public String getHashExpression(){
-        return this.groups.stream().map(tp -> tp.getId()).collect(Collectors.joining("\n"));
+        StringBuilder expression = new StringBuilder();
+        for(int i=0;i<groups.size();i++){
+            if (i > 0) expression.append('\n');
+            expression.append(groups.get(i).getId());
+        }
+        return expression.toString();
     }
 
     public int getSize(){
         return groups.size();
     }
 
-}
\ No newline at end of file
+    private String join(int from, int to){
+        if (from >= groups.size()) throw new IndexOutOfBoundsException("toIndex = " + to);
+        StringBuilder topics = new StringBuilder();
+        for(int i=from;i<to;i++){
+            if (i > from) topics.append(GROUP_SEPARATOR);
+            topics.append(groups.get(i).getId());
+        }
+        return topics.toString();
+    }
+
+    private Integer hash(int from, int to){
+        if (from >= groups.size()) throw new IndexOutOfBoundsException("toIndex = " + to);
+        Hasher hasher = hf.newHasher();
+        for(int i=from;i<to;i++){
+            if (i > from) hasher.putBytes(ENCODED_SEPARATOR);
+            hasher.putBytes(labels[i]);
+        }
+        return hasher.hash().asInt();
+    }
+
+}
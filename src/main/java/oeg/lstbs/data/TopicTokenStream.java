@@ -0,0 +1,78 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.hash.HashCode;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * Pre-analyzed tokens ('t' + topic) of a level of a {@link HashCode}.
+ *
+ * Terms are written straight into the term buffer, so the level is indexed without joining its tokens in a string
+ * and splitting them again with the analyzer. It produces the same terms and positions as the whitespace analysis of
+ * the joined tokens.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+class TopicTokenStream extends TokenStream {
+
+    private static final int CACHED_TERMS = 4096;
+
+    private static final BytesRef[] TERMS = new BytesRef[CACHED_TERMS];
+
+    static {
+        for(int i=0;i<CACHED_TERMS;i++) TERMS[i] = new BytesRef(HashCode.token(i));
+    }
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+
+    private final int[] topics;
+
+    private int index;
+
+    /**
+     * @param topics non-negative topics
+     */
+    TopicTokenStream(int[] topics) {
+        this.topics = topics;
+    }
+
+    /**
+     * @return the indexed term of a topic. Shared instances must not be modified
+     */
+    static BytesRef term(int topic){
+        return (topic >= 0 && topic < CACHED_TERMS)? TERMS[topic] : new BytesRef(HashCode.token(topic));
+    }
+
+    @Override
+    public boolean incrementToken() {
+        if (index >= topics.length) return false;
+        clearAttributes();
+        int topic = topics[index++];
+        char[] buffer = termAttribute.resizeBuffer(12);
+        int length = 0;
+        buffer[length++] = HashCode.TOKEN_PREFIX.charAt(0);
+        int start = length;
+        do{
+            buffer[length++] = (char) ('0' + topic % 10);
+            topic /= 10;
+        }while(topic > 0);
+        // digits were written from the least significant one
+        for(int i=start, j=length-1;i<j;i++, j--){
+            char swap = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = swap;
+        }
+        termAttribute.setLength(length);
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        this.index = 0;
+    }
+}
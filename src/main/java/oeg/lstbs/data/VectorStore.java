@@ -0,0 +1,680 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.io.VectorCodec;
+import oeg.lstbs.metrics.ComparisonMetric;
+import oeg.lstbs.metrics.Hellinger;
+import oeg.lstbs.metrics.SqrtHellinger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Side-car columnar store of topic vectors.
+ *
+ * All vectors live in one contiguous file ('name'.vec) with a fixed record size, so the vector of an ordinal is found
+ * at HEADER_SIZE + ordinal * dimension * bytes. Ids are kept in a parallel column ('name'.ids). The vector column is
+ * memory-mapped for reading, and scans copy each record into a reusable buffer before calling the metric, so no
+ * objects are created per document.
+ *
+ * With {@link Transform#SQRT} the column holds √p instead of p. Hellinger scans then run as a dot-product kernel
+ * ({@link SqrtHellinger}) without any per-element square root, while {@link #get(int)}, {@link #read(int, int)} and
+ * scans with any other metric still see the original values.
+ *
+ * Deleted vectors are only marked in a log of ordinals ('name'.del) and skipped by scans, until {@link #compact()}
+ * rewrites the columns without them.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class VectorStore implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VectorStore.class);
+
+    public static final int HEADER_SIZE = 16;
+
+    private static final int MAGIC = 0x4C535653;
+
+    private static final byte VERSION = 1;
+
+    private static final long CHUNK_SIZE = 1L << 30;
+
+    private final File vectorFile;
+
+    private final File idFile;
+
+    private final File deletedFile;
+
+    private final VectorCodec.Type type;
+
+    private final Transform transform;
+
+    private OutputStream vectorWriter;
+
+    private DataOutputStream idWriter;
+
+    private DataOutputStream deletedWriter;
+
+    // live id -> ordinal, only built when documents are looked up by id
+    private Map<String,Integer> ordinals;
+
+    private byte[] record;
+
+    private int dimension = -1;
+
+    private int appended = 0;
+
+    // ids appended since the writers were opened, from ordinal 'recentBase', to extend the snapshot on flush
+    private final List<String> recentIds = new ArrayList<>();
+
+    private int recentBase = 0;
+
+    // ordinals deleted since the last flush
+    private final List<Integer> recentDeletions = new ArrayList<>();
+
+    private volatile Snapshot snapshot;
+
+    public VectorStore(File directory, String name) {
+        this(directory, name, VectorCodec.Type.FLOAT64);
+    }
+
+    public VectorStore(File directory, String name, VectorCodec.Type type) {
+        this(directory, name, type, Transform.NONE);
+    }
+
+    public VectorStore(File directory, String name, VectorCodec.Type type, Transform transform) {
+        this.vectorFile = new File(directory, name + ".vec");
+        this.idFile     = new File(directory, name + ".ids");
+        this.deletedFile = new File(directory, name + ".del");
+        this.type       = type;
+        this.transform  = transform;
+    }
+
+    public boolean exists(){
+        return vectorFile.exists() && idFile.exists();
+    }
+
+    /**
+     * Removes any previous content of the store
+     */
+    public synchronized void reset(){
+        closeWriters();
+        if (vectorFile.exists()) vectorFile.delete();
+        if (idFile.exists()) idFile.delete();
+        if (deletedFile.exists()) deletedFile.delete();
+        this.ordinals   = null;
+        this.dimension  = -1;
+        this.appended   = 0;
+        this.snapshot   = null;
+        recentIds.clear();
+        recentDeletions.clear();
+    }
+
+    /**
+     * Appends a vector to the store
+     * @return ordinal of the vector
+     */
+    public synchronized int append(String id, double[] vector){
+        try{
+            openWriters(vector.length);
+            if (vector.length != dimension){
+                throw new IllegalArgumentException("Vector of '" + id + "' has " + vector.length + " dimensions, but " + dimension + " were expected");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+            if (type == VectorCodec.Type.FLOAT64){
+                for(int i=0;i<vector.length;i++) buffer.putDouble(transform.apply(vector[i]));
+            }else{
+                for(int i=0;i<vector.length;i++) buffer.putFloat((float) transform.apply(vector[i]));
+            }
+            vectorWriter.write(record);
+            idWriter.writeUTF(id);
+            recentIds.add(id);
+            if (ordinals != null) ordinals.put(id, appended);
+            return appended++;
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Makes appended and deleted vectors visible to readers. The current snapshot is extended with them, without
+     * reloading the ids and mappings it already has, and kept as it is when nothing changed
+     */
+    public synchronized void flush(){
+        try{
+            if (vectorWriter != null) vectorWriter.flush();
+            if (idWriter != null) idWriter.flush();
+            if (deletedWriter != null) deletedWriter.flush();
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+        Snapshot current = snapshot;
+        boolean appendedSince = current != null && current.size < appended;
+        if (current != null && (appendedSince || !recentDeletions.isEmpty())){
+            this.snapshot = (current.size >= recentBase)? extend(current) : null;
+        }
+        if (vectorWriter != null){
+            recentIds.clear();
+            this.recentBase = appended;
+        }
+        recentDeletions.clear();
+    }
+
+    public int size(){
+        Snapshot current = snapshot();
+        return current == null? 0 : current.size;
+    }
+
+    public int dimension(){
+        Snapshot current = snapshot();
+        return current == null? Math.max(dimension,0) : current.dimension;
+    }
+
+    public VectorCodec.Type getType() {
+        return type;
+    }
+
+    public Transform getTransform() {
+        return transform;
+    }
+
+    public String getId(int ordinal){
+        return snapshot().ids[ordinal];
+    }
+
+    /**
+     * @return number of flushed vectors marked as deleted
+     */
+    public int deletions(){
+        Snapshot current = snapshot();
+        return current == null || current.deleted == null? 0 : current.deleted.cardinality();
+    }
+
+    public boolean isDeleted(int ordinal){
+        Snapshot current = snapshot();
+        return current != null && current.deleted != null && current.deleted.get(ordinal);
+    }
+
+    /**
+     * @return ordinal of the live vector of the document, or -1 if there is none
+     */
+    public synchronized int ordinalOf(String id){
+        Integer ordinal = ordinals().get(id);
+        return ordinal == null? -1 : ordinal;
+    }
+
+    /**
+     * Marks the vector of the document as deleted. Scans skip it once the store is flushed
+     * @return true if the document had a live vector
+     */
+    public synchronized boolean delete(String id){
+        Integer ordinal = ordinals().remove(id);
+        if (ordinal == null) return false;
+        try{
+            if (deletedWriter == null) deletedWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(deletedFile, true), 1 << 12));
+            deletedWriter.writeInt(ordinal);
+            recentDeletions.add(ordinal);
+            return true;
+        }catch (IOException e){
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rewrites the columns without the deleted vectors
+     * @return new ordinal of each previous one (-1 for deleted vectors), or null if nothing was deleted
+     */
+    public synchronized int[] compact(){
+        flush();
+        Snapshot current = snapshot();
+        if (current == null || current.deleted == null) return null;
+
+        File vectorTmp  = new File(vectorFile.getPath() + ".tmp");
+        File idTmp      = new File(idFile.getPath() + ".tmp");
+        int[] mapping   = new int[current.size];
+        int live        = 0;
+        try{
+            try(OutputStream vectors = new BufferedOutputStream(new FileOutputStream(vectorTmp), 1 << 20);
+                DataOutputStream ids = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idTmp), 1 << 16))){
+                vectors.write(header(current.dimension));
+                byte[] buffer = new byte[current.dimension * type.getBytes()];
+                for(int ordinal=0;ordinal<current.size;ordinal++){
+                    if (current.deleted.get(ordinal)){
+                        mapping[ordinal] = -1;
+                        continue;
+                    }
+                    int chunk = ordinal / current.vectorsPerChunk;
+                    ByteBuffer view = current.chunks[chunk].duplicate();
+                    view.position((ordinal - chunk * current.vectorsPerChunk) * buffer.length);
+                    view.get(buffer);
+                    vectors.write(buffer);
+                    ids.writeUTF(current.ids[ordinal]);
+                    mapping[ordinal] = live++;
+                }
+            }
+            closeWriters();
+            Files.move(vectorTmp.toPath(), vectorFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(idTmp.toPath(), idFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            deletedFile.delete();
+        }catch (IOException e){
+            throw new RuntimeException("Error compacting vector store: " + vectorFile, e);
+        }
+        this.ordinals   = null;
+        this.snapshot   = null;
+        LOG.info("Compacted " + vectorFile + ": " + (current.size - live) + " deleted vectors removed, " + live + " left");
+        return mapping;
+    }
+
+    private Map<String,Integer> ordinals(){
+        if (ordinals == null){
+            flush();
+            Snapshot current = snapshot();
+            Map<String,Integer> index = new HashMap<>();
+            if (current != null){
+                for(int ordinal=0;ordinal<current.size;ordinal++){
+                    if (current.deleted == null || !current.deleted.get(ordinal)) index.put(current.ids[ordinal], ordinal);
+                }
+            }
+            this.ordinals = index;
+        }
+        return ordinals;
+    }
+
+    public double[] get(int ordinal){
+        Snapshot current = snapshot();
+        double[] vector = new double[current.dimension];
+        read(current, ordinal, vector);
+        return vector;
+    }
+
+    /**
+     * Copies the vectors in [from,to) into a dense row-major matrix
+     */
+    public double[] read(int from, int to){
+        Snapshot current = snapshot();
+        if (current == null || from >= to) return new double[0];
+        double[] matrix = new double[matrixLength(to - from, current.dimension)];
+        double[] scratch = new double[current.dimension];
+        for(int ordinal = from; ordinal < to; ordinal++){
+            read(current, ordinal, scratch);
+            System.arraycopy(scratch, 0, matrix, (ordinal - from) * current.dimension, current.dimension);
+        }
+        return matrix;
+    }
+
+    /**
+     * Copies the vectors of ordinals[from,to) into a dense row-major matrix
+     */
+    public double[] read(int[] ordinals, int from, int to){
+        Snapshot current = snapshot();
+        if (current == null || from >= to) return new double[0];
+        double[] matrix = new double[matrixLength(to - from, current.dimension)];
+        double[] scratch = new double[current.dimension];
+        for(int i = from; i < to; i++){
+            read(current, ordinals[i], scratch);
+            System.arraycopy(scratch, 0, matrix, (i - from) * current.dimension, current.dimension);
+        }
+        return matrix;
+    }
+
+    private static int matrixLength(int vectors, int dimension){
+        long length = (long) vectors * dimension;
+        if (length > Integer.MAX_VALUE - 8) throw new IllegalArgumentException(vectors + " vectors of " + dimension + " dimensions do not fit in an array, read them in blocks");
+        return (int) length;
+    }
+
+    /**
+     * Compares the query against every vector in [from,to) and notifies each similarity score
+     */
+    public void scan(int from, int to, double[] query, ComparisonMetric metric, ScoreConsumer consumer){
+        Snapshot current = snapshot();
+        if (current == null || from >= to) return;
+        int dim = current.dimension;
+        if (query.length != dim) throw new IllegalArgumentException("Query has " + query.length + " dimensions, but " + dim + " were expected");
+        BitSet deleted = current.deleted;
+
+        // stored values are compared as they are, unless they have to be restored for the given metric
+        boolean restore = false;
+        if (transform == Transform.SQRT){
+            if (metric instanceof Hellinger || metric instanceof SqrtHellinger){
+                if (metric instanceof Hellinger) metric = new SqrtHellinger();
+                query   = SqrtHellinger.transform(query);
+            }else{
+                restore = true;
+            }
+        }
+
+        if (type == VectorCodec.Type.FLOAT64){
+            double[] scratch = new double[dim];
+            int ordinal = from;
+            while(ordinal < to){
+                int chunk   = ordinal / current.vectorsPerChunk;
+                int end     = Math.min(to, (chunk+1) * current.vectorsPerChunk);
+                DoubleBuffer view = current.chunks[chunk].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                view.position((ordinal - chunk * current.vectorsPerChunk) * dim);
+                for(; ordinal < end; ordinal++){
+                    view.get(scratch, 0, dim);
+                    if (deleted != null && deleted.get(ordinal)) continue;
+                    if (restore) transform.invert(scratch, dim);
+                    consumer.accept(ordinal, metric.similarity(query, 0, scratch, 0, dim));
+                }
+            }
+        }else{
+            float[] fquery = new float[dim];
+            for(int i=0;i<dim;i++) fquery[i] = (float) query[i];
+            float[] scratch = new float[dim];
+            int ordinal = from;
+            while(ordinal < to){
+                int chunk   = ordinal / current.vectorsPerChunk;
+                int end     = Math.min(to, (chunk+1) * current.vectorsPerChunk);
+                FloatBuffer view = current.chunks[chunk].duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                view.position((ordinal - chunk * current.vectorsPerChunk) * dim);
+                for(; ordinal < end; ordinal++){
+                    view.get(scratch, 0, dim);
+                    if (deleted != null && deleted.get(ordinal)) continue;
+                    if (restore) transform.invert(scratch, dim);
+                    consumer.accept(ordinal, metric.similarity(fquery, 0, scratch, 0, dim));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the query against the vectors of the first 'length' given ordinals. Ordinals not flushed yet are skipped
+     */
+    public void scan(int[] ordinals, int length, double[] query, ComparisonMetric metric, ScoreConsumer consumer){
+        Snapshot current = snapshot();
+        if (current == null || length < 1) return;
+        int dim = current.dimension;
+        if (query.length != dim) throw new IllegalArgumentException("Query has " + query.length + " dimensions, but " + dim + " were expected");
+        BitSet deleted = current.deleted;
+
+        boolean restore = false;
+        if (transform == Transform.SQRT){
+            if (metric instanceof Hellinger || metric instanceof SqrtHellinger){
+                if (metric instanceof Hellinger) metric = new SqrtHellinger();
+                query   = SqrtHellinger.transform(query);
+            }else{
+                restore = true;
+            }
+        }
+
+        if (type == VectorCodec.Type.FLOAT64){
+            double[] scratch = new double[dim];
+            DoubleBuffer[] views = new DoubleBuffer[current.chunks.length];
+            for(int i=0;i<length;i++){
+                int ordinal = ordinals[i];
+                if (ordinal >= current.size || (deleted != null && deleted.get(ordinal))) continue;
+                int chunk   = ordinal / current.vectorsPerChunk;
+                if (views[chunk] == null) views[chunk] = current.chunks[chunk].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+                views[chunk].position((ordinal - chunk * current.vectorsPerChunk) * dim);
+                views[chunk].get(scratch, 0, dim);
+                if (restore) transform.invert(scratch, dim);
+                consumer.accept(ordinal, metric.similarity(query, 0, scratch, 0, dim));
+            }
+        }else{
+            float[] fquery = new float[dim];
+            for(int i=0;i<dim;i++) fquery[i] = (float) query[i];
+            float[] scratch = new float[dim];
+            FloatBuffer[] views = new FloatBuffer[current.chunks.length];
+            for(int i=0;i<length;i++){
+                int ordinal = ordinals[i];
+                if (ordinal >= current.size || (deleted != null && deleted.get(ordinal))) continue;
+                int chunk   = ordinal / current.vectorsPerChunk;
+                if (views[chunk] == null) views[chunk] = current.chunks[chunk].duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                views[chunk].position((ordinal - chunk * current.vectorsPerChunk) * dim);
+                views[chunk].get(scratch, 0, dim);
+                if (restore) transform.invert(scratch, dim);
+                consumer.accept(ordinal, metric.similarity(fquery, 0, scratch, 0, dim));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeWriters();
+        this.snapshot = null;
+    }
+
+    private void read(Snapshot current, int ordinal, double[] target){
+        int chunk   = ordinal / current.vectorsPerChunk;
+        int offset  = (ordinal - chunk * current.vectorsPerChunk) * current.dimension;
+        ByteBuffer buffer = current.chunks[chunk].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (type == VectorCodec.Type.FLOAT64){
+            DoubleBuffer view = buffer.asDoubleBuffer();
+            view.position(offset);
+            view.get(target, 0, current.dimension);
+        }else{
+            FloatBuffer view = buffer.asFloatBuffer();
+            for(int i=0;i<current.dimension;i++) target[i] = view.get(offset + i);
+        }
+        transform.invert(target, current.dimension);
+    }
+
+    private void openWriters(int size) throws IOException {
+        if (vectorWriter != null) return;
+        vectorFile.getParentFile().mkdirs();
+        boolean empty = !vectorFile.exists() || vectorFile.length() == 0;
+        if (!empty){
+            ByteBuffer header = readHeader();
+            this.dimension  = header.getInt(8);
+            this.appended   = (int) ((vectorFile.length() - HEADER_SIZE) / ((long) dimension * type.getBytes()));
+        }else{
+            this.dimension  = size;
+            this.appended   = 0;
+        }
+        this.record         = new byte[dimension * type.getBytes()];
+        recentIds.clear();
+        this.recentBase     = appended;
+        this.vectorWriter   = new BufferedOutputStream(new FileOutputStream(vectorFile, true), 1 << 20);
+        this.idWriter       = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(idFile, !empty), 1 << 16));
+        if (empty){
+            vectorWriter.write(header(dimension));
+        }
+    }
+
+    private byte[] header(int dimension){
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.put(type.getCode());
+        header.put(transform.getCode());
+        header.put((byte) 0);
+        header.putInt(dimension);
+        header.putInt(0);
+        return header.array();
+    }
+
+    private void closeWriters(){
+        try{
+            if (vectorWriter != null) vectorWriter.close();
+            if (idWriter != null) idWriter.close();
+            if (deletedWriter != null) deletedWriter.close();
+        }catch (IOException e){
+            LOG.warn("Error closing vector store writers",e);
+        }
+        this.vectorWriter   = null;
+        this.idWriter       = null;
+        this.deletedWriter  = null;
+    }
+
+    private ByteBuffer readHeader() throws IOException {
+        try(FileChannel channel = FileChannel.open(vectorFile.toPath(), StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            if (header.getInt(0) != MAGIC) throw new IOException("Not a vector store: " + vectorFile);
+            if (header.get(4) > VERSION) throw new IOException("Unsupported vector store version: " + header.get(4));
+            if (VectorCodec.Type.from(header.get(5)) != type) throw new IOException("Vector store " + vectorFile + " is " + VectorCodec.Type.from(header.get(5)) + " but " + type + " was expected");
+            if (Transform.from(header.get(6)) != transform) throw new IOException("Vector store " + vectorFile + " uses " + Transform.from(header.get(6)) + " transform but " + transform + " was expected");
+            return header;
+        }
+    }
+
+    private Snapshot snapshot(){
+        Snapshot current = snapshot;
+        if (current != null) return current;
+        synchronized (this){
+            if (snapshot == null && exists()) snapshot = load();
+            return snapshot;
+        }
+    }
+
+    private Snapshot load(){
+        try{
+            ByteBuffer header   = readHeader();
+            int dim             = header.getInt(8);
+            long recordSize     = (long) dim * type.getBytes();
+            int vectors         = (int) ((vectorFile.length() - HEADER_SIZE) / recordSize);
+
+            String[] ids = new String[vectors];
+            int numIds = 0;
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idFile), 1 << 16))){
+                while(numIds < vectors){
+                    try{
+                        ids[numIds] = in.readUTF();
+                    }catch (EOFException e){
+                        break;
+                    }
+                    numIds++;
+                }
+            }
+            int size = Math.min(vectors, numIds);
+
+            int vectorsPerChunk = (int) Math.max(1, CHUNK_SIZE / recordSize);
+            int numChunks       = (size + vectorsPerChunk - 1) / vectorsPerChunk;
+            MappedByteBuffer[] chunks = new MappedByteBuffer[numChunks];
+            try(FileChannel channel = FileChannel.open(vectorFile.toPath(), StandardOpenOption.READ)){
+                for(int i=0;i<numChunks;i++){
+                    long start  = HEADER_SIZE + (long) i * vectorsPerChunk * recordSize;
+                    long length = Math.min(vectorsPerChunk, size - i * vectorsPerChunk) * recordSize;
+                    chunks[i]   = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                }
+            }
+            BitSet deleted = null;
+            if (deletedFile.exists() && deletedFile.length() > 0){
+                deleted = new BitSet(size);
+                try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deletedFile), 1 << 12))){
+                    for(long i=deletedFile.length() / 4; i>0; i--){
+                        int ordinal = in.readInt();
+                        if (ordinal < size) deleted.set(ordinal);
+                    }
+                }
+            }
+            return new Snapshot(dim, size, vectorsPerChunk, chunks, size == ids.length? ids : Arrays.copyOf(ids, size), deleted);
+        }catch (IOException e){
+            throw new RuntimeException("Error loading vector store: " + vectorFile,e);
+        }
+    }
+
+    /**
+     * @return the snapshot with the vectors appended and deleted since it was taken. Only the chunks that grew are
+     * mapped again
+     */
+    private Snapshot extend(Snapshot current){
+        try{
+            int size            = Math.max(current.size, appended);
+            long recordSize     = (long) current.dimension * type.getBytes();
+            String[] ids        = Arrays.copyOf(current.ids, size);
+            for(int ordinal=current.size;ordinal<size;ordinal++) ids[ordinal] = recentIds.get(ordinal - recentBase);
+
+            int vectorsPerChunk = current.vectorsPerChunk;
+            int numChunks       = (size + vectorsPerChunk - 1) / vectorsPerChunk;
+            MappedByteBuffer[] chunks = Arrays.copyOf(current.chunks, numChunks);
+            if (size > current.size){
+                try(FileChannel channel = FileChannel.open(vectorFile.toPath(), StandardOpenOption.READ)){
+                    // the last chunk of the snapshot may be partial
+                    for(int i=current.size / vectorsPerChunk;i<numChunks;i++){
+                        long start  = HEADER_SIZE + (long) i * vectorsPerChunk * recordSize;
+                        long length = Math.min(vectorsPerChunk, size - i * vectorsPerChunk) * recordSize;
+                        chunks[i]   = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                    }
+                }
+            }
+
+            BitSet deleted = current.deleted;
+            if (!recentDeletions.isEmpty()){
+                // snapshots are shared with readers, so the deletions are never changed in place
+                deleted = (deleted == null)? new BitSet(size) : (BitSet) deleted.clone();
+                for(int ordinal : recentDeletions) if (ordinal < size) deleted.set(ordinal);
+            }
+            return new Snapshot(current.dimension, size, vectorsPerChunk, chunks, ids, deleted);
+        }catch (IOException e){
+            throw new RuntimeException("Error loading vector store: " + vectorFile,e);
+        }
+    }
+
+    public enum Transform {
+
+        NONE((byte) 0),
+        SQRT((byte) 1);
+
+        private final byte code;
+
+        Transform(byte code) {
+            this.code = code;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        double apply(double value){
+            return this == SQRT? Math.sqrt(value) : value;
+        }
+
+        void invert(double[] values, int length){
+            if (this != SQRT) return;
+            for(int i=0;i<length;i++) values[i] = values[i] * values[i];
+        }
+
+        void invert(float[] values, int length){
+            if (this != SQRT) return;
+            for(int i=0;i<length;i++) values[i] = values[i] * values[i];
+        }
+
+        public static Transform from(byte code){
+            for(Transform transform : values()){
+                if (transform.code == code) return transform;
+            }
+            throw new IllegalArgumentException("Unknown vector transform: " + code);
+        }
+    }
+
+    public interface ScoreConsumer {
+        void accept(int ordinal, double score);
+    }
+
+    private static class Snapshot {
+
+        private final int dimension;
+        private final int size;
+        private final int vectorsPerChunk;
+        private final MappedByteBuffer[] chunks;
+        private final String[] ids;
+        private final BitSet deleted;
+
+        Snapshot(int dimension, int size, int vectorsPerChunk, MappedByteBuffer[] chunks, String[] ids, BitSet deleted) {
+            this.dimension          = dimension;
+            this.size               = size;
+            this.vectorsPerChunk    = vectorsPerChunk;
+            this.chunks             = chunks;
+            this.ids                = ids;
+            this.deleted            = deleted;
+        }
+    }
+}
@@ -1,18 +1,15 @@
 package oeg.lstbs.hash;
 
 import oeg.lstbs.data.TopicPoint;
-import org.apache.commons.math3.ml.clustering.CentroidCluster;
-import org.apache.commons.math3.ml.clustering.Cluster;
-import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
-import org.apache.commons.math3.ml.distance.DistanceMeasure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
+ * Groups the topics of a document by their weight with an optimal one-dimensional k-means ({@link KMeans1D}) of
+ * 'depth + 1' clusters, and hashes every level with the topics of a cluster (from the highest to the lowest mean).
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -20,13 +17,19 @@ public class CentroidHHM implements HierarchicalHashMethod {
 
     private static final Logger LOG = LoggerFactory.getLogger(CentroidHHM.class);
     private final int depth;
-    private final int maxIterations;
 
-    private static final String SEPARATOR = "_";
+    private static final String SEPARATOR = Clusters1D.SEPARATOR;
 
-    public CentroidHHM(int depth, int maxIterations) {
+    public CentroidHHM(int depth) {
         this.depth          = depth;
-        this.maxIterations  = maxIterations;
+    }
+
+    /**
+     * @deprecated clusters are computed exactly, without iterations. Use {@link #CentroidHHM(int)}
+     */
+    @Deprecated
+    public CentroidHHM(int depth, int maxIterations) {
+        this(depth);
     }
 
     @Override
@@ -34,36 +37,17 @@ public class CentroidHHM implements HierarchicalHashMethod {
         return "centroid";
     }
 
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
     @Override
     public Map<Integer, List<String>> hash(List<Double> topicDistribution) {
         Map<Integer,List<String>> hashCode = new HashMap<>();
 
-        DistanceMeasure distanceMeasure = new CentroidHHM.MonoDimensionalDistanceMeasure();
-
-        KMeansPlusPlusClusterer<TopicPoint> clusterer = new KMeansPlusPlusClusterer(depth+1, maxIterations, distanceMeasure);
-
-        List<TopicPoint> points = IntStream.range(0, topicDistribution.size()).mapToObj(i -> new TopicPoint("" + i, topicDistribution.get(i))).collect(Collectors.toList());
-        List<CentroidCluster<TopicPoint>> clusterList = clusterer.cluster(points);
+        List<TopicPoint> groups = KMeans1D.cluster(topicDistribution, depth+1).getGroups();
 
-        List<TopicPoint> groups = new ArrayList<>();
-        int totalPoints = 0;
-        for (Cluster<TopicPoint> cluster : clusterList) {
-            if (cluster.getPoints().isEmpty()) continue;
-            Double score = (cluster.getPoints().stream().map(p -> p.getScore()).reduce((x, y) -> x + y).get()) / (cluster.getPoints().size());
-            String label = cluster.getPoints().stream().map(p -> "t" + p.getId()).sorted((x, y) -> -x.compareTo(y)).collect(Collectors.joining(SEPARATOR));
-
-            totalPoints += cluster.getPoints().size();
-
-            groups.add(new TopicPoint(label, score));
-        }
-        if (totalPoints < topicDistribution.size()) {
-            List<TopicPoint> clusterPoints = clusterList.stream().flatMap(l -> l.getPoints().stream()).collect(Collectors.toList());
-            List<TopicPoint> isolatedTopics = points.stream().filter(p -> !clusterPoints.contains(p)).collect(Collectors.toList());
-            Double score = (isolatedTopics.stream().map(p -> p.getScore()).reduce((x, y) -> x + y).get()) / (isolatedTopics.size());
-            String label = isolatedTopics.stream().map(p -> "t" + p.getId()).sorted((x, y) -> -x.compareTo(y)).collect(Collectors.joining(SEPARATOR));
-            groups.add(new TopicPoint(label, score));
-        }
-        Collections.sort(groups, (a, b) -> -a.getScore().compareTo(b.getScore()));
         for(int i=0;i<depth;i++){
             List<String> topics = i >= groups.size()? Arrays.asList(groups.get(groups.size()-1).getId().split(SEPARATOR)) : Arrays.asList(groups.get(i).getId().split(SEPARATOR));
             hashCode.put(i,topics);
@@ -72,11 +56,9 @@ public class CentroidHHM implements HierarchicalHashMethod {
         return hashCode;
     }
 
-    private class MonoDimensionalDistanceMeasure implements DistanceMeasure {
-
-        @Override
-        public double compute(double[] p1, double[] p2) {
-            return Math.abs(p1[0] - p2[0]);
-        }
+    @Override
+    public HashCode encode(List<Double> topicDistribution) {
+        return KMeans1D.cluster(topicDistribution, depth+1).toHashCode(depth);
     }
+
 }
@@ -0,0 +1,151 @@
+package oeg.lstbs.hash;
+
+import oeg.lstbs.data.TopicPoint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Partition of one-dimensional values (e.g. the topic weights of a document) into groups of consecutive values.
+ *
+ * Groups are stored as ranges over the positions of the values sorted in ascending order, so no point objects are
+ * created and membership is implicit.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class Clusters1D {
+
+    public static final String SEPARATOR = "_";
+
+    private final double[] values;
+
+    private final int[] order;
+
+    private final int[] starts;
+
+    /**
+     * @param values clustered values
+     * @param order positions of the values in ascending order
+     * @param starts first position (in 'order') of every group, followed by the number of values
+     */
+    Clusters1D(double[] values, int[] order, int[] starts) {
+        this.values = values;
+        this.order  = order;
+        this.starts = starts;
+    }
+
+    /**
+     * @return positions of the values in ascending order (ties by position, so the order is deterministic)
+     */
+    static int[] sort(double[] values){
+        int n = values.length;
+        int[] order = new int[n];
+        for(int i=0;i<n;i++) order[i] = i;
+        int[] buffer = new int[n];
+        // bottom-up merge sort on primitive positions: stable and without boxing
+        for(int width=1;width<n;width*=2){
+            for(int from=0;from<n;from+=2*width){
+                int middle  = Math.min(from + width, n);
+                int to      = Math.min(from + 2*width, n);
+                int i = from, j = middle, k = from;
+                while(i < middle && j < to) buffer[k++] = (values[order[j]] < values[order[i]])? order[j++] : order[i++];
+                while(i < middle) buffer[k++] = order[i++];
+                while(j < to) buffer[k++] = order[j++];
+            }
+            int[] swap = order;
+            order   = buffer;
+            buffer  = swap;
+        }
+        return order;
+    }
+
+    /**
+     * @return number of groups
+     */
+    public int size(){
+        return starts.length - 1;
+    }
+
+    /**
+     * @return number of values in the group
+     */
+    public int size(int group){
+        return starts[group+1] - starts[group];
+    }
+
+    /**
+     * @return positions of the values in the group, in ascending order of value
+     */
+    public int[] members(int group){
+        return Arrays.copyOfRange(order, starts[group], starts[group+1]);
+    }
+
+    public double mean(int group){
+        double sum = 0.0;
+        for(int i=starts[group];i<starts[group+1];i++) sum += values[order[i]];
+        return sum / size(group);
+    }
+
+    /**
+     * @return sum of the squared distances from every value to the mean of its group
+     */
+    public double withinSS(){
+        double total = 0.0;
+        for(int group=0;group<size();group++){
+            double mean = mean(group);
+            for(int i=starts[group];i<starts[group+1];i++){
+                double delta = values[order[i]] - mean;
+                total += delta * delta;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return a point per group, sorted by descending mean. The id of the point joins the topics of the group ('t' +
+     * position) in reverse lexicographic order
+     */
+    public List<TopicPoint> getGroups(){
+        List<TopicPoint> groups = new ArrayList<>(size());
+        for(int group=0;group<size();group++){
+            String[] topics = new String[size(group)];
+            for(int i=0;i<topics.length;i++) topics[i] = "t" + order[starts[group]+i];
+            Arrays.sort(topics, Collections.reverseOrder());
+            groups.add(new TopicPoint(String.join(SEPARATOR, topics), mean(group)));
+        }
+        Collections.sort(groups, (a, b) -> -a.getScore().compareTo(b.getScore()));
+        return groups;
+    }
+
+    /**
+     * @return hash code of the given depth, where level i holds the topics of the group with the i-th highest mean (or
+     * of the group with the lowest mean, when there are fewer groups than levels)
+     */
+    public HashCode toHashCode(int depth){
+        Integer[] groups = new Integer[size()];
+        double[] means = new double[size()];
+        for(int group=0;group<groups.length;group++){
+            groups[group]   = group;
+            means[group]    = mean(group);
+        }
+        Arrays.sort(groups, (a, b) -> -Double.compare(means[a], means[b]));
+        int[][] levels = new int[groups.length == 0? 0 : depth][];
+        for(int i=0;i<levels.length;i++){
+            levels[i] = members(groups[Math.min(i, groups.length-1)]);
+        }
+        return new HashCode(levels);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("Clusters1D{");
+        for(int group=0;group<size();group++){
+            if (group > 0) description.append(", ");
+            description.append(size(group)).append("@").append(String.format("%.5f", mean(group)));
+        }
+        return description.append('}').toString();
+    }
+}
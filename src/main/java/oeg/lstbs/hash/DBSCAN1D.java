@@ -0,0 +1,64 @@
+package oeg.lstbs.hash;
+
+import com.google.common.primitives.Doubles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DBSCAN of one-dimensional values with no minimum of points (every value is a core point).
+ *
+ * Two values are neighbours when their distance is at most 'eps', and clusters are the connected neighbourhoods. Over
+ * the sorted values that means splitting wherever the gap between consecutive values exceeds 'eps', so the groups are
+ * the same as those of the general DBSCAN but computed in O(n log n) instead of O(n^2) neighbourhood queries.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class DBSCAN1D {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DBSCAN1D.class);
+
+    /**
+     * Clusters the values using their sample variance as 'eps'
+     */
+    public static Clusters1D cluster(List<Double> values){
+        double[] array = Doubles.toArray(values);
+        return cluster(array, variance(array));
+    }
+
+    public static Clusters1D cluster(List<Double> values, double eps){
+        return cluster(Doubles.toArray(values), eps);
+    }
+
+    public static Clusters1D cluster(double[] values, double eps){
+        int n = values.length;
+        int[] order = Clusters1D.sort(values);
+        int[] starts = new int[n+1];
+        int groups = 0;
+        for(int i=0;i<n;i++){
+            if (i == 0 || Math.abs(values[order[i]] - values[order[i-1]]) > eps) starts[groups++] = i;
+        }
+        starts[groups] = n;
+        return new Clusters1D(values, order, Arrays.copyOf(starts, groups+1));
+    }
+
+    /**
+     * Single pass (Welford) sample variance, as StatUtils.variance
+     * @return 0 for a single value, NaN for none
+     */
+    public static double variance(double[] values){
+        if (values.length == 0) return Double.NaN;
+        double mean = 0.0;
+        double m2   = 0.0;
+        for(int i=0;i<values.length;i++){
+            double delta = values[i] - mean;
+            mean += delta / (i+1);
+            m2   += delta * (values[i] - mean);
+        }
+        return values.length == 1? 0.0 : m2 / (values.length - 1);
+    }
+
+}
@@ -1,18 +1,15 @@
 package oeg.lstbs.hash;
 
-import oeg.lstbs.data.Stats;
 import oeg.lstbs.data.TopicPoint;
-import org.apache.commons.math3.ml.clustering.Cluster;
-import org.apache.commons.math3.ml.clustering.DBSCANClusterer;
-import org.apache.commons.math3.ml.distance.DistanceMeasure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
+ * Groups the topics of a document by density ({@link DBSCAN1D}, with the variance of the weights as 'eps'), and
+ * hashes every level with the topics of a group (from the highest to the lowest mean).
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -20,7 +17,7 @@ public class DensityHHM implements HierarchicalHashMethod{
 
     private static final Logger LOG = LoggerFactory.getLogger(DensityHHM.class);
 
-    private static final String SEPARATOR = "_";
+    private static final String SEPARATOR = Clusters1D.SEPARATOR;
     private final int depth;
 
     public DensityHHM(int depth) {
@@ -33,34 +30,15 @@ public class DensityHHM implements HierarchicalHashMethod{
     }
 
     @Override
-    public Map<Integer, List<String>> hash(List<Double> topicDistribution) {
-        DistanceMeasure distanceMeasure = new DensityHHM.MonoDimensionalDistanceMeasure();
+    public int getDepth() {
+        return depth;
+    }
 
+    @Override
+    public Map<Integer, List<String>> hash(List<Double> topicDistribution) {
         Map<Integer,List<String>> hashCode = new HashMap<>();
-        int minPts = 0;
-        Double eps = new Stats(topicDistribution).getVariance();
 
-        DBSCANClusterer<TopicPoint> clusterer = new DBSCANClusterer<>(eps, minPts, distanceMeasure);
-
-        List<TopicPoint> points = IntStream.range(0, topicDistribution.size()).mapToObj(i -> new TopicPoint("" + i, topicDistribution.get(i))).collect(Collectors.toList());
-        List<Cluster<TopicPoint>> clusterList = clusterer.cluster(points);
-
-        List<TopicPoint> groups = new ArrayList<>();
-        int totalPoints = 0;
-        for (Cluster<TopicPoint> cluster : clusterList) {
-            Double score = (cluster.getPoints().stream().map(p -> p.getScore()).reduce((x, y) -> x + y).get()) / (cluster.getPoints().size());
-            String label = cluster.getPoints().stream().map(p -> "t" + p.getId()).sorted((x, y) -> -x.compareTo(y)).collect(Collectors.joining(SEPARATOR));
-            totalPoints += cluster.getPoints().size();
-            groups.add(new TopicPoint(label, score));
-        }
-        if (totalPoints < topicDistribution.size()) {
-            List<TopicPoint> clusterPoints = clusterList.stream().flatMap(l -> l.getPoints().stream()).collect(Collectors.toList());
-            List<TopicPoint> isolatedTopics = points.stream().filter(p -> !clusterPoints.contains(p)).collect(Collectors.toList());
-            Double score = (isolatedTopics.stream().map(p -> p.getScore()).reduce((x, y) -> x + y).get()) / (isolatedTopics.size());
-            String label = isolatedTopics.stream().map(p -> "t" + p.getId()).sorted((x, y) -> -x.compareTo(y)).collect(Collectors.joining(SEPARATOR));
-            groups.add(new TopicPoint(label, score));
-        }
-        Collections.sort(groups, (a, b) -> -a.getScore().compareTo(b.getScore()));
+        List<TopicPoint> groups = DBSCAN1D.cluster(topicDistribution).getGroups();
 
         for(int i=0;i<depth;i++){
             List<String> topics = i >= groups.size()? Arrays.asList(groups.get(groups.size()-1).getId().split(SEPARATOR)) : Arrays.asList(groups.get(i).getId().split(SEPARATOR));
@@ -70,12 +48,9 @@ public class DensityHHM implements HierarchicalHashMethod{
         return hashCode;
     }
 
-
-    private static class MonoDimensionalDistanceMeasure implements DistanceMeasure {
-
-        @Override
-        public double compute(double[] p1, double[] p2) {
-            return Math.abs(p1[0] - p2[0]);
-        }
+    @Override
+    public HashCode encode(List<Double> topicDistribution) {
+        return DBSCAN1D.cluster(topicDistribution).toHashCode(depth);
     }
+
 }
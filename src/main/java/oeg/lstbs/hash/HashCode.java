@@ -0,0 +1,132 @@
+package oeg.lstbs.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hierarchical hash code of a topic distribution: the topics of every level as a sorted array of topic positions.
+ *
+ * It is the compact form of the level-to-tokens map returned by {@link HierarchicalHashMethod#hash(List)}, where
+ * topic 17 is the token "t17". Tokens are only created when needed, and those of the first topics are shared.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HashCode {
+
+    public static final String TOKEN_PREFIX = "t";
+
+    private static final int CACHED_TOKENS = 4096;
+
+    private static final String[] TOKENS = new String[CACHED_TOKENS];
+
+    static {
+        for(int i=0;i<CACHED_TOKENS;i++) TOKENS[i] = TOKEN_PREFIX + i;
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int[][] levels;
+
+    /**
+     * @param levels topics of every level. Arrays are sorted in place and kept, not copied
+     */
+    public HashCode(int[][] levels) {
+        this.levels = levels;
+        for(int i=0;i<levels.length;i++){
+            if (levels[i] == null) levels[i] = EMPTY;
+            else Arrays.sort(levels[i]);
+        }
+    }
+
+    /**
+     * @param hashcode tokens ('t' + topic) by level, from 0 to the depth of the hash code. Empty tokens (e.g. those of
+     *                 an empty level split from its stored value) are skipped
+     */
+    public static HashCode of(Map<Integer,List<String>> hashcode){
+        int depth = 0;
+        for(Integer level : hashcode.keySet()) depth = Math.max(depth, level + 1);
+        int[][] levels = new int[depth][];
+        for(Map.Entry<Integer,List<String>> entry : hashcode.entrySet()){
+            List<String> tokens = entry.getValue();
+            int[] topics = new int[tokens.size()];
+            int size = 0;
+            for(String token : tokens){
+                if (token == null || token.isEmpty()) continue;
+                topics[size++] = topicOf(token);
+            }
+            levels[entry.getKey()] = (size == topics.length)? topics : Arrays.copyOf(topics, size);
+        }
+        return new HashCode(levels);
+    }
+
+    /**
+     * @return the topic of a token like 't17'
+     */
+    public static int topicOf(String token){
+        if (!token.startsWith(TOKEN_PREFIX)) throw new IllegalArgumentException("Invalid topic token: '" + token + "'");
+        return Integer.parseInt(token.substring(TOKEN_PREFIX.length()));
+    }
+
+    public static String token(int topic){
+        return (topic >= 0 && topic < CACHED_TOKENS)? TOKENS[topic] : TOKEN_PREFIX + topic;
+    }
+
+    public int getDepth(){
+        return levels.length;
+    }
+
+    /**
+     * @return sorted topics of the level (shared, must not be modified)
+     */
+    public int[] getTopics(int level){
+        return levels[level];
+    }
+
+    /**
+     * @return tokens of the level separated by spaces, as stored in the repository
+     */
+    public String getTokens(int level){
+        StringBuilder tokens = new StringBuilder(levels[level].length * 5);
+        for(int i=0;i<levels[level].length;i++){
+            if (i > 0) tokens.append(' ');
+            tokens.append(TOKEN_PREFIX).append(levels[level][i]);
+        }
+        return tokens.toString();
+    }
+
+    /**
+     * @return tokens ('t' + topic) by level
+     */
+    public Map<Integer,List<String>> toMap(){
+        Map<Integer,List<String>> hashcode = new HashMap<>();
+        for(int level=0;level<levels.length;level++){
+            List<String> tokens = new ArrayList<>(levels[level].length);
+            for(int topic : levels[level]) tokens.add(token(topic));
+            hashcode.put(level, tokens);
+        }
+        return hashcode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.deepEquals(levels, ((HashCode) o).levels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.deepHashCode(levels);
+    }
+
+    @Override
+    public String toString() {
+        return "HashCode{" +
+                "levels=" + Arrays.deepToString(levels) +
+                '}';
+    }
+}
@@ -10,5 +10,17 @@ public interface HierarchicalHashMethod {
 
     String id();
 
+    /**
+     * @return number of levels of the hash codes
+     */
+    int getDepth();
+
     Map<Integer,List<String>> hash(List<Double> topicDistribution);
+
+    /**
+     * @return the hash code as sorted topic positions by level, with the same topics as {@link #hash(List)}
+     */
+    default HashCode encode(List<Double> topicDistribution){
+        return HashCode.of(hash(topicDistribution));
+    }
 }
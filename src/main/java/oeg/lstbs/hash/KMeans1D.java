@@ -0,0 +1,102 @@
+package oeg.lstbs.hash;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Optimal k-means of one-dimensional values (Ckmeans.1d.dp, Wang and Song 2011).
+ *
+ * In one dimension the clusters of an optimal k-means are ranges of the sorted values, so the partition minimizing the
+ * within-cluster sum of squares is found exactly by dynamic programming over the sorted values:
+ * D[q][i] = min_j D[q-1][j-1] + ssq(j,i), where ssq comes from prefix sums in O(1). The best split point j is monotone
+ * in i, so every row is solved by divide and conquer in O(n log n), O(k n log n) overall. Unlike iterative k-means, the
+ * result does not depend on a random seed.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class KMeans1D {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KMeans1D.class);
+
+    public static Clusters1D cluster(List<Double> values, int k){
+        double[] array = new double[values.size()];
+        for(int i=0;i<array.length;i++) array[i] = values.get(i);
+        return cluster(array, k);
+    }
+
+    /**
+     * @param k maximum number of clusters. Fewer are returned when there are fewer distinct values
+     */
+    public static Clusters1D cluster(double[] values, int k){
+        int n = values.length;
+        int[] order = Clusters1D.sort(values);
+        if (n == 0) return new Clusters1D(values, order, new int[]{0});
+
+        int distinct = 1;
+        for(int i=1;i<n;i++) if (values[order[i]] != values[order[i-1]]) distinct++;
+        int clusters = Math.max(1, Math.min(k, distinct));
+
+        // prefix sums of the values shifted by the median, which keeps sum(x^2) - sum(x)^2/n accurate
+        double median   = values[order[n/2]];
+        double[] sum    = new double[n+1];
+        double[] sumSq  = new double[n+1];
+        for(int i=0;i<n;i++){
+            double x    = values[order[i]] - median;
+            sum[i+1]    = sum[i] + x;
+            sumSq[i+1]  = sumSq[i] + x * x;
+        }
+
+        double[][] cost = new double[clusters][n];
+        int[][] split   = new int[clusters][n];
+        for(int i=0;i<n;i++) cost[0][i] = ssq(sum, sumSq, 0, i);
+        for(int q=1;q<clusters;q++){
+            fill(cost[q-1], cost[q], split[q], sum, sumSq, q, q, n-1, q, n-1);
+        }
+
+        // the last cluster ends at the largest value, every split gives the start of a cluster
+        int[] starts = new int[clusters+1];
+        starts[clusters] = n;
+        int end = n - 1;
+        for(int q=clusters-1;q>0;q--){
+            starts[q]   = split[q][end];
+            end         = starts[q] - 1;
+        }
+        starts[0] = 0;
+        return new Clusters1D(values, order, starts);
+    }
+
+    /**
+     * Solves cost[i] for i in [from,to], knowing that its best split is in [low,high]
+     */
+    private static void fill(double[] previous, double[] cost, int[] split, double[] sum, double[] sumSq, int q, int from, int to, int low, int high){
+        if (from > to) return;
+        int i       = (from + to) >>> 1;
+        int best    = Math.max(q, low);
+        double min  = Double.POSITIVE_INFINITY;
+        for(int j=Math.max(q, low);j<=Math.min(i, high);j++){
+            double candidate = previous[j-1] + ssq(sum, sumSq, j, i);
+            if (candidate < min){
+                min     = candidate;
+                best    = j;
+            }
+        }
+        cost[i]  = min;
+        split[i] = best;
+        fill(previous, cost, split, sum, sumSq, q, from, i-1, low, best);
+        fill(previous, cost, split, sum, sumSq, q, i+1, to, best, high);
+    }
+
+    /**
+     * @return sum of squared distances to their mean of the sorted values from position j to i (both included)
+     */
+    private static double ssq(double[] sum, double[] sumSq, int j, int i){
+        int size    = i - j + 1;
+        double s    = sum[i+1] - sum[j];
+        double cost = (sumSq[i+1] - sumSq[j]) - s * s / size;
+        return cost < 0.0? 0.0 : cost;
+    }
+
+}
@@ -0,0 +1,140 @@
+package oeg.lstbs.hash;
+
+import com.google.common.primitives.Doubles;
+import org.apache.commons.math3.distribution.NormalDistribution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Locality-sensitive hashing based on p-stable distributions (E2LSH, Datar et al. 2004) over √p.
+ *
+ * Topic distributions are mapped to their element-wise square roots, where the euclidean distance is √2 times the
+ * Hellinger distance. Each of the L tables concatenates K projections h(v) = floor((a·v + b) / w), with 'a' drawn
+ * from a standard gaussian and 'b' uniformly from [0,w). Two vectors are candidates when they share the key of any
+ * table.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class PStableHash {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PStableHash.class);
+
+    private static final NormalDistribution NORMAL = new NormalDistribution(0.0, 1.0);
+
+    private final int tables;
+
+    private final int projections;
+
+    private final double width;
+
+    private final long seed;
+
+    private volatile double[][] directions;
+
+    private volatile double[] offsets;
+
+    /**
+     * @param tables number of hash tables (L)
+     * @param projections number of projections concatenated in each table (K)
+     * @param width bucket width (w) in the √p space
+     * @param seed seed for the random projections. Documents and queries must be hashed with the same seed
+     */
+    public PStableHash(int tables, int projections, double width, long seed) {
+        if (tables < 1 || projections < 1) throw new IllegalArgumentException("At least one table and one projection are required");
+        if (width <= 0) throw new IllegalArgumentException("Bucket width must be positive");
+        this.tables         = tables;
+        this.projections    = projections;
+        this.width          = width;
+        this.seed           = seed;
+    }
+
+    public int getTables() {
+        return tables;
+    }
+
+    public int getProjections() {
+        return projections;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public String[] hash(List<Double> topicDistribution){
+        return hash(Doubles.toArray(topicDistribution));
+    }
+
+    /**
+     * @return bucket key of the distribution in each table
+     */
+    public String[] hash(double[] topicDistribution){
+        init(topicDistribution.length);
+        double[] point = new double[topicDistribution.length];
+        for(int i=0;i<point.length;i++) point[i] = Math.sqrt(topicDistribution[i]);
+
+        String[] keys = new String[tables];
+        StringBuilder key = new StringBuilder();
+        for(int t=0;t<tables;t++){
+            key.setLength(0);
+            for(int p=0;p<projections;p++){
+                int index = t * projections + p;
+                double[] direction = directions[index];
+                double dot = 0;
+                for(int i=0;i<point.length;i++) dot += direction[i] * point[i];
+                if (p > 0) key.append('_');
+                key.append((long) Math.floor((dot + offsets[index]) / width));
+            }
+            keys[t] = key.toString();
+        }
+        return keys;
+    }
+
+    /**
+     * Probability that a single projection puts two points at the given euclidean distance in the same bucket
+     */
+    public double collisionProbability(double distance){
+        if (distance <= 0) return 1.0;
+        double r = width / distance;
+        return 1.0 - 2.0 * NORMAL.cumulativeProbability(-r) - (2.0 / (Math.sqrt(2.0 * Math.PI) * r)) * (1.0 - Math.exp(-r * r / 2.0));
+    }
+
+    /**
+     * Probability that two points at the given euclidean distance share a bucket in at least one table
+     */
+    public double recall(double distance){
+        double p = Math.pow(collisionProbability(distance), projections);
+        return 1.0 - Math.pow(1.0 - p, tables);
+    }
+
+    /**
+     * Euclidean distance in the √p space of two distributions with the given Hellinger similarity
+     */
+    public static double distanceOf(double hellingerSimilarity){
+        return Math.sqrt(2.0) * (1.0 - hellingerSimilarity);
+    }
+
+    private void init(int dimension){
+        if (directions != null && directions[0].length == dimension) return;
+        synchronized (this){
+            if (directions != null){
+                if (directions[0].length != dimension) throw new IllegalArgumentException("Distribution has " + dimension + " topics, but " + directions[0].length + " were expected");
+                return;
+            }
+            Random random = new Random(seed);
+            double[][] a = new double[tables * projections][dimension];
+            double[] b = new double[tables * projections];
+            for(int i=0;i<a.length;i++){
+                for(int j=0;j<dimension;j++) a[i][j] = random.nextGaussian();
+                b[i] = random.nextDouble() * width;
+            }
+            this.offsets    = b;
+            this.directions = a;
+            LOG.debug("Created " + tables + " tables of " + projections + " projections for " + dimension + " topics");
+        }
+    }
+
+}
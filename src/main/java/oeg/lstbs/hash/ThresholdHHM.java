@@ -3,11 +3,9 @@ package oeg.lstbs.hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
@@ -27,17 +25,38 @@ public class ThresholdHHM implements HierarchicalHashMethod {
         return "threshold";
     }
 
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
     @Override
     public Map<Integer, List<String>> hash(List<Double> topicDistribution) {
-        double inc = 1.0 / (Double.valueOf(topicDistribution.size())*Double.valueOf(depth+1));
-        Map<Integer,List<String>> hashCode = new HashMap<>();
+        return encode(topicDistribution).toMap();
+    }
+
+    /**
+     * Level i holds the topics above (depth-i)/(n*(depth+1)) and, except the first one, below the limit of the previous
+     * level. Topics are written in increasing order, so the levels are already sorted.
+     */
+    @Override
+    public HashCode encode(List<Double> topicDistribution) {
+        int topics = topicDistribution.size();
+        double[] values = new double[topics];
+        for(int t=0;t<topics;t++) values[t] = topicDistribution.get(t);
+
+        double inc = 1.0 / (Double.valueOf(topics)*Double.valueOf(depth+1));
+        int[][] levels = new int[depth][];
+        int[] buffer = new int[topics];
         for(int i=0;i<depth;i++){
             double lowerLimit = (depth-i)*inc;
             double upperLimit = i==0? Double.MAX_VALUE : lowerLimit+inc;
-
-            List<Integer> ts = IntStream.range(0,topicDistribution.size()).filter(s -> topicDistribution.get(s) > lowerLimit && topicDistribution.get(s) < upperLimit).boxed().collect(Collectors.toList());
-            hashCode.put(i,ts.stream().map(t -> "t"+t).collect(Collectors.toList()));
+            int size = 0;
+            for(int t=0;t<topics;t++){
+                if (values[t] > lowerLimit && values[t] < upperLimit) buffer[size++] = t;
+            }
+            levels[i] = Arrays.copyOf(buffer, size);
         }
-        return hashCode;
+        return new HashCode(levels);
     }
 }
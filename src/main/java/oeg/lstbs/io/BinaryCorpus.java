@@ -0,0 +1,392 @@
+package oeg.lstbs.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Binary format of a corpus of topic distributions, so that it is read without decompressing and parsing text.
+ *
+ * Layout (little-endian):
+ * - header (64 bytes): magic, version, bytes per topic index (2 or 4), dimension, vectors per block, number of vectors,
+ *   sparse threshold, number of blocks, and position of the ids and of the block index.
+ * - blocks of 'blockSize' vectors. Each vector is either dense (0, 'dimension' float32) or sparse (1, number of topics
+ *   n, n topic indexes, n float32), whichever is smaller. Topics not above the threshold are left out of sparse vectors.
+ * - ids, as UTF-8 strings prefixed by their length (uint16), in the order of the vectors.
+ * - block index: position and length of the vectors and of the ids of each block.
+ *
+ * Blocks are read independently, so reading from an offset seeks to the block of the offset instead of skipping rows.
+ * Files with the {@link #EXTENSION} extension are read by {@link VectorReader} as any other corpus.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class BinaryCorpus {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryCorpus.class);
+
+    public static final String EXTENSION = ".lstbs";
+
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+
+    private static final int MAGIC = 0x4342534C;
+
+    private static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    private static final byte DENSE = 0;
+
+    private static final byte SPARSE = 1;
+
+    public static boolean isBinary(String path){
+        return path.endsWith(EXTENSION);
+    }
+
+    /**
+     * Converts a corpus (e.g. a gzipped CSV file) to the binary format, keeping all the topics
+     * @return number of vectors written
+     */
+    public static long convert(String path, File output){
+        return convert(path, output, DEFAULT_BLOCK_SIZE, 0f);
+    }
+
+    /**
+     * @param blockSize number of vectors per block
+     * @param threshold topics not above it can be left out (sparse encoding). Use 0 to keep every non-zero topic
+     * @return number of vectors written
+     */
+    public static long convert(String path, File output, int blockSize, float threshold){
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        try(Writer writer = new Writer(output, blockSize, threshold)){
+            // vectors are written in the order of the source, so offsets keep their meaning
+            VectorReader.RawVectorAction action = (id, vector, length) -> {
+                try{
+                    writer.add(id, vector, length);
+                }catch (IOException | RuntimeException e){
+                    error.compareAndSet(null, e instanceof RuntimeException? (RuntimeException) e : new UncheckedIOException((IOException) e));
+                }
+            };
+            VectorReader.from(path, 0, action, (id, vector, length) -> error.get() == null, 100000, 0, Runtime.getRuntime().availableProcessors(), true);
+            if (error.get() != null) throw error.get();
+            LOG.info("Converted " + writer.size() + " vectors from " + path + " to " + output);
+            return writer.size();
+        }catch (IOException e){
+            throw new RuntimeException("Error converting " + path, e);
+        }
+    }
+
+    /**
+     * @param offset vectors numbered (from 1) below the offset are skipped
+     */
+    static Reader open(String path, int offset) throws IOException {
+        return new Reader(new File(path), offset);
+    }
+
+    /**
+     * Converts a corpus: 'source' 'output'
+     */
+    public static void main(String[] args){
+        if (args.length < 2) throw new IllegalArgumentException("Usage: BinaryCorpus <source> <output" + EXTENSION + ">");
+        convert(args[0], new File(args[1]));
+    }
+
+    /**
+     * Writes vectors in the binary format. The file only appears, complete, once the writer is closed
+     */
+    public static class Writer implements Closeable {
+
+        private final File file;
+        private final File tmpFile;
+        private final File idsFile;
+        private final FileChannel channel;
+        private final OutputStream ids;
+        private final int blockSize;
+        private final float threshold;
+        private final List<long[]> index = new ArrayList<>();
+        private int dimension = -1;
+        private int indexBytes;
+        private ByteBuffer block;
+        private int[] topics;
+        private long size = 0;
+        private int rows = 0;
+        private long position = HEADER_SIZE;
+        private long idsSize = 0;
+        private long blockIds = 0;
+
+        public Writer(File file, int blockSize, float threshold) throws IOException {
+            if (blockSize < 1) throw new IllegalArgumentException("Blocks must have at least one vector");
+            this.file       = file;
+            this.blockSize  = blockSize;
+            this.threshold  = threshold;
+            if (file.getAbsoluteFile().getParentFile() != null) file.getAbsoluteFile().getParentFile().mkdirs();
+            this.tmpFile    = new File(file.getPath() + ".tmp");
+            this.idsFile    = new File(file.getPath() + ".ids.tmp");
+            this.channel    = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.ids        = new BufferedOutputStream(new FileOutputStream(idsFile), 1 << 16);
+        }
+
+        public long size(){
+            return size;
+        }
+
+        public void add(String id, double[] vector, int length) throws IOException {
+            if (dimension < 0){
+                this.dimension  = length;
+                this.indexBytes = length <= 65536? 2 : 4;
+                this.block      = ByteBuffer.allocate(blockSize * (1 + length * Float.BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+                this.topics     = new int[length];
+            }
+            if (length != dimension) throw new IllegalArgumentException("Vector '" + id + "' has " + length + " topics, but " + dimension + " were expected");
+
+            int nonZero = 0;
+            for(int i=0;i<length;i++){
+                float value = (float) vector[i];
+                if (value != 0f && Math.abs(value) > threshold) topics[nonZero++] = i;
+            }
+            if (Byte.BYTES + Integer.BYTES + nonZero * (indexBytes + Float.BYTES) < Byte.BYTES + length * Float.BYTES){
+                block.put(SPARSE);
+                block.putInt(nonZero);
+                for(int i=0;i<nonZero;i++){
+                    if (indexBytes == 2) block.putShort((short) topics[i]);
+                    else block.putInt(topics[i]);
+                }
+                for(int i=0;i<nonZero;i++) block.putFloat((float) vector[topics[i]]);
+            }else{
+                block.put(DENSE);
+                for(int i=0;i<length;i++) block.putFloat((float) vector[i]);
+            }
+
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Id is too long: '" + id + "'");
+            ids.write(bytes.length & 0xFF);
+            ids.write((bytes.length >>> 8) & 0xFF);
+            ids.write(bytes);
+            idsSize += Short.BYTES + bytes.length;
+
+            size++;
+            if (++rows == blockSize) flushBlock();
+        }
+
+        private void flushBlock() throws IOException {
+            if (rows == 0) return;
+            block.flip();
+            int length = block.remaining();
+            while(block.hasRemaining()) channel.write(block, position + (length - block.remaining()));
+            index.add(new long[]{position, length, blockIds, idsSize - blockIds});
+            position += length;
+            blockIds = idsSize;
+            block.clear();
+            rows = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try{
+                flushBlock();
+                ids.close();
+
+                // ids follow the blocks
+                long idsPosition = position;
+                try(FileChannel source = FileChannel.open(idsFile.toPath(), StandardOpenOption.READ)){
+                    long copied = 0;
+                    while(copied < idsSize) copied += channel.transferFrom(source, idsPosition + copied, idsSize - copied);
+                }
+                long indexPosition = idsPosition + idsSize;
+
+                ByteBuffer entries = ByteBuffer.allocate(index.size() * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                for(long[] entry : index){
+                    entries.putLong(entry[0]);
+                    entries.putInt((int) entry[1]);
+                    entries.putLong(idsPosition + entry[2]);
+                    entries.putInt((int) entry[3]);
+                }
+                entries.flip();
+                write(entries, indexPosition);
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC);
+                header.put(VERSION);
+                header.put((byte) indexBytes);
+                header.putShort((short) 0);
+                header.putInt(Math.max(0, dimension));
+                header.putInt(blockSize);
+                header.putLong(size);
+                header.putFloat(threshold);
+                header.putInt(index.size());
+                header.putLong(idsPosition);
+                header.putLong(indexPosition);
+                header.position(HEADER_SIZE);
+                header.flip();
+                write(header, 0);
+                channel.force(true);
+            }finally {
+                channel.close();
+                idsFile.delete();
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private void write(ByteBuffer buffer, long at) throws IOException {
+            long start = at;
+            while(buffer.hasRemaining()) start += channel.write(buffer, start);
+        }
+    }
+
+    /**
+     * Reads the blocks of a binary corpus for {@link VectorReader}
+     */
+    static class Reader implements VectorReader.Source {
+
+        private final FileChannel channel;
+        private final int indexBytes;
+        private final int dimension;
+        private final int blockSize;
+        private final long size;
+        private final long[] dataPositions;
+        private final int[] dataLengths;
+        private final long[] idPositions;
+        private final int[] idLengths;
+        private int block;
+        private int first;
+
+        Reader(File file, int offset) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try{
+                ByteBuffer header = read(0, HEADER_SIZE);
+                if (header.getInt() != MAGIC) throw new IOException("Not a binary corpus: " + file);
+                byte version = header.get();
+                if (version != VERSION) throw new IOException("Unsupported version " + version + " of binary corpus: " + file);
+                this.indexBytes = header.get();
+                header.getShort();
+                this.dimension  = header.getInt();
+                this.blockSize  = header.getInt();
+                this.size       = header.getLong();
+                header.getFloat();
+                int blocks      = header.getInt();
+                header.getLong();
+                long indexPosition = header.getLong();
+
+                this.dataPositions  = new long[blocks];
+                this.dataLengths    = new int[blocks];
+                this.idPositions    = new long[blocks];
+                this.idLengths      = new int[blocks];
+                ByteBuffer entries = read(indexPosition, blocks * INDEX_ENTRY_SIZE);
+                for(int i=0;i<blocks;i++){
+                    dataPositions[i]    = entries.getLong();
+                    dataLengths[i]      = entries.getInt();
+                    idPositions[i]      = entries.getLong();
+                    idLengths[i]        = entries.getInt();
+                }
+            }catch (IOException | RuntimeException e){
+                channel.close();
+                throw e;
+            }
+
+            // seek to the block of the first row
+            long start = Math.max(0, offset - 1);
+            this.block = start >= size? dataPositions.length : (int) (start / blockSize);
+            this.first = (int) (start % blockSize);
+        }
+
+        public int getDimension() {
+            return dimension;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int capacity() {
+            return blockSize;
+        }
+
+        @Override
+        public boolean fill(VectorReader.Chunk chunk) throws IOException {
+            if (block >= dataPositions.length) return false;
+            int length = idLengths[block] + dataLengths[block];
+            if (chunk.buffer == null || chunk.buffer.capacity() < length){
+                chunk.buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            // ids first, then vectors
+            ByteBuffer buffer = chunk.buffer;
+            buffer.clear();
+            buffer.limit(idLengths[block]);
+            readFully(buffer, idPositions[block]);
+            buffer.limit(length);
+            readFully(buffer, dataPositions[block]);
+            buffer.flip();
+
+            chunk.size  = (int) Math.min(blockSize, size - (long) block * blockSize);
+            chunk.first = first;
+            this.first  = 0;
+            this.block++;
+            return true;
+        }
+
+        @Override
+        public void decode(VectorReader.Chunk chunk) {
+            ByteBuffer buffer = chunk.buffer;
+            byte[] bytes = buffer.array();
+            for(int i=0;i<chunk.size;i++){
+                int length = buffer.getShort() & 0xFFFF;
+                chunk.ids[i] = i < chunk.first? null : new String(bytes, buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+            for(int i=0;i<chunk.size;i++){
+                double[] vector = chunk.vector(i, dimension);
+                chunk.lengths[i] = dimension;
+                if (buffer.get() == DENSE){
+                    for(int j=0;j<dimension;j++) vector[j] = buffer.getFloat();
+                    continue;
+                }
+                Arrays.fill(vector, 0, dimension, 0.0);
+                int topics  = buffer.getInt();
+                int indexes = buffer.position();
+                int values  = indexes + topics * indexBytes;
+                for(int j=0;j<topics;j++){
+                    int topic = indexBytes == 2? buffer.getShort(indexes + j * 2) & 0xFFFF : buffer.getInt(indexes + j * 4);
+                    vector[topic] = buffer.getFloat(values + j * Float.BYTES);
+                }
+                buffer.position(values + topics * Float.BYTES);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(buffer, position);
+            buffer.flip();
+            return buffer;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            long at = position;
+            while(buffer.hasRemaining()){
+                int read = channel.read(buffer, at);
+                if (read < 0) throw new EOFException("Truncated binary corpus");
+                at += read;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package oeg.lstbs.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads gzip written in independent members with their size in a 'BC' extra field (BGZF, see
+ * {@link BlockedGzipOutputStream}), inflating several members in parallel.
+ *
+ * The calling thread only reads the compressed members, which are inflated by the workers and returned in order. Up to
+ * two members per worker are decompressed ahead of the reader.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class BlockedGzipInputStream extends InputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockedGzipInputStream.class);
+
+    private final InputStream in;
+
+    private final int ahead;
+
+    private final ParallelExecutor executor;
+
+    private final ArrayDeque<Block> pending = new ArrayDeque<>();
+
+    private Block current;
+
+    private int position;
+
+    private boolean eof = false;
+
+    private boolean closed = false;
+
+    public BlockedGzipInputStream(InputStream in) {
+        this(in, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers number of inflating threads
+     */
+    public BlockedGzipInputStream(InputStream in, int workers) {
+        this.in         = in;
+        this.ahead      = 2 * Math.max(1, workers);
+        this.executor   = new ParallelExecutor(Math.max(1, workers));
+    }
+
+    /**
+     * @return a stream of the decompressed content: inflated in parallel if it is blocked gzip, or by a
+     * {@link GZIPInputStream} otherwise
+     */
+    public static InputStream open(InputStream input) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(input, 1 << 16);
+        in.mark(BlockedGzipOutputStream.HEADER_SIZE);
+        byte[] header = new byte[BlockedGzipOutputStream.HEADER_SIZE];
+        int read = readFully(in, header, 0, header.length);
+        in.reset();
+        if (read == header.length && isBlocked(header)) return new BlockedGzipInputStream(in);
+        return new GZIPInputStream(in, 1 << 16);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!available(1)) return -1;
+        return current.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (!available(1)) return -1;
+        int count = Math.min(length, current.size - position);
+        System.arraycopy(current.data, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null? 0 : current.size - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        this.closed = true;
+        try{
+            in.close();
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean available(int bytes) throws IOException {
+        while(current == null || current.size - position < bytes){
+            fill();
+            Block next = pending.poll();
+            if (next == null){
+                // workers are released as soon as the content is read, even if the stream is not closed
+                executor.shutdown();
+                return false;
+            }
+            next.await(executor);
+            this.current    = next;
+            this.position   = 0;
+        }
+        return true;
+    }
+
+    private void fill() throws IOException {
+        while(!eof && pending.size() < ahead){
+            Block block = readMember();
+            if (block == null){
+                this.eof = true;
+                break;
+            }
+            pending.add(block);
+            block.done = executor.submit(block::inflate);
+        }
+    }
+
+    private Block readMember() throws IOException {
+        byte[] header = new byte[BlockedGzipOutputStream.HEADER_SIZE];
+        int read = readFully(in, header, 0, header.length);
+        if (read == 0) return null;
+        if (read < header.length || !isBlocked(header)) throw new ZipException("Not a blocked gzip member");
+        int size = ((header[16] & 0xFF) | ((header[17] & 0xFF) << 8)) + 1;
+        byte[] member = new byte[size];
+        System.arraycopy(header, 0, member, 0, header.length);
+        if (readFully(in, member, header.length, size - header.length) < size - header.length) throw new EOFException("Truncated gzip member");
+        return new Block(member);
+    }
+
+    private static boolean isBlocked(byte[] header){
+        // gzip, deflate, extra field of 6 bytes with a 'BC' subfield of 2 bytes
+        return (header[0] & 0xFF) == 0x1f && (header[1] & 0xFF) == 0x8b && header[2] == 8 && (header[3] & 4) != 0
+                && header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+    }
+
+    private static int readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        int total = 0;
+        while(total < length){
+            int read = in.read(bytes, offset + total, length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+
+    private static class Block {
+
+        private final byte[] member;
+        private CompletableFuture<Void> done;
+        private byte[] data;
+        private int size;
+        private Exception error;
+
+        Block(byte[] member) {
+            this.member = member;
+        }
+
+        void inflate(){
+            Inflater inflater = new Inflater(true);
+            try{
+                int footer  = member.length - BlockedGzipOutputStream.FOOTER_SIZE;
+                int crc     = readInt(member, footer);
+                int length  = readInt(member, footer + 4);
+                if (length < 0 || length > BlockedGzipOutputStream.MAX_MEMBER_SIZE) throw new ZipException("Invalid size of gzip member: " + length);
+                byte[] output = new byte[length];
+                inflater.setInput(member, BlockedGzipOutputStream.HEADER_SIZE, footer - BlockedGzipOutputStream.HEADER_SIZE);
+                int inflated = 0;
+                while(inflated < length && !inflater.finished()){
+                    int count = inflater.inflate(output, inflated, length - inflated);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    inflated += count;
+                }
+                if (inflated != length) throw new ZipException("Corrupt gzip member: " + inflated + " of " + length + " bytes");
+                CRC32 checksum = new CRC32();
+                checksum.update(output, 0, length);
+                if ((int) checksum.getValue() != crc) throw new ZipException("Corrupt gzip member (CRC mismatch)");
+                this.data = output;
+                this.size = length;
+            }catch (DataFormatException | IOException | RuntimeException e){
+                this.error = e;
+            }finally {
+                inflater.end();
+            }
+        }
+
+        void await(ParallelExecutor executor) throws IOException {
+            try {
+                // runs pending blocks while waiting, so the calling thread is never idle
+                executor.join(done);
+            } catch (CancellationException e) {
+                throw new InterruptedIOException("Interrupted inflating block");
+            } catch (CompletionException e) {
+                throw new IOException("Error inflating block", e.getCause());
+            }
+            if (error != null) throw error instanceof IOException? (IOException) error : new IOException("Error inflating block", error);
+        }
+
+        private static int readInt(byte[] bytes, int offset){
+            return (bytes[offset] & 0xFF) | ((bytes[offset+1] & 0xFF) << 8) | ((bytes[offset+2] & 0xFF) << 16) | ((bytes[offset+3] & 0xFF) << 24);
+        }
+    }
+
+}
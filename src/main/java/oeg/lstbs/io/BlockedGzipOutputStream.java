@@ -0,0 +1,196 @@
+package oeg.lstbs.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip as a series of independent members of at most 64KB (BGZF, as in bgzip/samtools), compressed in parallel.
+ *
+ * Every member carries its compressed size in a 'BC' extra field, so a reader can find the next member without
+ * inflating the current one and inflate several of them at the same time ({@link BlockedGzipInputStream}). The output
+ * is still a valid gzip stream for any other reader.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class BlockedGzipOutputStream extends OutputStream {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockedGzipOutputStream.class);
+
+    // uncompressed bytes per member, so that the compressed member always fits in 64KB
+    static final int BLOCK_SIZE = 0xff00;
+
+    static final int MAX_MEMBER_SIZE = 1 << 16;
+
+    static final int HEADER_SIZE = 18;
+
+    static final int FOOTER_SIZE = 8;
+
+    // empty member that marks the end of the stream
+    static final byte[] EOF = {
+            0x1f, (byte) 0x8b, 0x08, 0x04, 0, 0, 0, 0, 0, (byte) 0xff, 0x06, 0, 0x42, 0x43, 0x02, 0, 0x1b, 0,
+            0x03, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final OutputStream out;
+
+    private final int level;
+
+    private final int ahead;
+
+    private final ParallelExecutor executor;
+
+    private final ArrayDeque<Block> pending = new ArrayDeque<>();
+
+    private byte[] buffer = new byte[BLOCK_SIZE];
+
+    private int size = 0;
+
+    private boolean closed = false;
+
+    public BlockedGzipOutputStream(OutputStream out) {
+        this(out, Deflater.DEFAULT_COMPRESSION, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param level compression level of every member
+     * @param workers number of compressing threads
+     */
+    public BlockedGzipOutputStream(OutputStream out, int level, int workers) {
+        this.out        = out;
+        this.level      = level;
+        this.ahead      = 2 * Math.max(1, workers);
+        this.executor   = new ParallelExecutor(Math.max(1, workers));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (size == BLOCK_SIZE) submit();
+        buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while(length > 0){
+            if (size == BLOCK_SIZE) submit();
+            int count = Math.min(length, BLOCK_SIZE - size);
+            System.arraycopy(bytes, offset, buffer, size, count);
+            size    += count;
+            offset  += count;
+            length  -= count;
+        }
+    }
+
+    /**
+     * Ends the current member and writes every pending one
+     */
+    @Override
+    public void flush() throws IOException {
+        if (size > 0) submit();
+        while(!pending.isEmpty()) writeNext();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        this.closed = true;
+        try{
+            flush();
+            out.write(EOF);
+            out.close();
+        }finally {
+            executor.shutdown();
+        }
+    }
+
+    private void submit() throws IOException {
+        Block block = new Block(buffer, size);
+        this.buffer = new byte[BLOCK_SIZE];
+        this.size   = 0;
+        pending.add(block);
+        block.done = executor.submit(() -> block.compress(level));
+        while(pending.size() > ahead) writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        Block block = pending.poll();
+        block.await(executor);
+        out.write(block.member, 0, block.length);
+    }
+
+    private static class Block {
+
+        private final byte[] data;
+        private final int size;
+        private CompletableFuture<Void> done;
+        private byte[] member;
+        private int length;
+        private Exception error;
+
+        Block(byte[] data, int size) {
+            this.data = data;
+            this.size = size;
+        }
+
+        void compress(int level){
+            Deflater deflater = new Deflater(level, true);
+            try{
+                byte[] output = new byte[MAX_MEMBER_SIZE];
+                deflater.setInput(data, 0, size);
+                deflater.finish();
+                int compressed = deflater.deflate(output, HEADER_SIZE, MAX_MEMBER_SIZE - HEADER_SIZE - FOOTER_SIZE);
+                if (!deflater.finished()) throw new IOException("Block does not fit in a gzip member");
+                int total = HEADER_SIZE + compressed + FOOTER_SIZE;
+
+                // gzip header with the 'BC' extra field holding the member size - 1
+                System.arraycopy(EOF, 0, output, 0, HEADER_SIZE);
+                output[16] = (byte) ((total - 1) & 0xFF);
+                output[17] = (byte) ((total - 1) >>> 8);
+
+                CRC32 crc = new CRC32();
+                crc.update(data, 0, size);
+                int footer = HEADER_SIZE + compressed;
+                writeInt(output, footer, (int) crc.getValue());
+                writeInt(output, footer + 4, size);
+
+                this.member = output;
+                this.length = total;
+            }catch (Exception e){
+                this.error = e;
+            }finally {
+                deflater.end();
+            }
+        }
+
+        void await(ParallelExecutor executor) throws IOException {
+            try {
+                // runs pending blocks while waiting, so the calling thread is never idle
+                executor.join(done);
+            } catch (CancellationException e) {
+                throw new InterruptedIOException("Interrupted compressing block");
+            } catch (CompletionException e) {
+                throw new IOException("Error compressing block", e.getCause());
+            }
+            if (error != null) throw new IOException("Error compressing block", error);
+        }
+
+        private static void writeInt(byte[] bytes, int offset, int value){
+            bytes[offset]   = (byte) value;
+            bytes[offset+1] = (byte) (value >>> 8);
+            bytes[offset+2] = (byte) (value >>> 16);
+            bytes[offset+3] = (byte) (value >>> 24);
+        }
+    }
+
+}
@@ -6,10 +6,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Reads documents from a json or csv corpus. The calling thread reads the rows and they are parsed on an I/O stage
+ * ({@link ParallelExecutor#io(String)}). Validations and actions (e.g. language detection and indexing) are CPU-bound
+ * or serialized on a repository, so they run on a stage bounded by the processors, which also holds back the parsers
+ * when actions are slower.
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -17,49 +22,58 @@ public class CorpusReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(CorpusReader.class);
 
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
     public static void from(String path, Integer offset, CorpusAction action, CorpusValidation predicate, Integer ratio, Integer max, String idField, String nameField, String txtField){
-        try{
-            BufferedReader reader = ReaderUtils.from(path);
+        ParallelExecutor parsers = ParallelExecutor.io("corpus-parser");
+        ParallelExecutor actions = new ParallelExecutor();
+        try(BufferedReader reader = ReaderUtils.from(path)){
             String row;
             AtomicInteger counter = new AtomicInteger();
-            AtomicInteger rowNumber = new AtomicInteger();
-            ParallelExecutor executor = new ParallelExecutor();
-            ObjectMapper jsonMapper = new ObjectMapper();
+            int rowNumber = 0;
             while((row = reader.readLine()) != null){
-                if (rowNumber.incrementAndGet() < offset) continue;
-                String dId = null;
-                String dName = null;
-                String txt = null;
-                if (row.startsWith("{")){
-                    // json
-                    JsonNode json = jsonMapper.readTree(row);
-                    dId = json.get(idField).asText();
-                    dName = json.get(nameField).asText();
-                    txt = json.get(txtField).asText();
-                }else{
-                    // csv
-                    String[] values = row.replace("\",",",").replace(",\"",";;;").split(";;;");
-                    dId = values[Integer.valueOf(idField)];
-                    dName = values[Integer.valueOf(nameField)];
-                    txt = values[Integer.valueOf(txtField)];
-                }
-                if (!predicate.isValid(dId,dName, txt)) continue;
-
-                String finalDId = dId;
-                String finalDName = dName;
-                String finalTxt = txt;
-                executor.submit(() -> action.handle(finalDId, finalDName, finalTxt));
-                if (counter.incrementAndGet() % ratio == 0) LOG.debug(counter.get() + " docs read" );
-                if ((max> 0) && (counter.get() >= max)) break;
+                if (++rowNumber < offset) continue;
+                if ((max > 0) && (counter.get() >= max)) break;
+                final String line = row;
+                parsers.submit(() -> {
+                    String[] fields = parse(line, idField, nameField, txtField);
+                    actions.submit(() -> {
+                        if (!predicate.isValid(fields[0], fields[1], fields[2])) return;
+                        int accepted = counter.incrementAndGet();
+                        if ((max > 0) && (accepted > max)) return;
+                        action.handle(fields[0], fields[1], fields[2]);
+                        if (accepted % ratio == 0) LOG.debug(accepted + " docs read" );
+                    });
+                });
             }
-            executor.awaitTermination(1l, TimeUnit.HOURS);
-            reader.close();
-            LOG.info(counter.get() + " documents finally read" );
-        }catch (Exception e){
+            parsers.shutdown();
+            parsers.join();
+            actions.shutdown();
+            actions.join();
+            LOG.info(Math.min(counter.get(), max > 0? max : Integer.MAX_VALUE) + " documents finally read" );
+        }catch (IOException e){
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * @return id, name and text of the row
+     */
+    private static String[] parse(String row, String idField, String nameField, String txtField){
+        if (row.startsWith("{")){
+            // json
+            try {
+                JsonNode json = JSON_MAPPER.readTree(row);
+                return new String[]{json.get(idField).asText(), json.get(nameField).asText(), json.get(txtField).asText()};
+            } catch (IOException e) {
+                throw new RuntimeException("Invalid row: '" + row + "'", e);
+            }
+        }
+        // csv
+        String[] values = row.replace("\",",",").replace(",\"",";;;").split(";;;");
+        return new String[]{values[Integer.valueOf(idField)], values[Integer.valueOf(nameField)], values[Integer.valueOf(txtField)]};
+    }
+
 
     public interface CorpusAction {
         void handle(String id, String name, String txt);
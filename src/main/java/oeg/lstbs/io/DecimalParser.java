@@ -0,0 +1,93 @@
+package oeg.lstbs.io;
+
+/**
+ * Parses decimal numbers from a range of characters without creating intermediate strings.
+ *
+ * Values with at most 15-16 significant digits and small exponents (the usual case for topic weights) are computed
+ * exactly from the digits as a long and a power of ten (both exactly representable as doubles, so the result is
+ * correctly rounded). Any other value falls back to {@link Double#parseDouble(String)}, so the result is always the same
+ * as {@link Double#valueOf(String)}.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public final class DecimalParser {
+
+    private static final long MAX_EXACT = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for(int i=1;i<POWERS_OF_TEN.length;i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10.0;
+    }
+
+    private DecimalParser() {
+    }
+
+    /**
+     * @return the number written between 'from' (inclusive) and 'to' (exclusive)
+     * @throws NumberFormatException if the range is not a number
+     */
+    public static double parse(CharSequence text, int from, int to){
+        int start = from;
+        int end   = to;
+        while(start < end && text.charAt(start) <= ' ') start++;
+        while(end > start && text.charAt(end-1) <= ' ') end--;
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')){
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long mantissa   = 0;
+        int exponent    = 0;
+        boolean digits  = false;
+        boolean exact   = true;
+        char c;
+        while(i < end && (c = text.charAt(i)) >= '0' && c <= '9'){
+            if (mantissa < MAX_EXACT) mantissa = mantissa * 10 + (c - '0');
+            else exact = false;
+            digits = true;
+            i++;
+        }
+        if (i < end && text.charAt(i) == '.'){
+            i++;
+            while(i < end && (c = text.charAt(i)) >= '0' && c <= '9'){
+                if (mantissa < MAX_EXACT){
+                    mantissa = mantissa * 10 + (c - '0');
+                    exponent--;
+                }else if (c != '0') exact = false;
+                digits = true;
+                i++;
+            }
+        }
+        if (digits && i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')){
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (text.charAt(i) == '-' || text.charAt(i) == '+')){
+                negativeExponent = text.charAt(i) == '-';
+                i++;
+            }
+            int value = 0;
+            boolean exponentDigits = false;
+            while(i < end && (c = text.charAt(i)) >= '0' && c <= '9'){
+                if (value < 10000) value = value * 10 + (c - '0');
+                exponentDigits = true;
+                i++;
+            }
+            if (!exponentDigits) digits = false;
+            exponent += negativeExponent? -value : value;
+        }
+
+        if (!digits || i != end || !exact || mantissa > MAX_EXACT || exponent < -22 || exponent > 22){
+            // special values (NaN, Infinity, hexadecimal), malformed numbers and those needing more precision
+            return Double.parseDouble(text.subSequence(from, to).toString());
+        }
+        double value = exponent >= 0? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative? -value : value;
+    }
+
+}
@@ -0,0 +1,320 @@
+package oeg.lstbs.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of remote files, so that corpora are downloaded once and then read from local disk.
+ *
+ * Files are stored by the SHA-256 of their URL: 'key'.data with the content and 'key'.meta with the url, the size and
+ * the SHA-256 of the content. Downloads are written to 'key'.part, and an interrupted one is resumed with a range
+ * request when the server supports it (and the file did not change, according to its ETag or Last-Modified). The
+ * checksum of the content is compared with the one announced by the server (Digest header), if any, and kept to
+ * validate the cached copy later ({@link #verify(String)}).
+ *
+ * The total size of the cache is bounded: the least recently read files are evicted when a new one exceeds it.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class DownloadCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DownloadCache.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int TIMEOUT = 60000;
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final ConcurrentHashMap<String,Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Cache in the directory given by the 'lstbs.cache.dir' property ('cache' by default), bounded by the
+     * 'lstbs.cache.size' property in bytes (100GB by default)
+     */
+    public DownloadCache() {
+        this(new File(System.getProperty("lstbs.cache.dir", "cache")), Long.getLong("lstbs.cache.size", 100L << 30));
+    }
+
+    /**
+     * @param directory folder of the cached files
+     * @param maxSize maximum number of bytes of the cached files
+     */
+    public DownloadCache(File directory, long maxSize) {
+        this.directory  = directory;
+        this.maxSize    = maxSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return a stream over the local copy of the url, downloaded first if it is not cached
+     */
+    public InputStream open(String url) throws IOException {
+        return new FileInputStream(get(url));
+    }
+
+    /**
+     * @return the local copy of the url, downloaded first if it is not cached
+     */
+    public File get(String url) throws IOException {
+        String key = key(url);
+        synchronized (locks.computeIfAbsent(key, k -> new Object())){
+            File data = dataFile(key);
+            if (isComplete(key)){
+                // the modification time is the last access, used to evict files
+                data.setLastModified(System.currentTimeMillis());
+                return data;
+            }
+            download(url, key, true);
+        }
+        evict(key);
+        return dataFile(key);
+    }
+
+    public boolean contains(String url){
+        return isComplete(key(url));
+    }
+
+    /**
+     * Compares the cached copy with the checksum computed when it was downloaded, and removes it if they differ
+     * @return true if the url is cached and valid
+     */
+    public boolean verify(String url) throws IOException {
+        String key = key(url);
+        synchronized (locks.computeIfAbsent(key, k -> new Object())){
+            if (!isComplete(key)) return false;
+            MessageDigest digest = sha256();
+            update(digest, dataFile(key));
+            if (hex(digest.digest()).equals(readMeta(key).getProperty("sha256"))) return true;
+            LOG.warn("Cached copy of " + url + " is corrupted");
+            removeFiles(key);
+            return false;
+        }
+    }
+
+    public void remove(String url){
+        String key = key(url);
+        synchronized (locks.computeIfAbsent(key, k -> new Object())){
+            removeFiles(key);
+            partFile(key).delete();
+        }
+    }
+
+    /**
+     * @return number of bytes of the cached files
+     */
+    public long size(){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".data"));
+        if (files == null) return 0;
+        return Arrays.stream(files).mapToLong(File::length).sum();
+    }
+
+    private void download(String url, String key, boolean resume) throws IOException {
+        directory.mkdirs();
+        File part           = partFile(key);
+        Properties previous = readMeta(key);
+        String validator    = previous == null? null : previous.getProperty("validator");
+        long offset         = (resume && part.exists() && validator != null)? part.length() : 0;
+        MessageDigest digest = sha256();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        if (offset > 0){
+            connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            connection.setRequestProperty("If-Range", validator);
+        }
+        try{
+            int status = connection.getResponseCode();
+            boolean append = offset > 0 && status == HttpURLConnection.HTTP_PARTIAL;
+            if (offset > 0 && !append && status != HttpURLConnection.HTTP_OK){
+                // e.g. range not satisfiable, the download starts again
+                connection.disconnect();
+                part.delete();
+                download(url, key, false);
+                return;
+            }
+            if (status != HttpURLConnection.HTTP_OK && !append) throw new IOException("Unexpected response " + status + " from " + url);
+            if (append){
+                LOG.info("Resuming download of " + url + " from byte " + offset);
+                update(digest, part);
+            }else offset = 0;
+
+            Properties meta = new Properties();
+            meta.setProperty("url", url);
+            String etag = connection.getHeaderField("ETag");
+            String lastModified = connection.getHeaderField("Last-Modified");
+            if (etag != null) meta.setProperty("validator", etag);
+            else if (lastModified != null) meta.setProperty("validator", lastModified);
+            writeMeta(key, meta);
+
+            long length = connection.getContentLengthLong();
+            long expected = length < 0? -1 : offset + length;
+            try(InputStream in = connection.getInputStream(); OutputStream out = new FileOutputStream(part, append)){
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while((read = in.read(buffer)) != -1){
+                    out.write(buffer, 0, read);
+                    digest.update(buffer, 0, read);
+                }
+            }
+            // the partial file is kept to resume the download
+            if (expected >= 0 && part.length() != expected) throw new IOException("Incomplete download of " + url + ": " + part.length() + " of " + expected + " bytes");
+
+            String checksum = hex(digest.digest());
+            String announced = announcedChecksum(connection);
+            if (announced != null && !announced.equalsIgnoreCase(checksum)){
+                part.delete();
+                metaFile(key).delete();
+                throw new IOException("Checksum of " + url + " is " + checksum + " but " + announced + " was expected");
+            }
+
+            File data = dataFile(key);
+            Files.move(part.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            meta.setProperty("length", String.valueOf(data.length()));
+            meta.setProperty("sha256", checksum);
+            writeMeta(key, meta);
+            LOG.info("Cached " + url + " (" + data.length() + " bytes) in " + data);
+        }finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Removes the least recently read files until the cache fits its maximum size. The file just read is kept
+     */
+    private synchronized void evict(String current){
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".data"));
+        if (files == null) return;
+        long total = Arrays.stream(files).mapToLong(File::length).sum();
+        if (total <= maxSize) return;
+        List<File> candidates = Arrays.asList(files);
+        candidates.sort(Comparator.comparingLong(File::lastModified));
+        for(File file : candidates){
+            if (total <= maxSize) break;
+            String key = file.getName().substring(0, file.getName().length() - ".data".length());
+            if (key.equals(current)) continue;
+            synchronized (locks.computeIfAbsent(key, k -> new Object())){
+                long length = file.length();
+                removeFiles(key);
+                total -= length;
+                LOG.info("Evicted " + file + " (" + length + " bytes) from cache");
+            }
+        }
+    }
+
+    private boolean isComplete(String key){
+        File data = dataFile(key);
+        if (!data.exists()) return false;
+        Properties meta = readMeta(key);
+        return meta != null && meta.getProperty("sha256") != null && String.valueOf(data.length()).equals(meta.getProperty("length"));
+    }
+
+    private void removeFiles(String key){
+        dataFile(key).delete();
+        metaFile(key).delete();
+    }
+
+    private Properties readMeta(String key){
+        File file = metaFile(key);
+        if (!file.exists()) return null;
+        Properties properties = new Properties();
+        try(InputStream in = new FileInputStream(file)){
+            properties.load(in);
+            return properties;
+        }catch (IOException e){
+            LOG.warn("Error reading " + file, e);
+            return null;
+        }
+    }
+
+    private void writeMeta(String key, Properties meta) throws IOException {
+        File tmp = new File(directory, key + ".meta.tmp");
+        try(OutputStream out = new FileOutputStream(tmp)){
+            meta.store(out, "cached download");
+        }
+        Files.move(tmp.toPath(), metaFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the SHA-256 announced by a 'Digest: sha-256=base64' header, in hexadecimal, or null
+     */
+    private static String announcedChecksum(HttpURLConnection connection){
+        String header = connection.getHeaderField("Digest");
+        if (header == null) return null;
+        for(String value : header.split(",")){
+            int separator = value.indexOf('=');
+            if (separator < 0 || !value.substring(0, separator).trim().equalsIgnoreCase("sha-256")) continue;
+            try{
+                return hex(Base64.getDecoder().decode(value.substring(separator + 1).trim()));
+            }catch (IllegalArgumentException e){
+                LOG.warn("Invalid digest: " + value);
+            }
+        }
+        return null;
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        try(InputStream in = new FileInputStream(file)){
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+        }
+    }
+
+    private static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String key(String url){
+        return hex(sha256().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String hex(byte[] bytes){
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for(byte b : bytes) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    private File dataFile(String key){
+        return new File(directory, key + ".data");
+    }
+
+    private File metaFile(String key){
+        return new File(directory, key + ".meta");
+    }
+
+    private File partFile(String key){
+        return new File(directory, key + ".part");
+    }
+
+}
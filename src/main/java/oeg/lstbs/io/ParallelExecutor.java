@@ -10,86 +10,474 @@ package oeg.lstbs.io;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created on 26/04/16:
  *
+ * Stage of parallel work on the shared {@link WorkScheduler}.
+ *
+ * Tasks wait in the stage queue and run on at most 'parallelism' workers of the scheduler. The queue is bounded: once
+ * 'parallelism + queueDepth' tasks are pending, {@link #submit(Runnable)} blocks the producer until one completes
+ * (backpressure), instead of running the task in the producer thread. Each task has a {@link CompletableFuture}, and
+ * waiting for the stage ({@link #awaitTermination(long, TimeUnit)}, {@link #waitFor()}, {@link #join()}) completes when
+ * its tasks do. A thread waiting for a stage runs the tasks still queued in it, so stages can be nested inside tasks of
+ * other stages without exhausting the workers.
+ *
+ * Stages created by {@link #io(String)} run on the {@link WorkScheduler#io()} scheduler (virtual threads on Java 21+),
+ * so thousands of tasks blocked on disk or network are cheap, while CPU-bound stages stay bounded by the processors.
+ *
  * @author cbadenes
  */
 public class ParallelExecutor {
 
     private static final Logger LOG = LoggerFactory.getLogger(ParallelExecutor.class);
 
-    ExecutorService pool;
+    private static final AtomicInteger STAGES = new AtomicInteger();
+
+    private final String name;
+
+    private final WorkScheduler scheduler;
+
+    private final int parallelism;
+
+    private final int queueDepth;
+
+    private final Semaphore capacity;
+
+    private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+
+    private final Set<CompletableFuture<Void>> unfinished = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger workers = new AtomicInteger();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // a lock instead of a monitor, so virtual threads waiting for the stage do not pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition idle = lock.newCondition();
+
+    private volatile boolean shutdown = false;
+
+    // metrics
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+    private final LongAdder runTime = new LongAdder();
+    private final AtomicLong maxWaitTime = new AtomicLong();
 
     public ParallelExecutor(){
-        int cpus = Runtime.getRuntime().availableProcessors();
-        int maxThreads = (cpus > 1)? cpus-1 : cpus;
-        pool = new ThreadPoolExecutor(
-                maxThreads, // core thread pool size
-                maxThreads, // maximum thread pool size
-                1, // time to wait before resizing pool
-                TimeUnit.MINUTES,
-                new ArrayBlockingQueue<Runnable>(maxThreads, true),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+        this(defaultParallelism());
     }
 
     public ParallelExecutor(int size){
-        pool = new ThreadPoolExecutor(
-                size, // core thread pool size
-                size, // maximum thread pool size
-                1, // time to wait before resizing pool
-                TimeUnit.MINUTES,
-                new ArrayBlockingQueue<Runnable>(size, true),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+        this("stage-" + STAGES.incrementAndGet(), size, size);
+    }
+
+    /**
+     * @param name name of the stage in logs and metrics
+     * @param parallelism maximum number of tasks running at the same time
+     * @param queueDepth maximum number of tasks waiting to run before producers are blocked
+     */
+    public ParallelExecutor(String name, int parallelism, int queueDepth){
+        this(WorkScheduler.get(), name, parallelism, queueDepth);
+    }
+
+    public ParallelExecutor(WorkScheduler scheduler, String name, int parallelism, int queueDepth){
+        this.scheduler      = scheduler;
+        this.name           = name;
+        this.parallelism    = Math.max(1, parallelism);
+        this.queueDepth     = Math.max(0, queueDepth);
+        this.capacity       = new Semaphore(this.parallelism + this.queueDepth);
+    }
+
+    /**
+     * @return stage for tasks that spend most of their time blocked on I/O, with up to 'lstbs.io.parallelism' tasks
+     * running at the same time (1024 on virtual threads, the size of the I/O pool otherwise)
+     */
+    public static ParallelExecutor io(String name){
+        WorkScheduler scheduler = WorkScheduler.io();
+        int parallelism = Integer.getInteger("lstbs.io.parallelism", scheduler.isVirtual()? 1024 : scheduler.getThreads());
+        return new ParallelExecutor(scheduler, name, parallelism, parallelism);
+    }
+
+    public static ParallelExecutor io(String name, int parallelism){
+        return new ParallelExecutor(WorkScheduler.io(), name, parallelism, parallelism);
+    }
+
+    private static int defaultParallelism(){
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return (cpus > 1)? cpus-1 : cpus;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
     }
 
-    public void submit(Runnable task){
-        pool.submit(task);
+    /**
+     * Queues the task, waiting while the stage is full
+     * @return completion of the task
+     */
+    public CompletableFuture<Void> submit(Runnable task){
+        if (shutdown) throw new RejectedExecutionException("Stage '" + name + "' does not accept more tasks");
+        acquire();
+        Task wrapper = new Task(task);
+        unfinished.add(wrapper.future);
+        pending.incrementAndGet();
+        queued.incrementAndGet();
+        queue.add(wrapper);
+        dispatch();
+        return wrapper.future;
     }
 
+    /**
+     * @return completion of all the tasks
+     */
+    public CompletableFuture<Void> submitAll(Collection<? extends Runnable> tasks){
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+        for(Runnable task : tasks){
+            futures.add(submit(task));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]));
+    }
 
+    /**
+     * @return completion of the tasks submitted so far
+     */
+    public CompletableFuture<Void> completion(){
+        return CompletableFuture.allOf(unfinished.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Stops accepting tasks. Queued tasks still run
+     */
     public void shutdown(){
-        pool.shutdown();
+        this.shutdown = true;
     }
 
-    public boolean awaitTermination(long time, TimeUnit unit) {
-        pool.shutdown();
-        try {
-            return pool.awaitTermination(time,unit);
-        } catch (InterruptedException e) {
-            LOG.debug("Interruption", e);
+    /**
+     * Stops accepting tasks and removes the queued ones. Running tasks are not interrupted
+     * @return number of tasks cancelled
+     */
+    public int cancel(){
+        this.shutdown = true;
+        int count = 0;
+        Task task;
+        while((task = queue.poll()) != null){
+            queued.decrementAndGet();
+            task.future.cancel(false);
+            task.finish();
+            count++;
         }
-        return true;
+        if (count > 0) LOG.debug(count + " tasks cancelled in stage '" + name + "'");
+        return count;
     }
 
+    /**
+     * Stops accepting tasks and waits for the submitted ones. The timeout is checked between the tasks run by the
+     * waiting thread
+     * @return false if they did not complete in time
+     */
+    public boolean awaitTermination(long time, TimeUnit unit) {
+        shutdown();
+        boolean terminated = await(unit.toNanos(time));
+        LOG.debug("Stage completed: " + getMetrics());
+        return terminated;
+    }
+
+    /**
+     * Waits for the tasks submitted so far
+     */
     public void waitFor() {
-        try {
-            pool.wait();
-        } catch (InterruptedException e) {
-            LOG.debug("Interruption", e);
-        }
+        await(Long.MAX_VALUE);
     }
 
     public void waitFor(long timeout) {
+        await(TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    public void waitFor(long timeout, int nanos) {
+        await(TimeUnit.MILLISECONDS.toNanos(timeout) + nanos);
+    }
+
+    /**
+     * Waits for the tasks submitted so far
+     * @throws RuntimeException the first error of a task, if any failed
+     */
+    public void join(){
+        waitFor();
+        Throwable error = failure.get();
+        if (error instanceof RuntimeException) throw (RuntimeException) error;
+        if (error instanceof Error) throw (Error) error;
+        if (error != null) throw new CompletionException("Task failed in stage '" + name + "'", error);
+    }
+
+    /**
+     * Waits for a task of this stage, running queued tasks meanwhile
+     * @return the result of the future
+     */
+    public <T> T join(CompletableFuture<T> future){
+        while(!future.isDone()){
+            if (runNext()) continue;
+            try {
+                return future.get(10, TimeUnit.MILLISECONDS);
+            } catch (java.util.concurrent.TimeoutException e) {
+                // queued tasks may have been added meanwhile
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted waiting for a task of stage '" + name + "'");
+            } catch (ExecutionException e) {
+                throw new CompletionException(e.getCause());
+            }
+        }
+        return future.join();
+    }
+
+    public Metrics getMetrics(){
+        return new Metrics(this);
+    }
+
+    private boolean await(long nanos){
+        long deadline = nanos == Long.MAX_VALUE? Long.MAX_VALUE : System.nanoTime() + nanos;
         try {
-            pool.wait(timeout);
+            while(pending.get() > 0){
+                // the waiting thread runs queued tasks instead of blocking a worker
+                if (runNext()) continue;
+                long remaining = deadline == Long.MAX_VALUE? Long.MAX_VALUE : deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                lock.lock();
+                try{
+                    if (pending.get() > 0) idle.await(Math.min(TimeUnit.MILLISECONDS.toNanos(10), remaining), TimeUnit.NANOSECONDS);
+                }finally {
+                    lock.unlock();
+                }
+            }
+            return true;
         } catch (InterruptedException e) {
             LOG.debug("Interruption", e);
+            Thread.currentThread().interrupt();
+            return pending.get() == 0;
         }
     }
 
-    public void waitFor(long timeout, int nanos) {
+    private void acquire(){
         try {
-            pool.wait(timeout,nanos);
+            while(!capacity.tryAcquire(10, TimeUnit.MILLISECONDS)){
+                // a worker must not block on a full stage, since the stage may need that worker to make progress
+                if (WorkScheduler.isWorker()) runNext();
+            }
         } catch (InterruptedException e) {
-            LOG.debug("Interruption", e);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted submitting to stage '" + name + "'", e);
         }
     }
 
+    private boolean runNext(){
+        Task task = queue.poll();
+        if (task == null) return false;
+        queued.decrementAndGet();
+        task.run();
+        return true;
+    }
+
+    private void dispatch(){
+        while(!queue.isEmpty()){
+            int current = workers.get();
+            if (current >= parallelism) return;
+            if (workers.compareAndSet(current, current + 1)){
+                scheduler.execute(this::drain);
+                return;
+            }
+        }
+    }
+
+    private void drain(){
+        while(true){
+            while(runNext());
+            workers.decrementAndGet();
+            // a task may have been queued after the queue was found empty
+            if (queue.isEmpty()) return;
+            int current = workers.get();
+            if (current >= parallelism || !workers.compareAndSet(current, current + 1)) return;
+        }
+    }
+
+    private class Task implements Runnable {
+
+        private final Runnable runnable;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final long submitted = System.nanoTime();
+
+        Task(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            if (future.isCancelled()){
+                // cancelled through its future, counted by finish()
+                finish();
+                return;
+            }
+            long start = System.nanoTime();
+            long wait  = start - submitted;
+            waitTime.add(wait);
+            maxWaitTime.accumulateAndGet(wait, Math::max);
+            active.incrementAndGet();
+            try{
+                runnable.run();
+                future.complete(null);
+                // a task cancelled while running is only counted as cancelled
+                if (!future.isCancelled()) completed.increment();
+            }catch (Throwable e){
+                if (!future.isCancelled()) failed.increment();
+                failure.compareAndSet(null, e);
+                LOG.error("Unexpected error in stage '" + name + "'", e);
+                future.completeExceptionally(e);
+            }finally {
+                active.decrementAndGet();
+                runTime.add(System.nanoTime() - start);
+                finish();
+            }
+        }
+
+        void finish(){
+            if (future.isCancelled()) cancelled.increment();
+            unfinished.remove(future);
+            capacity.release();
+            if (pending.decrementAndGet() == 0){
+                lock.lock();
+                try{
+                    idle.signalAll();
+                }finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the state of a stage
+     */
+    public static class Metrics {
+
+        private final String stage;
+        private final int queued;
+        private final int active;
+        private final long completed;
+        private final long failed;
+        private final long cancelled;
+        private final double meanWaitTime;
+        private final double maxWaitTime;
+        private final double meanRunTime;
+
+        private Metrics(ParallelExecutor executor) {
+            this.stage          = executor.name;
+            this.queued         = executor.queued.get();
+            this.active         = executor.active.get();
+            this.completed      = executor.completed.sum();
+            this.failed         = executor.failed.sum();
+            this.cancelled      = executor.cancelled.sum();
+            long runs           = completed + failed;
+            this.meanWaitTime   = runs == 0? 0.0 : executor.waitTime.sum() / 1e6 / runs;
+            this.maxWaitTime    = executor.maxWaitTime.get() / 1e6;
+            this.meanRunTime    = runs == 0? 0.0 : executor.runTime.sum() / 1e6 / runs;
+        }
+
+        public String getStage() {
+            return stage;
+        }
+
+        /**
+         * @return tasks waiting to run
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return tasks running
+         */
+        public int getActive() {
+            return active;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return mean time (msecs) from submission to start
+         */
+        public double getMeanWaitTime() {
+            return meanWaitTime;
+        }
+
+        public double getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        /**
+         * @return mean running time (msecs) of a task
+         */
+        public double getMeanRunTime() {
+            return meanRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Metrics{" +
+                    "stage='" + stage + '\'' +
+                    ", queued=" + queued +
+                    ", active=" + active +
+                    ", completed=" + completed +
+                    ", failed=" + failed +
+                    ", cancelled=" + cancelled +
+                    ", meanWaitTime=" + String.format("%.3f", meanWaitTime) + "ms" +
+                    ", maxWaitTime=" + String.format("%.3f", maxWaitTime) + "ms" +
+                    ", meanRunTime=" + String.format("%.3f", meanRunTime) + "ms" +
+                    '}';
+        }
+    }
 
 }
@@ -5,7 +5,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URL;
-import java.util.zip.GZIPInputStream;
 
 /**
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
@@ -15,6 +14,18 @@ public class ReaderUtils {
 
     private static final Logger LOG = LoggerFactory.getLogger(ReaderUtils.class);
 
+    private static volatile DownloadCache cache = new DownloadCache();
+
+    /**
+     * @param downloadCache cache of remote files, or null to read them directly from the network
+     */
+    public static void setCache(DownloadCache downloadCache){
+        cache = downloadCache;
+    }
+
+    public static DownloadCache getCache(){
+        return cache;
+    }
 
     public static BufferedReader from(String path) throws IOException {
 
@@ -25,9 +36,12 @@ public class ReaderUtils {
 
         InputStreamReader inputStreamReader;
 
-        InputStream inputStream = path.startsWith("http")? new URL(path).openStream() : new FileInputStream(path);
+        // remote files are read from their local copy, downloaded the first time
+        DownloadCache downloadCache = cache;
+        InputStream inputStream = !path.startsWith("http")? new FileInputStream(path) : downloadCache != null? downloadCache.open(path) : new URL(path).openStream();
 
-        inputStreamReader = gzip? new InputStreamReader(new GZIPInputStream(inputStream)) : new InputStreamReader(inputStream);
+        // blocked gzip (see WriterUtils) is inflated in parallel
+        inputStreamReader = gzip? new InputStreamReader(BlockedGzipInputStream.open(inputStream)) : new InputStreamReader(inputStream);
 
         return new BufferedReader(inputStreamReader);
     }
@@ -0,0 +1,189 @@
+package oeg.lstbs.io;
+
+import com.google.common.primitives.Doubles;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fixed-layout binary codec for topic vectors.
+ *
+ * Layout (little-endian): magic (1 byte), version (1 byte), type (1 byte), reserved (1 byte), dimension (int32),
+ * followed by 'dimension' float32 or float64 values. Payloads written by {@link SerializationUtils} (Java
+ * serialization of a List of Double) are still accepted by the decode methods so existing indexes keep working.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class VectorCodec {
+
+    public static final int HEADER_SIZE = 8;
+
+    private static final byte MAGIC = (byte) 0x56;
+
+    private static final byte VERSION = 1;
+
+    private static final byte LEGACY_MAGIC_0 = (byte) 0xAC;
+
+    private static final byte LEGACY_MAGIC_1 = (byte) 0xED;
+
+    public enum Type {
+
+        FLOAT32((byte) 1, Float.BYTES),
+        FLOAT64((byte) 2, Double.BYTES);
+
+        private final byte code;
+        private final int bytes;
+
+        Type(byte code, int bytes) {
+            this.code = code;
+            this.bytes = bytes;
+        }
+
+        public byte getCode() {
+            return code;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+
+        public static Type from(byte code){
+            for(Type type : values()){
+                if (type.code == code) return type;
+            }
+            throw new IllegalArgumentException("Unknown vector type: " + code);
+        }
+    }
+
+    private final Type type;
+
+    public VectorCodec() {
+        this(Type.FLOAT64);
+    }
+
+    public VectorCodec(Type type) {
+        this.type = type;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public byte[] encode(List<Double> vector){
+        return encode(Doubles.toArray(vector));
+    }
+
+    public byte[] encode(double[] vector){
+        byte[] bytes = new byte[HEADER_SIZE + vector.length * type.getBytes()];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(type.getCode());
+        buffer.put((byte) 0);
+        buffer.putInt(vector.length);
+        if (type == Type.FLOAT64){
+            buffer.asDoubleBuffer().put(vector);
+        }else{
+            for(int i=0;i<vector.length;i++){
+                buffer.putFloat((float) vector[i]);
+            }
+        }
+        return bytes;
+    }
+
+    public static boolean isLegacy(byte[] bytes, int offset, int length){
+        return length > 1 && bytes[offset] == LEGACY_MAGIC_0 && bytes[offset+1] == LEGACY_MAGIC_1;
+    }
+
+    public static int dimension(byte[] bytes, int offset, int length){
+        if (isLegacy(bytes, offset, length)) return decode(bytes, offset, length).length;
+        checkHeader(bytes, offset, length);
+        return ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN).getInt(offset + 4);
+    }
+
+    public static double[] decode(byte[] bytes){
+        return decode(bytes, 0, bytes.length);
+    }
+
+    public static double[] decode(byte[] bytes, int offset, int length){
+        if (isLegacy(bytes, offset, length)){
+            byte[] payload = (offset == 0 && length == bytes.length)? bytes : Arrays.copyOfRange(bytes, offset, offset+length);
+            return Doubles.toArray((List<Double>) SerializationUtils.deserialize(payload));
+        }
+        double[] vector = new double[dimension(bytes, offset, length)];
+        decode(bytes, offset, length, vector);
+        return vector;
+    }
+
+    /**
+     * Decodes the vector into the given buffer, which must be at least as long as the encoded dimension
+     * @return dimension of the decoded vector
+     */
+    public static int decode(byte[] bytes, int offset, int length, double[] target){
+        if (isLegacy(bytes, offset, length)){
+            double[] vector = decode(bytes, offset, length);
+            System.arraycopy(vector, 0, target, 0, vector.length);
+            return vector.length;
+        }
+        checkHeader(bytes, offset, length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        Type type = Type.from(buffer.get(offset + 2));
+        int dimension = buffer.getInt(offset + 4);
+        if (length < HEADER_SIZE + dimension * type.getBytes()){
+            throw new IllegalArgumentException("Truncated vector: " + length + " bytes for " + dimension + " " + type + " values");
+        }
+        buffer.position(offset + HEADER_SIZE);
+        if (type == Type.FLOAT64){
+            buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(target, 0, dimension);
+        }else{
+            int base = offset + HEADER_SIZE;
+            for(int i=0;i<dimension;i++){
+                target[i] = buffer.getFloat(base + i * Float.BYTES);
+            }
+        }
+        return dimension;
+    }
+
+    /**
+     * Decodes the vector into the given single-precision buffer, which must be at least as long as the encoded dimension.
+     * FLOAT64 values are narrowed to float
+     * @return dimension of the decoded vector
+     */
+    public static int decode(byte[] bytes, int offset, int length, float[] target){
+        if (isLegacy(bytes, offset, length)){
+            double[] vector = decode(bytes, offset, length);
+            for(int i=0;i<vector.length;i++) target[i] = (float) vector[i];
+            return vector.length;
+        }
+        checkHeader(bytes, offset, length);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        Type type = Type.from(buffer.get(offset + 2));
+        int dimension = buffer.getInt(offset + 4);
+        if (length < HEADER_SIZE + dimension * type.getBytes()){
+            throw new IllegalArgumentException("Truncated vector: " + length + " bytes for " + dimension + " " + type + " values");
+        }
+        buffer.position(offset + HEADER_SIZE);
+        if (type == Type.FLOAT32){
+            buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(target, 0, dimension);
+        }else{
+            int base = offset + HEADER_SIZE;
+            for(int i=0;i<dimension;i++){
+                target[i] = (float) buffer.getDouble(base + i * Double.BYTES);
+            }
+        }
+        return dimension;
+    }
+
+    private static void checkHeader(byte[] bytes, int offset, int length){
+        if (length < HEADER_SIZE || bytes[offset] != MAGIC){
+            throw new IllegalArgumentException("Not an encoded vector");
+        }
+        if (bytes[offset+1] > VERSION){
+            throw new IllegalArgumentException("Unsupported vector codec version: " + bytes[offset+1]);
+        }
+    }
+
+}
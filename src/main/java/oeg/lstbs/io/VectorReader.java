@@ -1,16 +1,31 @@
 package oeg.lstbs.io;
 
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 /**
+ * Reads rows of 'id,value,value,...' in a pipeline: the calling thread only reads lines, and hands chunks of them to
+ * parser workers, which parse the values into reusable buffers ({@link DecimalParser}) and run the validation and the
+ * action. Chunks are recycled, so the number of lines in memory is bounded.
+ *
+ * Binary corpora ({@link BinaryCorpus}) are read in the same way, in blocks instead of lines.
+ *
+ * Vectors are delivered in any order by default. In ordered mode they are delivered in the order of the file (actions
+ * are then run one at a time, but parsing is still parallel).
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -18,31 +33,39 @@ public class VectorReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(VectorReader.class);
 
+    private static final int CHUNK_SIZE = 64;
+
     public static void from(String path, Integer offset, VectorAction action, VectorValidation predicate, Integer ratio, Integer max){
-        try{
-            BufferedReader reader = ReaderUtils.from(path);
-            String row;
-            AtomicInteger counter = new AtomicInteger();
-            AtomicInteger rowNumber = new AtomicInteger();
-            ParallelExecutor executor = new ParallelExecutor();
-            while((row = reader.readLine()) != null){
-                if (rowNumber.incrementAndGet() < offset) continue;
-                String[] values = row.split(",");
-                String dId = values[0];
-                List<Double> vector = Arrays.stream(values).skip(1).mapToDouble(v -> Double.valueOf(v)).boxed().collect(Collectors.toList());
-                if (!predicate.isValid(dId, vector)) continue;
-                executor.submit(() -> action.handle(dId,vector));
-                if (counter.incrementAndGet() % ratio == 0) LOG.debug(counter.get() + " vectors read" );
-                if ((max> 0) && (counter.get() >= max)) break;
-            }
-            executor.awaitTermination(1l, TimeUnit.HOURS);
-            reader.close();
-            LOG.debug(counter.get() + " vectors finally read" );
+        from(path, offset, action, predicate, ratio, max, false);
+    }
+
+    public static void from(String path, Integer offset, VectorAction action, VectorValidation predicate, Integer ratio, Integer max, boolean ordered){
+        // the predicate sees a view of the buffer, only accepted vectors are copied for the action
+        RawVectorValidation rawPredicate = (id, vector, length) -> predicate.isValid(id, Doubles.asList(vector).subList(0, length));
+        RawVectorAction rawAction = (id, vector, length) -> action.handle(id, Doubles.asList(Arrays.copyOf(vector, length)));
+        from(path, offset, rawAction, rawPredicate, ratio, max, workers(), ordered);
+    }
+
+    /**
+     * Reads a gzipped CSV file or, if the path has the {@link BinaryCorpus#EXTENSION} extension, a binary corpus
+     * @param offset rows numbered (from 1) below the offset are skipped (binary corpora seek to it)
+     * @param ratio number of vectors between progress messages
+     * @param max maximum number of accepted vectors, or 0 to read all of them
+     * @param workers number of parser threads
+     * @param ordered deliver vectors in the order of the file
+     */
+    public static void from(String path, Integer offset, RawVectorAction action, RawVectorValidation predicate, Integer ratio, Integer max, int workers, boolean ordered){
+        try(Source source = BinaryCorpus.isBinary(path)? BinaryCorpus.open(path, offset) : new CsvSource(ReaderUtils.from(path), offset)){
+            new Pipeline(action, predicate, ratio, max, Math.max(1, workers), ordered).read(source);
         }catch (Exception e){
             throw new RuntimeException(e);
         }
     }
 
+    private static int workers(){
+        int cpus = Runtime.getRuntime().availableProcessors();
+        return (cpus > 1)? cpus-1 : cpus;
+    }
 
     public interface VectorAction {
         void handle(String id, List<Double> vector);
@@ -52,4 +75,240 @@ public class VectorReader {
         boolean isValid(String id, List<Double> vector);
     }
 
+    /**
+     * Action on the parsed values. The buffer is reused once the action returns, so it must be copied to be kept
+     */
+    public interface RawVectorAction {
+        void handle(String id, double[] vector, int length);
+    }
+
+    public interface RawVectorValidation {
+        boolean isValid(String id, double[] vector, int length);
+    }
+
+    /**
+     * Rows of a file, read in chunks by the reading thread and decoded by the workers
+     */
+    interface Source extends Closeable {
+
+        /**
+         * @return maximum number of rows of a chunk
+         */
+        int capacity();
+
+        /**
+         * Reads the next rows into the chunk (reading thread)
+         * @return false if there are no more rows
+         */
+        boolean fill(Chunk chunk) throws IOException;
+
+        /**
+         * Sets the ids and vectors of the rows read into the chunk (worker thread). Invalid rows have a null id
+         */
+        void decode(Chunk chunk);
+    }
+
+    private static class CsvSource implements Source {
+
+        private final BufferedReader reader;
+        private final int offset;
+        private int rowNumber = 0;
+
+        CsvSource(BufferedReader reader, int offset) {
+            this.reader = reader;
+            this.offset = offset;
+        }
+
+        @Override
+        public int capacity() {
+            return CHUNK_SIZE;
+        }
+
+        @Override
+        public boolean fill(Chunk chunk) throws IOException {
+            String row;
+            while(chunk.size < CHUNK_SIZE && (row = reader.readLine()) != null){
+                if (++rowNumber < offset) continue;
+                chunk.lines[chunk.size++] = row;
+            }
+            return chunk.size > 0;
+        }
+
+        @Override
+        public void decode(Chunk chunk) {
+            for(int i=0;i<chunk.size;i++){
+                try{
+                    parse(chunk, i, chunk.lines[i]);
+                }catch (NumberFormatException e){
+                    LOG.warn("Invalid row: '" + chunk.lines[i] + "'", e);
+                    chunk.ids[i] = null;
+                }
+            }
+        }
+
+        private void parse(Chunk chunk, int index, String row){
+            int comma = row.indexOf(',');
+            chunk.ids[index] = comma < 0? row : row.substring(0, comma);
+            int length = 0;
+            int position = comma < 0? row.length() : comma + 1;
+            while(position < row.length()){
+                int end = row.indexOf(',', position);
+                if (end < 0) end = row.length();
+                chunk.vector(index, length + 1)[length++] = DecimalParser.parse(row, position, end);
+                position = end + 1;
+            }
+            chunk.lengths[index] = length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class Pipeline {
+
+        private final RawVectorAction action;
+        private final RawVectorValidation predicate;
+        private final int ratio;
+        private final int max;
+        private final int workers;
+        private final boolean ordered;
+        private final ParallelExecutor executor;
+        private final AtomicInteger counter = new AtomicInteger();
+        private volatile boolean completed = false;
+        private BlockingQueue<Chunk> chunks;
+
+        // chunks decoded ahead of the next one to be delivered (ordered mode)
+        private final Map<Long,Chunk> decoded = new HashMap<>();
+        private long next = 0;
+
+        Pipeline(RawVectorAction action, RawVectorValidation predicate, int ratio, int max, int workers, boolean ordered) {
+            this.action     = action;
+            this.predicate  = predicate;
+            this.ratio      = Math.max(1, ratio);
+            this.max        = max;
+            this.workers    = workers;
+            this.ordered    = ordered;
+            this.executor   = new ParallelExecutor(workers);
+        }
+
+        void read(Source source) throws Exception {
+            // running, queued, and being filled
+            int size        = 2 * workers + 2;
+            this.chunks     = new ArrayBlockingQueue<>(size);
+            for(int i=0;i<size;i++) chunks.add(new Chunk(source.capacity()));
+
+            long sequence   = 0;
+            Chunk chunk     = chunks.take();
+            while(!completed && source.fill(chunk)){
+                submit(source, chunk, sequence++);
+                chunk = chunks.take();
+            }
+            executor.shutdown();
+            // rethrows the first error of a worker, so a failed read is never taken for a complete one
+            executor.join();
+            LOG.debug(counter.get() + " vectors finally read" );
+        }
+
+        private void submit(Source source, Chunk chunk, long sequence){
+            chunk.sequence = sequence;
+            executor.submit(() -> {
+                try{
+                    source.decode(chunk);
+                }catch (RuntimeException e){
+                    // stops reading, the chunk is returned so the reading thread is not left waiting for one
+                    completed = true;
+                    recycle(chunk);
+                    throw e;
+                }
+                if (!ordered) deliver(chunk);
+                else{
+                    synchronized (decoded){
+                        decoded.put(chunk.sequence, chunk);
+                        Chunk current;
+                        while((current = decoded.remove(next)) != null){
+                            deliver(current);
+                            next++;
+                        }
+                    }
+                }
+            });
+        }
+
+        private void deliver(Chunk chunk){
+            try{
+                for(int i=0;i<chunk.size && !completed;i++){
+                    String id = chunk.ids[i];
+                    if (id == null) continue;
+                    double[] vector = chunk.vectors[i];
+                    int length = chunk.lengths[i];
+                    if (!predicate.isValid(id, vector, length)) continue;
+                    int accepted = counter.incrementAndGet();
+                    if ((max > 0) && (accepted > max)){
+                        completed = true;
+                        break;
+                    }
+                    if ((max > 0) && (accepted == max)) completed = true;
+                    action.handle(id, vector, length);
+                    if (accepted % ratio == 0) LOG.debug(accepted + " vectors read" );
+                }
+            }catch (RuntimeException e){
+                completed = true;
+                throw e;
+            }finally {
+                recycle(chunk);
+            }
+        }
+
+        private void recycle(Chunk chunk){
+            chunk.clear();
+            chunks.add(chunk);
+        }
+    }
+
+    /**
+     * Rows in transit between the reading thread and the workers. Buffers are reused across chunks
+     */
+    static class Chunk {
+
+        final String[] lines;
+        final String[] ids;
+        final double[][] vectors;
+        final int[] lengths;
+        // raw content of binary sources
+        ByteBuffer buffer;
+        // rows of a binary block to skip
+        int first;
+        int size;
+        private long sequence;
+
+        Chunk(int capacity) {
+            this.lines      = new String[capacity];
+            this.ids        = new String[capacity];
+            this.vectors    = new double[capacity][];
+            this.lengths    = new int[capacity];
+            for(int i=0;i<capacity;i++) vectors[i] = new double[16];
+        }
+
+        /**
+         * @return the buffer of the row, with room for at least 'length' values
+         */
+        double[] vector(int index, int length){
+            double[] vector = vectors[index];
+            if (vector.length < length){
+                vector = Arrays.copyOf(vector, Math.max(length, vector.length * 2));
+                vectors[index] = vector;
+            }
+            return vector;
+        }
+
+        void clear(){
+            Arrays.fill(lines, 0, size, null);
+            Arrays.fill(ids, 0, size, null);
+            size  = 0;
+            first = 0;
+        }
+    }
+
 }
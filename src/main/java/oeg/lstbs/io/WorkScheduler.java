@@ -0,0 +1,175 @@
+package oeg.lstbs.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived pool of daemon threads shared by every {@link ParallelExecutor}.
+ *
+ * Executors do not own threads: they queue their tasks and borrow workers from the scheduler, up to their parallelism.
+ * The default scheduler has as many workers as processors, or the value of the 'lstbs.threads' property, and runs
+ * CPU-bound work. Work that mostly waits for disk or network (reading corpora, REST requests) runs on the {@link #io()}
+ * scheduler instead: one virtual thread per task when the JVM supports them (Java 21+, disabled by setting
+ * 'lstbs.virtual' to false), or a larger pool of 'lstbs.io.threads' platform threads otherwise.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class WorkScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkScheduler.class);
+
+    private static final WorkScheduler DEFAULT = new WorkScheduler("lstbs", Integer.getInteger("lstbs.threads", Runtime.getRuntime().availableProcessors()));
+
+    private static volatile WorkScheduler IO;
+
+    private final String name;
+
+    private final ExecutorService pool;
+
+    private final int threads;
+
+    private final boolean virtual;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    public WorkScheduler(String name, int threads) {
+        this.name       = name;
+        this.threads    = Math.max(1, threads);
+        this.virtual    = false;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(
+                this.threads,
+                this.threads,
+                1,
+                TimeUnit.MINUTES,
+                // executors bound their own tasks, this queue only holds one entry per borrowed worker
+                new LinkedBlockingQueue<>(),
+                runnable -> new Worker(runnable, name + "-worker-" + counter.incrementAndGet()));
+        LOG.debug("Scheduler '" + name + "' created with " + threads + " workers");
+    }
+
+    private WorkScheduler(String name, ExecutorService pool) {
+        this.name       = name;
+        this.threads    = Integer.MAX_VALUE;
+        this.virtual    = true;
+        this.pool       = pool;
+        LOG.debug("Scheduler '" + name + "' created with virtual threads");
+    }
+
+    public static WorkScheduler get(){
+        return DEFAULT;
+    }
+
+    /**
+     * @return scheduler for tasks that spend most of their time blocked on I/O
+     */
+    public static WorkScheduler io(){
+        if (IO == null){
+            synchronized (WorkScheduler.class){
+                if (IO == null) IO = createIO("lstbs-io");
+            }
+        }
+        return IO;
+    }
+
+    private static WorkScheduler createIO(String name){
+        if (Boolean.parseBoolean(System.getProperty("lstbs.virtual", "true"))){
+            ExecutorService pool = newVirtualThreadExecutor(name);
+            if (pool != null) return new WorkScheduler(name, pool);
+        }
+        return new WorkScheduler(name, Integer.getInteger("lstbs.io.threads", 8 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates an executor starting a named virtual thread per task. Sources are still built for Java 8, so the Java 21
+     * API is reached by reflection
+     * @return null if the running JVM does not support virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor(String name){
+        try{
+            Object builder      = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> type       = Class.forName("java.lang.Thread$Builder");
+            builder             = type.getMethod("name", String.class, long.class).invoke(builder, name + "-virtual-", 1L);
+            ThreadFactory factory = (ThreadFactory) type.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+        }catch (NoSuchMethodException | ClassNotFoundException e){
+            LOG.debug("Virtual threads are not available in Java " + System.getProperty("java.version"));
+            return null;
+        }catch (Exception e){
+            LOG.warn("Virtual threads can not be created, using platform threads", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the current thread is a worker of a scheduler
+     */
+    public static boolean isWorker(){
+        return Thread.currentThread() instanceof Worker;
+    }
+
+    public void execute(Runnable task){
+        pool.execute(() -> {
+            active.incrementAndGet();
+            try{
+                task.run();
+            }finally {
+                active.decrementAndGet();
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if every task runs on its own virtual thread
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * @return maximum number of tasks running at the same time (Integer.MAX_VALUE on virtual threads)
+     */
+    public int getThreads(){
+        return threads;
+    }
+
+    public int getActiveCount(){
+        return active.get();
+    }
+
+    public int getQueueSize(){
+        return (pool instanceof ThreadPoolExecutor)? ((ThreadPoolExecutor) pool).getQueue().size() : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkScheduler{" +
+                "name='" + name + '\'' +
+                ", threads=" + (virtual? "virtual" : String.valueOf(threads)) +
+                ", active=" + getActiveCount() +
+                ", queued=" + getQueueSize() +
+                '}';
+    }
+
+    private static class Worker extends Thread {
+
+        Worker(Runnable runnable, String name) {
+            super(runnable, name);
+            setDaemon(true);
+        }
+    }
+
+}
@@ -4,9 +4,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.zip.GZIPOutputStream;
 
 /**
+ * Gzip files are written as blocked gzip ({@link BlockedGzipOutputStream}), compressed and later inflated in parallel.
+ *
  * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
  */
 
@@ -18,7 +19,21 @@ public class WriterUtils {
         File out = new File(path);
         if (out.exists()) out.delete();
         else out.getParentFile().mkdirs();
-        return path.toLowerCase().contains("gzip") ? new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(path)))) : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
+        return path.toLowerCase().contains("gzip") ? new BufferedWriter(new OutputStreamWriter(new BlockedGzipOutputStream(new FileOutputStream(path)))) : new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path)));
+    }
+
+    /**
+     * Rewrites a gzip file (e.g. a corpus) as blocked gzip, which {@link ReaderUtils} inflates in parallel
+     */
+    public static void recompress(String source, String target) throws IOException {
+        File out = new File(target);
+        if (out.getAbsoluteFile().getParentFile() != null) out.getAbsoluteFile().getParentFile().mkdirs();
+        try(InputStream in = BlockedGzipInputStream.open(new FileInputStream(source)); OutputStream output = new BlockedGzipOutputStream(new FileOutputStream(out))){
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while((read = in.read(buffer)) != -1) output.write(buffer, 0, read);
+        }
+        LOG.info("Recompressed " + source + " to " + target + " (" + out.length() + " bytes)");
     }
 
 }
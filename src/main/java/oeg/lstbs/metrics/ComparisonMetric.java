@@ -12,4 +12,45 @@ public interface ComparisonMetric {
     Double distance(List<Double> v1, List<Double> v2);
 
     Double similarity(List<Double> v1, List<Double> v2);
+
+    /**
+     * Allocation-free distance between two vectors stored in (possibly shared) buffers
+     * @param v1 buffer holding the first vector
+     * @param o1 offset of the first vector in its buffer
+     * @param v2 buffer holding the second vector
+     * @param o2 offset of the second vector in its buffer
+     * @param length dimension of both vectors
+     * @return distance value
+     */
+    double distance(double[] v1, int o1, double[] v2, int o2, int length);
+
+    double distance(float[] v1, int o1, float[] v2, int o2, int length);
+
+    default double similarity(double[] v1, int o1, double[] v2, int o2, int length){
+        return 1-distance(v1, o1, v2, o2, length);
+    }
+
+    default double similarity(float[] v1, int o1, float[] v2, int o2, int length){
+        return 1-distance(v1, o1, v2, o2, length);
+    }
+
+    default double distance(double[] v1, double[] v2){
+        assert (v1.length == v2.length);
+        return distance(v1, 0, v2, 0, v1.length);
+    }
+
+    default double distance(float[] v1, float[] v2){
+        assert (v1.length == v2.length);
+        return distance(v1, 0, v2, 0, v1.length);
+    }
+
+    default double similarity(double[] v1, double[] v2){
+        assert (v1.length == v2.length);
+        return similarity(v1, 0, v2, 0, v1.length);
+    }
+
+    default double similarity(float[] v1, float[] v2){
+        assert (v1.length == v2.length);
+        return similarity(v1, 0, v2, 0, v1.length);
+    }
 }
@@ -1,5 +1,6 @@
 package oeg.lstbs.metrics;
 
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +14,8 @@ public class Hellinger implements ComparisonMetric {
 
     private static final Logger LOG = LoggerFactory.getLogger(Hellinger.class);
 
+    private static final double MULTIPLIER = 1.0 / Math.sqrt(2.0);
+
     @Override
     public String id() {
         return "Hellinger";
@@ -23,23 +26,31 @@ public class Hellinger implements ComparisonMetric {
 
         assert (v1.size() == v2.size());
 
-        double sum = 0;
-        for(int i=0; i<v1.size(); i++){
+        return distance(Doubles.toArray(v1), Doubles.toArray(v2));
+    }
 
-            double sqrtv1 = Math.sqrt(v1.get(i));
-            double sqrtv2 = Math.sqrt(v2.get(i));
+    @Override
+    public Double similarity(List<Double> v1, List<Double> v2) {
+        return 1-distance(v1,v2);
+    }
 
-            double pow2 = Math.pow(sqrtv1 - sqrtv2, 2.0);
-            sum += pow2;
+    @Override
+    public double distance(double[] v1, int o1, double[] v2, int o2, int length) {
+        double sum = 0;
+        for(int i=0; i<length; i++){
+            double diff = Math.sqrt(v1[o1+i]) - Math.sqrt(v2[o2+i]);
+            sum += diff * diff;
         }
-
-        double sqrtSum = Math.sqrt(sum);
-        double multiplier = 1.0 / Math.sqrt(2.0);
-        return multiplier*sqrtSum;
+        return MULTIPLIER * Math.sqrt(sum);
     }
 
     @Override
-    public Double similarity(List<Double> v1, List<Double> v2) {
-        return 1-distance(v1,v2);
+    public double distance(float[] v1, int o1, float[] v2, int o2, int length) {
+        double sum = 0;
+        for(int i=0; i<length; i++){
+            double diff = Math.sqrt(v1[o1+i]) - Math.sqrt(v2[o2+i]);
+            sum += diff * diff;
+        }
+        return MULTIPLIER * Math.sqrt(sum);
     }
 }
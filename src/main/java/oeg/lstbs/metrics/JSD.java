@@ -1,11 +1,9 @@
 package oeg.lstbs.metrics;
 
-import cc.mallet.util.Maths;
 import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -16,6 +14,7 @@ public class JSD implements ComparisonMetric {
 
     private static final Logger LOG = LoggerFactory.getLogger(JSD.class);
 
+    private static final double LOG2 = Math.log(2);
 
     @Override
     public String id() {
@@ -26,24 +25,57 @@ public class JSD implements ComparisonMetric {
     public Double distance(List<Double> v1, List<Double> v2) {
         assert (v1.size() == v2.size());
 
-        List<Double> avg = new ArrayList<>();
-        for(int i=0;i<v1.size();i++){
-            Double pq = v1.get(i) + v2.get(i);
-            Double pq_2 = pq / 2.0;
-            avg.add(pq_2);
-        }
-
-        return (0.5 * new KL().distance(v1,avg)) + (0.5 * new KL().distance(v2, avg));
+        return distance(Doubles.toArray(v1), Doubles.toArray(v2));
     }
 
     @Override
     public Double similarity(List<Double> v1, List<Double> v2) {
-        return 1-divergence(v1,v2);
+        assert (v1.size() == v2.size());
+
+        return similarity(Doubles.toArray(v1), Doubles.toArray(v2));
     }
 
-    private double divergence(List<Double> v1, List<Double> v2) {
-        return Maths.jensenShannonDivergence(Doubles.toArray(v1),Doubles.toArray(v2));
+    /**
+     * Jensen-Shannon divergence (natural logarithm): 0.5 * KL(p,m) + 0.5 * KL(q,m) with m = (p+q)/2,
+     * computed in a single pass without materializing the average distribution.
+     */
+    @Override
+    public double distance(double[] v1, int o1, double[] v2, int o2, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double p = v1[o1+i];
+            double q = v2[o2+i];
+            double m = (p + q) / 2.0;
+            if (p != 0) sum += p * Math.log(p / m);
+            if (q != 0) sum += q * Math.log(q / m);
+        }
+        return 0.5 * sum;
+    }
 
+    @Override
+    public double distance(float[] v1, int o1, float[] v2, int o2, int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double p = v1[o1+i];
+            double q = v2[o2+i];
+            double m = (p + q) / 2.0;
+            if (p != 0) sum += p * Math.log(p / m);
+            if (q != 0) sum += q * Math.log(q / m);
+        }
+        return 0.5 * sum;
+    }
+
+    /**
+     * Similarity is based on the divergence in bits (same as Mallet's Maths.jensenShannonDivergence)
+     */
+    @Override
+    public double similarity(double[] v1, int o1, double[] v2, int o2, int length) {
+        return 1-(distance(v1, o1, v2, o2, length) / LOG2);
+    }
+
+    @Override
+    public double similarity(float[] v1, int o1, float[] v2, int o2, int length) {
+        return 1-(distance(v1, o1, v2, o2, length) / LOG2);
     }
 
     public static void main(String[] args) {
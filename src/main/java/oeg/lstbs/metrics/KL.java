@@ -1,5 +1,6 @@
 package oeg.lstbs.metrics;
 
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,22 +24,46 @@ public class KL implements ComparisonMetric {
 
         assert (v1.size() == v2.size());
 
+        return distance(Doubles.toArray(v1), Doubles.toArray(v2));
+
+    }
+
+    @Override
+    public Double similarity(List<Double> v1, List<Double> v2) {
+        return 1-distance(v1,v2);
+    }
+
+    @Override
+    public double distance(double[] v1, int o1, double[] v2, int o2, int length) {
         double klDiv = 0.0;
-        for (int i = 0; i < v1.size(); ++i) {
-            if (v1.get(i) == 0) {
+        for (int i = 0; i < length; ++i) {
+            double p = v1[o1+i];
+            if (p == 0) {
                 continue;
             }
-            if (v2.get(i) == 0) {
+            double q = v2[o2+i];
+            if (q == 0) {
                 return Double.POSITIVE_INFINITY;
             }
-            klDiv += v1.get(i) * Math.log(v1.get(i)/ v2.get(i));
+            klDiv += p * Math.log(p / q);
         }
         return klDiv; // moved this division out of the loop -DM
-
     }
 
     @Override
-    public Double similarity(List<Double> v1, List<Double> v2) {
-        return 1-distance(v1,v2);
+    public double distance(float[] v1, int o1, float[] v2, int o2, int length) {
+        double klDiv = 0.0;
+        for (int i = 0; i < length; ++i) {
+            double p = v1[o1+i];
+            if (p == 0) {
+                continue;
+            }
+            double q = v2[o2+i];
+            if (q == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            klDiv += p * Math.log(p / q);
+        }
+        return klDiv;
     }
 }
@@ -13,6 +13,8 @@ public class S2JSD implements ComparisonMetric {
 
     private static final Logger LOG = LoggerFactory.getLogger(S2JSD.class);
 
+    private final JSD jsd = new JSD();
+
     @Override
     public String id() {
         return "S2JSD";
@@ -20,11 +22,21 @@ public class S2JSD implements ComparisonMetric {
 
     @Override
     public Double distance(List<Double> v1, List<Double> v2) {
-        return Math.sqrt(2.0 * new JSD().distance(v1,v2));
+        return Math.sqrt(2.0 * jsd.distance(v1,v2));
     }
 
     @Override
     public Double similarity(List<Double> v1, List<Double> v2) {
         return 1-distance(v1,v2);
     }
+
+    @Override
+    public double distance(double[] v1, int o1, double[] v2, int o2, int length) {
+        return Math.sqrt(2.0 * jsd.distance(v1, o1, v2, o2, length));
+    }
+
+    @Override
+    public double distance(float[] v1, int o1, float[] v2, int o2, int length) {
+        return Math.sqrt(2.0 * jsd.distance(v1, o1, v2, o2, length));
+    }
 }
@@ -0,0 +1,121 @@
+package oeg.lstbs.metrics;
+
+import com.google.common.primitives.Doubles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Hellinger distance over vectors already transformed to their element-wise square roots (a = √p, b = √q).
+ *
+ * In that space Hellinger is the euclidean distance scaled by 1/√2, and it is computed from a dot product:
+ * H² = (‖a‖² + ‖b‖² − 2a·b) / 2, which is 1 − a·b for topic distributions (‖a‖² = Σp = 1). The only square root
+ * left is the final one, so this metric returns the same values as {@link Hellinger} on the original distributions.
+ * Vectors that are not distributions need the non-normalized form, which also accumulates both norms.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class SqrtHellinger implements ComparisonMetric {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SqrtHellinger.class);
+
+    private final boolean normalized;
+
+    public SqrtHellinger() {
+        this(true);
+    }
+
+    /**
+     * @param normalized true if the original vectors sum 1, so the squared norms of the transformed ones are 1
+     */
+    public SqrtHellinger(boolean normalized) {
+        this.normalized = normalized;
+    }
+
+    @Override
+    public String id() {
+        return normalized? "SqrtHellinger" : "SqrtHellinger-unnormalized";
+    }
+
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    @Override
+    public Double distance(List<Double> v1, List<Double> v2) {
+
+        assert (v1.size() == v2.size());
+
+        return distance(Doubles.toArray(v1), Doubles.toArray(v2));
+    }
+
+    @Override
+    public Double similarity(List<Double> v1, List<Double> v2) {
+        return 1-distance(v1,v2);
+    }
+
+    @Override
+    public double distance(double[] v1, int o1, double[] v2, int o2, int length) {
+        if (normalized) return distance(dot(v1, o1, v2, o2, length));
+        double dot = 0;
+        double norm1 = 0;
+        double norm2 = 0;
+        for(int i=0; i<length; i++){
+            double a = v1[o1+i];
+            double b = v2[o2+i];
+            dot   += a * b;
+            norm1 += a * a;
+            norm2 += b * b;
+        }
+        return distance(dot, norm1, norm2);
+    }
+
+    @Override
+    public double distance(float[] v1, int o1, float[] v2, int o2, int length) {
+        if (normalized) return distance(dot(v1, o1, v2, o2, length));
+        double dot = 0;
+        double norm1 = 0;
+        double norm2 = 0;
+        for(int i=0; i<length; i++){
+            double a = v1[o1+i];
+            double b = v2[o2+i];
+            dot   += a * b;
+            norm1 += a * a;
+            norm2 += b * b;
+        }
+        return distance(dot, norm1, norm2);
+    }
+
+    private static double dot(double[] v1, int o1, double[] v2, int o2, int length){
+        double dot = 0;
+        for(int i=0; i<length; i++) dot += v1[o1+i] * v2[o2+i];
+        return dot;
+    }
+
+    private static double dot(float[] v1, int o1, float[] v2, int o2, int length){
+        double dot = 0;
+        for(int i=0; i<length; i++) dot += (double) v1[o1+i] * v2[o2+i];
+        return dot;
+    }
+
+    private static double distance(double dot){
+        // rounding can leave a dot product slightly above 1 for identical vectors
+        return Math.sqrt(Math.max(0.0, 1 - dot));
+    }
+
+    private static double distance(double dot, double norm1, double norm2){
+        // rounding can leave a tiny negative value for identical vectors
+        return Math.sqrt(Math.max(0.0, (norm1 + norm2 - 2 * dot) / 2));
+    }
+
+    public static double[] transform(double[] vector){
+        double[] sqrt = new double[vector.length];
+        for(int i=0;i<vector.length;i++){
+            sqrt[i] = Math.sqrt(vector[i]);
+        }
+        return sqrt;
+    }
+
+}
@@ -33,7 +33,7 @@ public class IndexBuilder {
         createBy("threshold-based", new ThresholdHHM(DEPTH));
 
         // create centroid-based lucene index
-        createBy("centroid-based", new CentroidHHM(DEPTH,1000));
+        createBy("centroid-based", new CentroidHHM(DEPTH));
 
         // create density-based lucene index
         createBy("density-based", new DensityHHM(DEPTH));
@@ -43,7 +43,7 @@ public class IndexBuilder {
     private void createBy(String repId, HierarchicalHashMethod method){
         LOG.info("Creating index for " + repId + " hash algorithm");
         Repository repository = new Repository(repId);
-        VectorReader.VectorAction action = (id, vector) -> repository.add(id, method.hash(vector),vector);
+        VectorReader.VectorAction action = (id, vector) -> repository.add(id, method.encode(vector), vector);
         VectorReader.VectorValidation predicate = (id, vector) -> true;
         VectorReader.from(CORPUS, 0, action, predicate,  Double.valueOf(Math.ceil(Double.valueOf(MAX) / 100.0)).intValue(), MAX);
         repository.close();
@@ -3,6 +3,7 @@ import oeg.lstbs.data.SimilarityResult;
 import oeg.lstbs.data.Stats;
 import oeg.lstbs.hash.CentroidHHM;
 import oeg.lstbs.hash.DensityHHM;
+import oeg.lstbs.hash.HashCode;
 import oeg.lstbs.hash.HierarchicalHashMethod;
 import oeg.lstbs.hash.ThresholdHHM;
 import oeg.lstbs.io.ParallelExecutor;
@@ -51,7 +52,7 @@ public class SimilarityExperiment {
     @Test
     public void exploreByCentroid(){
 
-        exploreBy(IndexBuilder.CORPUS,new Repository("centroid-based"), new CentroidHHM(IndexBuilder.DEPTH,1000));
+        exploreBy(IndexBuilder.CORPUS,new Repository("centroid-based"), new CentroidHHM(IndexBuilder.DEPTH));
     }
 
     @Test
@@ -128,7 +129,7 @@ public class SimilarityExperiment {
 
     private void evaluate(Repository repository, List<Double> vector, HierarchicalHashMethod method){
         Map<String,Double> simDocs = repository.getSimilarTo(vector, MAX_RELEVANT, new JSD());
-        Map<Integer, List<String>> hash = method.hash(vector);
+        HashCode hash = method.encode(vector);
         Map<String,Double> relDocs = repository.getSimilarTo(hash, MAX_RELEVANT*2);
 
         SimilarityResult simResult = new SimilarityResult(simDocs, relDocs);
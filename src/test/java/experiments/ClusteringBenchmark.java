@@ -0,0 +1,99 @@
+package experiments;
+
+import oeg.lstbs.data.TopicPoint;
+import oeg.lstbs.hash.DBSCAN1D;
+import oeg.lstbs.hash.KMeans1D;
+import org.apache.commons.math3.ml.clustering.CentroidCluster;
+import org.apache.commons.math3.ml.clustering.KMeansPlusPlusClusterer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the exact one-dimensional k-means used by the centroid-based hashing ({@link KMeans1D}) with the
+ * KMeans++ clustering it replaces, and times the sort-and-sweep DBSCAN of the density-based hashing ({@link DBSCAN1D}),
+ * on topic distributions of 100 to 2000 topics. Correctness is checked by KMeans1DTest and DBSCAN1DTest.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class ClusteringBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusteringBenchmark.class);
+
+    private static final int[] TOPICS = new int[]{100, 250, 500, 1000, 2000};
+
+    private static final int DOCUMENTS = 100;
+
+    private static final int CLUSTERS = 4;
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void benchmark(){
+        for(int topics : TOPICS){
+            List<double[]> vectors = new ArrayList<>();
+            for(int i=0;i<DOCUMENTS;i++) vectors.add(topicDistribution(topics));
+
+            // warm up
+            for(double[] vector : vectors) KMeans1D.cluster(vector, CLUSTERS);
+
+            double exactSS = 0.0;
+            long start = System.nanoTime();
+            for(double[] vector : vectors) exactSS += KMeans1D.cluster(vector, CLUSTERS).withinSS();
+            double exactTime = (System.nanoTime() - start) / 1e6;
+
+            double kmeansSS = 0.0;
+            start = System.nanoTime();
+            for(double[] vector : vectors) kmeansSS += kmeansPlusPlus(vector, CLUSTERS);
+            double kmeansTime = (System.nanoTime() - start) / 1e6;
+
+            LOG.info(topics + " topics: exact " + String.format("%.3f", exactTime/DOCUMENTS) + "ms/doc (withinSS=" + String.format("%.6f", exactSS)
+                    + "), kmeans++ " + String.format("%.3f", kmeansTime/DOCUMENTS) + "ms/doc (withinSS=" + String.format("%.6f", kmeansSS)
+                    + "), speedup x" + String.format("%.1f", kmeansTime/exactTime));
+            Assert.assertTrue(exactSS <= kmeansSS + 1e-9);
+        }
+    }
+
+    @Test
+    public void density(){
+        for(int topics : TOPICS){
+            List<double[]> vectors = new ArrayList<>();
+            for(int i=0;i<DOCUMENTS;i++) vectors.add(topicDistribution(topics));
+            long start = System.nanoTime();
+            for(double[] vector : vectors) DBSCAN1D.cluster(vector, DBSCAN1D.variance(vector)).getGroups();
+            LOG.info(topics + " topics: density " + String.format("%.3f", (System.nanoTime() - start) / 1e6 / DOCUMENTS) + "ms/doc");
+        }
+    }
+
+    private double kmeansPlusPlus(double[] vector, int k){
+        List<TopicPoint> points = new ArrayList<>(vector.length);
+        for(int i=0;i<vector.length;i++) points.add(new TopicPoint("" + i, vector[i]));
+        KMeansPlusPlusClusterer<TopicPoint> clusterer = new KMeansPlusPlusClusterer<>(k, 1000, (p1, p2) -> Math.abs(p1[0] - p2[0]));
+        double total = 0.0;
+        for(CentroidCluster<TopicPoint> cluster : clusterer.cluster(points)){
+            double center = cluster.getCenter().getPoint()[0];
+            for(TopicPoint point : cluster.getPoints()) total += (point.getScore() - center) * (point.getScore() - center);
+        }
+        return total;
+    }
+
+    /**
+     * @return a sparse distribution, as those inferred by topic models
+     */
+    private double[] topicDistribution(int topics){
+        double[] vector = new double[topics];
+        double total = 0.0;
+        for(int i=0;i<topics;i++){
+            vector[i] = Math.pow(-Math.log(1.0 - random.nextDouble()), 4);
+            total += vector[i];
+        }
+        for(int i=0;i<topics;i++) vector[i] /= total;
+        return vector;
+    }
+}
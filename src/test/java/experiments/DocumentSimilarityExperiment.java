@@ -3,6 +3,7 @@ package experiments;
 import oeg.lstbs.data.*;
 import oeg.lstbs.hash.CentroidHHM;
 import oeg.lstbs.hash.DensityHHM;
+import oeg.lstbs.hash.HashCode;
 import oeg.lstbs.hash.HierarchicalHashMethod;
 import oeg.lstbs.hash.ThresholdHHM;
 import oeg.lstbs.io.VectorReader;
@@ -123,7 +124,7 @@ import java.util.stream.Collectors;
                 performanceTable.get(depth).put(THRESHOLD_METHOD, thResults.get(PERFORMANCE));
 
                 // Centroid-based
-                HierarchicalHashMethod chhm                              = new CentroidHHM(depth,1000);
+                HierarchicalHashMethod chhm                              = new CentroidHHM(depth);
                 ConcurrentHashMap<String,DescriptiveStatistics> cResults     = new ConcurrentHashMap<>();
                 evaluateMethod(dataset, chhm, depth, cResults);
                 precisionTable.get(depth).put(CENTROID_METHOD, cResults.get(PRECISION));
@@ -204,7 +205,7 @@ import java.util.stream.Collectors;
     private void evaluateDocumentSimilarity(Repository repository, List<Double> vector, HierarchicalHashMethod method, Integer relevantSize, Map<String,DescriptiveStatistics> results){
         Map<String,Double> simDocs      = repository.getSimilarTo(vector, relevantSize, new JSD());
 //        Map<String,Double> simDocs      = repository.getSimilarToByThreshold(vector, 0.8, new JSD());
-        Map<Integer, List<String>> hash = method.hash(vector);
+        HashCode hash                   = method.encode(vector);
         Map<String,Double> relDocs      = repository.getSimilarTo(hash, relevantSize);
         Double hitsRatio                = repository.getRatioHitsTo(hash);
 
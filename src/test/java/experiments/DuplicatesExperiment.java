@@ -1,8 +1,10 @@
 package experiments;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Iterables;
 import oeg.lstbs.algorithms.*;
 import oeg.lstbs.data.*;
+import oeg.lstbs.hash.PStableHash;
 import oeg.lstbs.io.ParallelExecutor;
 import oeg.lstbs.io.ReaderUtils;
 import oeg.lstbs.io.WriterUtils;
@@ -47,6 +49,8 @@ public class DuplicatesExperiment {
     private int partitions;
     private double threshold;
     private ObjectMapper jsonMapper;
+    private List<int[]> lshConfigurations;
+    private List<String> lshTradeoff = new ArrayList<>();
 
     @Before
     public void setup() throws IOException {
@@ -56,6 +60,8 @@ public class DuplicatesExperiment {
         this.sampleSize     = 10000;
         this.partitions     = 1;
         this.threshold      = 0.95;
+        // tables (L) x projections (K)
+        this.lshConfigurations = Arrays.asList(new int[]{4,4}, new int[]{8,6}, new int[]{16,8}, new int[]{32,10});
         this.jsonMapper     = new ObjectMapper();
 
         long time           = System.currentTimeMillis();
@@ -100,7 +106,7 @@ public class DuplicatesExperiment {
                 // Algorithms
                 BruteForceAlgorithm bruteForceAlgorithm             = new BruteForceAlgorithm(threshold);
                 List<GroupsBasedAlgorithm> algorithms               = Arrays.asList(new DensityBasedAlgorithm(), new CentroidBasedAlgorithm(), new ThresholdBasedAlgorithm());
-
+                List<LSHAlgorithm> lshAlgorithms                    = lshConfigurations.stream().map(c -> new LSHAlgorithm(c[0], c[1], threshold)).collect(Collectors.toList());
 
                 LOG.info("Reading topic distributions in iteration '"+iteration+"' of corpus '"+corpusId+"' .. ");
                 ParallelExecutor exec1 = new ParallelExecutor();
@@ -120,6 +126,7 @@ public class DuplicatesExperiment {
                         try{
                             bruteForceAlgorithm.add(d1);
                             algorithms.forEach(a -> a.add(d1));
+                            lshAlgorithms.forEach(a -> a.add(d1));
                         }catch(Exception e){
                             LOG.error("Unexpected error",e);
                         }
@@ -134,6 +141,7 @@ public class DuplicatesExperiment {
 
                 bruteForceAlgorithm.commit();
                 algorithms.forEach(a -> a.commit());
+                lshAlgorithms.forEach(a -> a.commit());
 
                 for(ComparisonMetric metric: metrics){
 
@@ -168,7 +176,7 @@ public class DuplicatesExperiment {
 
                         for(Integer level: levels){
                             algorithm.setLevel(level);
-                            List<Evaluation> algorithmEvaluations = evaluateAlgorithm(algorithm, metric, duplicates, maxCounter, corpusId);
+                            List<Evaluation> algorithmEvaluations = evaluateAlgorithm(algorithm, algorithm.getName(), metric, duplicates, maxCounter, corpusId);
                             for(Evaluation eval : algorithmEvaluations){
                                 if (!partialEvaluations.containsKey(eval.getAlgorithm())){
                                     partialEvaluations.put(eval.getAlgorithm(),new ArrayList<>());
@@ -179,6 +187,28 @@ public class DuplicatesExperiment {
 
                     }
 
+                    for(LSHAlgorithm algorithm : lshAlgorithms){
+                        AtomicInteger dCounter = new AtomicInteger();
+                        Instant dS1 = Instant.now();
+                        List<Similarity> retrievedDocs = algorithm.findDuplicates(metric, dCounter);
+                        Instant dE1 = Instant.now();
+
+                        for(Evaluation eval : evaluate(algorithm.getName(), metric, duplicates, maxCounter, corpusId, retrievedDocs, dCounter, dS1, dE1)){
+                            if (!partialEvaluations.containsKey(eval.getAlgorithm())){
+                                partialEvaluations.put(eval.getAlgorithm(),new ArrayList<>());
+                            }
+                            partialEvaluations.get(eval.getAlgorithm()).add(eval);
+                        }
+
+                        // -> Recall vs candidates compared per document
+                        Set<String> found = retrievedDocs.stream().map(s -> s.getPair()).collect(Collectors.toSet());
+                        long hits = duplicates.stream().filter(s -> found.contains(s.getPair())).count();
+                        double recall = duplicates.isEmpty()? 1.0 : Double.valueOf(hits) / Double.valueOf(duplicates.size());
+                        double candidates = (2.0 * dCounter.get()) / Double.valueOf(counter.get());
+                        double expectedRecall = algorithm.getHash().recall(PStableHash.distanceOf(threshold));
+                        lshTradeoff.add(String.join("\t", corpusId, metric.id(), algorithm.getName(), String.valueOf(algorithm.getHash().getWidth()), String.valueOf(expectedRecall), String.valueOf(recall), String.valueOf(candidates)));
+                    }
+
                     for(String algorithm : partialEvaluations.keySet()){
 
 
@@ -210,6 +240,8 @@ public class DuplicatesExperiment {
                     }
 
                 }
+                bruteForceAlgorithm.close();
+                lshAlgorithms.forEach(a -> a.close());
             }
         }
 
@@ -224,14 +256,20 @@ public class DuplicatesExperiment {
                 createTable(tableName+"-recall@"+accuracy, results.get(tableName), algorithm -> algorithm.contains("@"+accuracy), eval -> String.valueOf(eval.getRecall()));
             }
         }
+
+        printTradeoff();
     }
 
 
-    private List<Evaluation> evaluateAlgorithm (GroupsBasedAlgorithm algorithm, ComparisonMetric metric, List<Similarity> relatedDocs, AtomicInteger maxCounter, String corpusId){
+    private List<Evaluation> evaluateAlgorithm (ExplorerAlgorithm algorithm, String name, ComparisonMetric metric, List<Similarity> relatedDocs, AtomicInteger maxCounter, String corpusId){
         AtomicInteger dCounter = new AtomicInteger();
         Instant dS1 = Instant.now();
         List<Similarity> retrievedDocs   = algorithm.findDuplicates(metric, dCounter);
         Instant dE1 = Instant.now();
+        return evaluate(name, metric, relatedDocs, maxCounter, corpusId, retrievedDocs, dCounter, dS1, dE1);
+    }
+
+    private List<Evaluation> evaluate (String name, ComparisonMetric metric, List<Similarity> relatedDocs, AtomicInteger maxCounter, String corpusId, List<Similarity> retrievedDocs, AtomicInteger dCounter, Instant dS1, Instant dE1){
 
         // -> Accuracies
         List<Evaluation> evaluations = new ArrayList<>();
@@ -247,7 +285,7 @@ public class DuplicatesExperiment {
                 evaluation.addResult(relevantList, retrieveList);
                 evaluation.setCorpus(StringUtils.substringBefore(corpusId,"_"));
                 evaluation.setModel(StringUtils.substringAfter(corpusId,"_"));
-                evaluation.setAlgorithm(algorithm.getName() + "@" + accuracy);
+                evaluation.setAlgorithm(name + "@" + accuracy);
                 evaluation.setMetric(metric.id());
                 evaluation.setAveragePrecision(AveragePrecision.from(relevantList, retrieveList));
                 evaluation.setEfficiency(1.0 - (Double.valueOf(dCounter.get()) / Double.valueOf(maxCounter.get())));
@@ -284,6 +322,18 @@ public class DuplicatesExperiment {
     }
 
 
+    private void printTradeoff() throws IOException {
+        String name = "lsh-tradeoff-" + String.valueOf(threshold).replace(".","_");
+        System.out.println("#"+name);
+        tableWriter.write("#"+name+"\n");
+        String header = String.join("\t", "corpus", "metric", "algorithm", "width", "expected-recall", "recall", "candidates-per-doc");
+        for(String row : Iterables.concat(Collections.singletonList(header), lshTradeoff)){
+            System.out.println(row);
+            tableWriter.write(row+"\n");
+        }
+    }
+
+
     private void printTable(String name, Map<Integer,List<String>> table) throws IOException {
         System.out.println("#"+name);
         tableWriter.write("#"+name+"\n");
@@ -45,7 +45,7 @@ import java.util.stream.Collectors;
     public void execute(){
 
 //        evaluateMethod(CORPUS, new ThresholdHHM(depth), depth);
-//        evaluateMethod(CORPUS, new CentroidHHM(depth,1000), depth);
+//        evaluateMethod(CORPUS, new CentroidHHM(depth), depth);
         evaluateMethod(CORPUS, new DensityHHM(depth), depth);
     }
 
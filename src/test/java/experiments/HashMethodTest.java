@@ -34,7 +34,7 @@ public class HashMethodTest {
     @Test
     public void centroidBased(){
         LOG.info("Centroid-based ");
-        Map<Integer, List<String>> hashcode = new CentroidHHM(relevanceLevel,1000).hash(topicDistribution);
+        Map<Integer, List<String>> hashcode = new CentroidHHM(relevanceLevel).hash(topicDistribution);
         hashcode.entrySet().forEach(entry -> LOG.info("Level"+entry.getKey() + ": " + entry.getValue()));
 
     }
@@ -103,6 +103,8 @@ public class SearchingExperiment {
             // Algorithms
             BruteForceAlgorithm bruteForceAlgorithm   = new BruteForceAlgorithm();
             List<GroupsBasedAlgorithm> algorithms     = Arrays.asList(new DensityBasedAlgorithm(), new CentroidBasedAlgorithm(), new ThresholdBasedAlgorithm());
+            Map<String,HnswAlgorithm> hnswAlgorithms  = metrics.stream().collect(Collectors.toMap(m -> m.id(), m -> new HnswAlgorithm(m, 16, 200, 100, 0.9, Paths.get("hnsw", corpusId + "-" + m.id() + ".graph").toFile())));
+            Map<String,IvfAlgorithm> ivfAlgorithms    = metrics.stream().collect(Collectors.toMap(m -> m.id(), m -> new IvfAlgorithm(m, 64, 8)));
 
             LOG.info("Creating training/test sets from corpus '"+corpusId+"' .. ");
 
@@ -120,6 +122,8 @@ public class SearchingExperiment {
                     try{
                         bruteForceAlgorithm.add(d1);
                         algorithms.forEach(a -> a.add(d1));
+                        hnswAlgorithms.values().forEach(a -> a.add(d1));
+                        ivfAlgorithms.values().forEach(a -> a.add(d1));
                     }catch(Exception e){
                         LOG.error("Unexpected error",e);
                     }
@@ -141,6 +145,8 @@ public class SearchingExperiment {
 
             bruteForceAlgorithm.commit();
             algorithms.forEach(a -> a.commit());
+            hnswAlgorithms.values().forEach(a -> a.commit());
+            ivfAlgorithms.values().forEach(a -> a.commit());
 
             Integer maxResults          = accuracies.stream().reduce((a, b) -> (a > b) ? a : b).get();
 
@@ -179,7 +185,7 @@ public class SearchingExperiment {
 
                             for(Integer level: levels){
                                 algorithm.setLevel(level);
-                                List<Evaluation> algorithmEvaluations = evaluateAlgorithm(algorithm, query, metric, maxResults, relatedDocs, maxCounter, corpusId);
+                                List<Evaluation> algorithmEvaluations = evaluateAlgorithm(algorithm, algorithm.getName(), query, metric, maxResults, relatedDocs, maxCounter, corpusId);
                                 for(Evaluation eval : algorithmEvaluations){
                                     if (!partialEvaluations.containsKey(eval.getAlgorithm())){
                                         partialEvaluations.put(eval.getAlgorithm(),new ArrayList<>());
@@ -190,6 +196,18 @@ public class SearchingExperiment {
 
 
                         }
+
+                        // HNSW graph built with the same metric: recall@k against brute-force and latency
+                        HnswAlgorithm hnswAlgorithm = hnswAlgorithms.get(metric.id());
+                        for(Evaluation eval : evaluateAlgorithm(hnswAlgorithm, "hnsw", query, metric, maxResults, relatedDocs, maxCounter, corpusId)){
+                            partialEvaluations.computeIfAbsent(eval.getAlgorithm(), k -> Collections.synchronizedList(new ArrayList<>())).add(eval);
+                        }
+
+                        // IVF lists trained with the same metric: only the 'nprobe' closest lists are compared
+                        IvfAlgorithm ivfAlgorithm = ivfAlgorithms.get(metric.id());
+                        for(Evaluation eval : evaluateAlgorithm(ivfAlgorithm, "ivf", query, metric, maxResults, relatedDocs, maxCounter, corpusId)){
+                            partialEvaluations.computeIfAbsent(eval.getAlgorithm(), k -> Collections.synchronizedList(new ArrayList<>())).add(eval);
+                        }
                     });
 
 
@@ -225,6 +243,8 @@ public class SearchingExperiment {
                 }
 
             }
+            bruteForceAlgorithm.close();
+            ivfAlgorithms.values().forEach(a -> a.close());
 
         }
 
@@ -243,7 +263,7 @@ public class SearchingExperiment {
     }
 
 
-    private List<Evaluation> evaluateAlgorithm (GroupsBasedAlgorithm algorithm, Document query, ComparisonMetric metric, Integer maxResults, List<Similarity> relatedDocs, AtomicInteger maxCounter, String corpusId){
+    private List<Evaluation> evaluateAlgorithm (ExplorerAlgorithm algorithm, String name, Document query, ComparisonMetric metric, Integer maxResults, List<Similarity> relatedDocs, AtomicInteger maxCounter, String corpusId){
         AtomicInteger dCounter = new AtomicInteger();
         Instant dS1 = Instant.now();
         List<Similarity> algorithmRelatedDocs   = algorithm.findSimilarTo(query, metric, relatedDocs.size()*5, dCounter);
@@ -263,7 +283,7 @@ public class SearchingExperiment {
                 evaluation.addResult(relevantList, retrieveList);
                 evaluation.setCorpus(StringUtils.substringBefore(corpusId,"_"));
                 evaluation.setModel(StringUtils.substringAfter(corpusId,"_"));
-                evaluation.setAlgorithm(algorithm.getName() + "@" + accuracy);
+                evaluation.setAlgorithm(name + "@" + accuracy);
                 evaluation.setMetric(metric.id());
                 evaluation.setAveragePrecision(AveragePrecision.from(relevantList, retrieveList));
                 evaluation.setEfficiency(1.0 - (Double.valueOf(dCounter.get()) / Double.valueOf(maxCounter.get())));
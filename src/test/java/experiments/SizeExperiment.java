@@ -3,6 +3,7 @@ package experiments;
 import oeg.lstbs.data.*;
 import oeg.lstbs.hash.CentroidHHM;
 import oeg.lstbs.hash.DensityHHM;
+import oeg.lstbs.hash.HashCode;
 import oeg.lstbs.hash.HierarchicalHashMethod;
 import oeg.lstbs.hash.ThresholdHHM;
 import oeg.lstbs.io.VectorReader;
@@ -71,7 +72,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
                 performanceTable.get(depth).put(THRESHOLD_METHOD, new Stats(thResults.get(PERFORMANCE)).getMean());
 
                 // Centroid-based
-                HierarchicalHashMethod chhm                         = new CentroidHHM(depth,1000);
+                HierarchicalHashMethod chhm                         = new CentroidHHM(depth);
                 ConcurrentHashMap<String,ConcurrentLinkedQueue<Double>> cResults     = new ConcurrentHashMap<>();
                 evaluateMethod(dataset, chhm, depth, cResults);
                 performanceTable.get(depth).put(CENTROID_METHOD, new Stats(cResults.get(PERFORMANCE)).getMean());
@@ -114,7 +115,10 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
     private void evaluateMethod(Dataset dataset, HierarchicalHashMethod method, Integer depth, Map<String,ConcurrentLinkedQueue<Double>> results){
         String repositoryName = dataset.getCorpus().getId()+"_"+depth+"_"+ StringUtils.substringAfterLast(method.getClass().getCanonicalName(),".");
-        Repository repository = new Repository(repositoryName);
+        // the index is built in bulk, or reused if it was already built from the same documents
+        Index index = new Index(repositoryName, dataset.getCorpus().getPath(), dataset.getIndexSize(), method);
+        Repository repository = index.getRepository();
+        if (index.getThroughput() > 0) LOG.info("Index built at " + String.format("%.1f", index.getThroughput()) + " docs/sec");
         LOG.info("Evaluating method " + method  + " in dataset: " + dataset + " with depth level equals to " + depth +  "...");
         VectorReader.VectorAction validateSimilarity = (docId, topicDistribution) -> evaluateDocumentSimilarity(repository, topicDistribution, method, dataset.getRelevantSize(), results);
         VectorReader.VectorValidation predicate = (id, td) -> true;
@@ -123,7 +127,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 
     private void evaluateDocumentSimilarity(Repository repository, List<Double> vector, HierarchicalHashMethod method, Integer relevantSize, Map<String,ConcurrentLinkedQueue<Double>> results){
-        Map<Integer, List<String>> hash = method.hash(vector);
+        HashCode hash = method.encode(vector);
         Double hitsRatio                = repository.getRatioHitsTo(hash);
         updateResult(results, PERFORMANCE, hitsRatio);
 
@@ -44,7 +44,7 @@ import java.util.stream.Collectors;
 
     List<HierarchicalHashMethod> algorithms = Arrays.asList(
 //            new ThresholdHHM(DEPTH_LEVEL),
-            new CentroidHHM(DEPTH_LEVEL,1000),
+            new CentroidHHM(DEPTH_LEVEL),
             new DensityHHM(DEPTH_LEVEL)
     );
 
@@ -54,18 +54,24 @@ import java.util.stream.Collectors;
 
 
         Repository textualRepository = new Repository(TEXTSET.getCorpus().getId());
-        CorpusReader.CorpusAction corpusAction = (id, name, txt) -> textualRepository.add(id, name, txt);
+        Repository.BulkLoader textualLoader = textualRepository.bulkLoader(1000);
+        CorpusReader.CorpusAction corpusAction = (id, name, txt) -> textualLoader.add(id, name, txt);
         CorpusReader.CorpusValidation corpusValidation = (id,name,txt) -> txt.split(" ").length > MIN_WORDS &&  txt.split(" ").length < MAX_WORDS && LanguageDetector.identifyLanguage(txt).equalsIgnoreCase("en");
         CorpusReader.from(TEXTSET.getCorpus().getPath(), 0, corpusAction, corpusValidation, Double.valueOf(Math.ceil(Double.valueOf(TEXTSET.getIndexSize()) / 100.0)).intValue(), TEXTSET.getIndexSize(), TEXTSET.getIdField(), TEXTSET.getNameField(), TEXTSET.getTxtField());
+        textualLoader.finish();
         LOG.info("Added " + textualRepository.getSize() + " documents");
 
 
         for(HierarchicalHashMethod algorithm : algorithms){
             LOG.info("Indexing documents by " + algorithm.id() + " algorithm");
             Repository hashRepository = new Repository(DATASET.getCorpus().getId()+"-"+algorithm.id());
-            VectorReader.VectorAction vectorAction = (id, vector) -> hashRepository.add(id, algorithm.hash(vector), vector);
+            Repository.BulkLoader loader = hashRepository.bulkLoader(1000);
+            VectorReader.VectorAction vectorAction = (id, vector) -> loader.add(id, algorithm.encode(vector), vector);
             VectorReader.VectorValidation vectorValidation = (id, vector) -> textualRepository.contains(id);
             VectorReader.from(DATASET.getCorpus().getPath(), 0, vectorAction, vectorValidation, Double.valueOf(Math.ceil(Double.valueOf(DATASET.getIndexSize()) / 100.0)).intValue(), DATASET.getIndexSize());
+            loader.finish();
+            hashRepository.close();
+            LOG.info("Indexed " + loader.getAdded() + " documents by " + algorithm.id() + " algorithm (" + String.format("%.1f", loader.getThroughput()) + " docs/sec)");
         }
 
         LOG.info("Indexing textual documents ");
@@ -0,0 +1,112 @@
+package oeg.lstbs.algorithms;
+
+import oeg.lstbs.data.Document;
+import oeg.lstbs.data.Similarity;
+import oeg.lstbs.metrics.ComparisonMetric;
+import oeg.lstbs.metrics.Hellinger;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Saves the graph on commit, reloads it from the same file and checks that searches do not change and that documents
+ * added again are not duplicated.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HnswAlgorithmTest {
+
+    private static final int DOCUMENTS = 500;
+
+    private static final int TOPICS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(1234);
+
+    private final ComparisonMetric metric = new Hellinger();
+
+    @Test
+    public void reloadsGraph(){
+        File graphFile = new File(folder.getRoot(), "hnsw.graph");
+        List<Document> documents = documents(DOCUMENTS, "doc");
+
+        HnswAlgorithm algorithm = new HnswAlgorithm(metric, 8, 100, 50, 0.9, graphFile);
+        documents.forEach(algorithm::add);
+        algorithm.commit();
+        Assert.assertTrue(graphFile.exists());
+
+        HnswAlgorithm reloaded = new HnswAlgorithm(metric, 8, 100, 50, 0.9, graphFile);
+        for(Document query : documents.subList(0, 50)){
+            List<Similarity> expected = algorithm.findSimilarTo(query, metric, 10, new AtomicInteger());
+            List<Similarity> found = reloaded.findSimilarTo(query, metric, 10, new AtomicInteger());
+            Assert.assertEquals(ids(expected), ids(found));
+            Assert.assertEquals(query.getId(), found.get(0).getD2().getId());
+            for(int i=0;i<found.size();i++) Assert.assertEquals(expected.get(i).getScore(), found.get(i).getScore(), 1e-12);
+        }
+    }
+
+    @Test
+    public void skipsDocumentsAlreadyInGraph(){
+        File graphFile = new File(folder.getRoot(), "hnsw.graph");
+        List<Document> documents = documents(DOCUMENTS, "doc");
+
+        HnswAlgorithm algorithm = new HnswAlgorithm(metric, 8, 100, 50, 0.9, graphFile);
+        documents.forEach(algorithm::add);
+        algorithm.commit();
+
+        // the corpus is added again to the reloaded graph, with a few new documents
+        HnswAlgorithm reloaded = new HnswAlgorithm(metric, 8, 100, 50, 0.9, graphFile);
+        documents.forEach(reloaded::add);
+        List<Document> added = documents(20, "new");
+        added.forEach(reloaded::add);
+        reloaded.commit();
+
+        HnswAlgorithm result = new HnswAlgorithm(metric, 8, 100, 50, 0.9, graphFile);
+        List<Document> all = new ArrayList<>(documents);
+        all.addAll(added);
+        for(Document query : all){
+            List<Similarity> found = result.findSimilarTo(query, metric, 5, new AtomicInteger());
+            List<String> ids = ids(found);
+            Assert.assertEquals("duplicated nodes in " + ids, ids.size(), new HashSet<>(ids).size());
+            Assert.assertEquals(query.getId(), ids.get(0));
+        }
+    }
+
+    private List<String> ids(List<Similarity> similarities){
+        List<String> ids = new ArrayList<>();
+        for(Similarity similarity : similarities) ids.add(similarity.getD2().getId());
+        return ids;
+    }
+
+    private List<Document> documents(int size, String prefix){
+        List<Document> documents = new ArrayList<>();
+        for(int i=0;i<size;i++) documents.add(new Document(prefix + i, topicDistribution()));
+        return documents;
+    }
+
+    /**
+     * @return a sparse distribution, as those inferred by topic models
+     */
+    private List<Double> topicDistribution(){
+        double[] vector = new double[TOPICS];
+        double total = 0.0;
+        for(int i=0;i<TOPICS;i++){
+            vector[i] = Math.pow(-Math.log(1.0 - random.nextDouble()), 4);
+            total += vector[i];
+        }
+        List<Double> distribution = new ArrayList<>(TOPICS);
+        for(int i=0;i<TOPICS;i++) distribution.add(vector[i] / total);
+        return distribution;
+    }
+}
@@ -0,0 +1,172 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.hash.HashCode;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares the pruned top-k of the query with an exhaustive scoring of the same (topic, level) pairs over a small index
+ * split in several segments.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class HierarchicalHashQueryTest {
+
+    private static final int DOCUMENTS = 600;
+
+    private static final int DEPTH = 3;
+
+    private static final int TOPICS = 30;
+
+    private final Random random = new Random(1234);
+
+    private RAMDirectory directory;
+
+    private IndexWriter writer;
+
+    private HashCode[] hashcodes;
+
+    @Before
+    public void setup() throws IOException {
+        directory   = new RAMDirectory();
+        writer      = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()).setMaxBufferedDocs(100));
+        hashcodes   = new HashCode[DOCUMENTS];
+        for(int i=0;i<DOCUMENTS;i++){
+            hashcodes[i] = randomHashCode();
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(i), Field.Store.YES));
+            for(int level=0;level<DEPTH;level++){
+                doc.add(new TextField(Repository.hashField(level), new TopicTokenStream(hashcodes[i].getTopics(level))));
+            }
+            writer.addDocument(doc);
+        }
+        writer.commit();
+    }
+
+    @After
+    public void close() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void topKMatchesExhaustiveScoring() throws IOException {
+        try(DirectoryReader reader = DirectoryReader.open(directory)){
+            Assert.assertTrue(reader.leaves().size() > 1);
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for(int q=0;q<50;q++){
+                HashCode query = randomHashCode();
+                for(int k : new int[]{1, 5, 20, DOCUMENTS}){
+                    check(searcher, query, k, new HashSet<>());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deletedDocumentsAreSkipped() throws IOException {
+        Set<String> deleted = new HashSet<>();
+        for(int i=0;i<DOCUMENTS;i+=3){
+            writer.deleteDocuments(new Term("id", String.valueOf(i)));
+            deleted.add(String.valueOf(i));
+        }
+        writer.commit();
+        try(DirectoryReader reader = DirectoryReader.open(directory)){
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for(int q=0;q<20;q++){
+                HashCode query = randomHashCode();
+                check(searcher, query, 10, deleted);
+
+                int matches = 0;
+                for(int i=0;i<DOCUMENTS;i++) if (!deleted.contains(String.valueOf(i)) && score(query, hashcodes[i]) > 0) matches++;
+                Assert.assertEquals(matches, searcher.count(new HierarchicalHashQuery(query)));
+            }
+        }
+    }
+
+    @Test
+    public void sameScoresAsStandardCollector() throws IOException {
+        try(DirectoryReader reader = DirectoryReader.open(directory)){
+            IndexSearcher searcher = new IndexSearcher(reader);
+            for(int q=0;q<20;q++){
+                HierarchicalHashQuery query = new HierarchicalHashQuery(randomHashCode());
+                ScoreDoc[] pruned = query.search(searcher, 10);
+                TopDocs standard = searcher.search(query, 10);
+                Assert.assertEquals(standard.scoreDocs.length, pruned.length);
+                for(int i=0;i<pruned.length;i++){
+                    Assert.assertEquals(standard.scoreDocs[i].score, pruned[i].score, 0.0f);
+                }
+            }
+        }
+    }
+
+    private void check(IndexSearcher searcher, HashCode query, int k, Set<String> deleted) throws IOException {
+        List<Double> expected = new ArrayList<>();
+        for(int i=0;i<DOCUMENTS;i++){
+            double score = score(query, hashcodes[i]);
+            if (score > 0 && !deleted.contains(String.valueOf(i))) expected.add(score);
+        }
+        expected.sort((a, b) -> -a.compareTo(b));
+        expected = expected.subList(0, Math.min(k, expected.size()));
+
+        ScoreDoc[] docs = new HierarchicalHashQuery(query).search(searcher, k);
+        Assert.assertEquals(expected.size(), docs.length);
+        for(int i=0;i<docs.length;i++){
+            Assert.assertEquals(expected.get(i), docs[i].score, 0.0);
+            String id = searcher.doc(docs[i].doc).get("id");
+            Assert.assertFalse(deleted.contains(id));
+            Assert.assertEquals(score(query, hashcodes[Integer.valueOf(id)]), docs[i].score, 0.0);
+        }
+    }
+
+    /**
+     * Every topic of a level of the query matched at the same or a deeper level of the document scores the square of
+     * the distance from that level to the depth
+     */
+    private static double score(HashCode query, HashCode document){
+        double score = 0.0;
+        for(int level=0;level<DEPTH;level++){
+            for(int topic : query.getTopics(level)){
+                for(int i=level;i<DEPTH;i++){
+                    if (Arrays.binarySearch(document.getTopics(i), topic) >= 0) score += (DEPTH - i) * (DEPTH - i);
+                }
+            }
+        }
+        return score;
+    }
+
+    private HashCode randomHashCode(){
+        int[][] levels = new int[DEPTH][];
+        for(int level=0;level<DEPTH;level++){
+            Set<Integer> topics = new HashSet<>();
+            int size = random.nextInt(5);
+            while(topics.size() < size) topics.add(random.nextInt(TOPICS));
+            levels[level] = topics.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new HashCode(levels);
+    }
+}
@@ -0,0 +1,150 @@
+package oeg.lstbs.data;
+
+import oeg.lstbs.hash.CentroidHHM;
+import oeg.lstbs.hash.HierarchicalHashMethod;
+import oeg.lstbs.io.VectorCodec;
+import oeg.lstbs.metrics.ComparisonMetric;
+import oeg.lstbs.metrics.Hellinger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Upserts and deletes documents, closes (compacting the vectors), reopens and checks that searches only return live
+ * documents, each with its last vector.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class RepositoryTest {
+
+    private static final int DOCUMENTS = 300;
+
+    private static final int TOPICS = 20;
+
+    private final Random random = new Random(1234);
+
+    private final HierarchicalHashMethod method = new CentroidHHM(3);
+
+    private final ComparisonMetric metric = new Hellinger();
+
+    // live documents and their last vector
+    private final Map<String,List<Double>> live = new HashMap<>();
+
+    private final Set<String> deleted = new HashSet<>();
+
+    private Repository repository;
+
+    @After
+    public void cleanup(){
+        if (repository != null) repository.delete();
+    }
+
+    @Test
+    public void upsertDeleteAndReopen(){
+        lifecycle(0);
+    }
+
+    @Test
+    public void upsertDeleteAndReopenQuantized(){
+        lifecycle(4);
+    }
+
+    private void lifecycle(int subspaces){
+        String id = "repository-test-" + subspaces;
+        RepositoryManifest manifest = new RepositoryManifest(method.id(), method.getDepth(), VectorCodec.Type.FLOAT64, VectorStore.Transform.NONE, subspaces, null);
+
+        repository = open(id, manifest, Repository.Mode.CREATE);
+        for(int i=0;i<DOCUMENTS;i++) upsert("doc" + i);
+        // replaced and deleted vectors are more than 20% of the store, so it is compacted on close
+        for(int i=0;i<50;i++) upsert("doc" + i);
+        for(int i=200;i<DOCUMENTS;i++) delete("doc" + i);
+        check();
+
+        repository.close();
+        Assert.assertEquals(manifest, Repository.manifestOf(id).get());
+
+        repository = open(id, manifest, Repository.Mode.APPEND);
+        check();
+        for(int i=50;i<150;i++) upsert("doc" + i);
+        for(int i=0;i<20;i++) delete("doc" + i);
+        for(int i=DOCUMENTS;i<DOCUMENTS+20;i++) upsert("doc" + i);
+        check();
+
+        repository.close();
+        repository = open(id, manifest, Repository.Mode.READ_ONLY);
+        check();
+    }
+
+    private Repository open(String id, RepositoryManifest manifest, Repository.Mode mode){
+        Repository repository = new Repository(id, manifest, mode);
+        repository.setHashMethod(method);
+        return repository;
+    }
+
+    private void upsert(String id){
+        List<Double> vector = topicDistribution();
+        repository.upsert(id, method.encode(vector), vector);
+        live.put(id, vector);
+        deleted.remove(id);
+    }
+
+    private void delete(String id){
+        repository.delete(id);
+        live.remove(id);
+        deleted.add(id);
+    }
+
+    private void check(){
+        Assert.assertEquals(live.size(), repository.getSize());
+        Assert.assertEquals(live.keySet(), new HashSet<>(repository.getIds()));
+
+        // every live document, and only them
+        Assert.assertEquals(live.keySet(), repository.getSimilarTo(topicDistribution(), live.size(), metric).keySet());
+
+        for(Map.Entry<String,List<Double>> document : live.entrySet()){
+            // the ordinal of the most similar vector must be the one of the document
+            Map<String,Double> similar = repository.getSimilarTo(document.getValue(), 5, metric);
+            assertLive(similar.keySet());
+            Assert.assertEquals(document.getKey(), best(similar));
+
+            Map<String,Double> found = repository.search(document.getValue(), 5, metric, 50).getDocuments();
+            assertLive(found.keySet());
+            Assert.assertEquals(document.getKey(), found.keySet().iterator().next());
+        }
+    }
+
+    private void assertLive(Set<String> ids){
+        for(String id : ids){
+            Assert.assertFalse("deleted document " + id + " returned", deleted.contains(id));
+            Assert.assertTrue("unknown document " + id + " returned", live.containsKey(id));
+        }
+    }
+
+    private String best(Map<String,Double> documents){
+        return documents.entrySet().stream().max(Map.Entry.comparingByValue()).get().getKey();
+    }
+
+    /**
+     * @return a sparse distribution, as those inferred by topic models
+     */
+    private List<Double> topicDistribution(){
+        double[] vector = new double[TOPICS];
+        double total = 0.0;
+        for(int i=0;i<TOPICS;i++){
+            vector[i] = Math.pow(-Math.log(1.0 - random.nextDouble()), 4);
+            total += vector[i];
+        }
+        List<Double> distribution = new ArrayList<>(TOPICS);
+        for(int i=0;i<TOPICS;i++) distribution.add(vector[i] / total);
+        return distribution;
+    }
+}
@@ -0,0 +1,127 @@
+package oeg.lstbs.hash;
+
+import oeg.lstbs.data.TopicPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the sort-and-sweep DBSCAN ({@link DBSCAN1D}) against pairwise neighbourhood expansion, and its single pass
+ * variance against the two-pass one.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class DBSCAN1DTest {
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void samePartitionAsPairwise(){
+        for(int topics : new int[]{2, 10, 100, 500, 1000}){
+            for(int i=0;i<10;i++){
+                double[] vector = topicDistribution(topics);
+                double eps = DBSCAN1D.variance(vector);
+
+                List<TopicPoint> groups = DBSCAN1D.cluster(vector, eps).getGroups();
+                List<String> expected = pairwiseDensity(vector, eps);
+                Assert.assertEquals(expected.size(), groups.size());
+                for(int j=0;j<groups.size();j++) Assert.assertEquals(expected.get(j), groups.get(j).getId());
+            }
+        }
+    }
+
+    @Test
+    public void variance(){
+        for(int topics : new int[]{2, 10, 100, 1000}){
+            double[] vector = topicDistribution(topics);
+            Assert.assertEquals(twoPassVariance(vector), DBSCAN1D.variance(vector), 1e-15);
+        }
+    }
+
+    @Test
+    public void empty(){
+        Assert.assertTrue(Double.isNaN(DBSCAN1D.variance(new double[0])));
+        Assert.assertEquals(0, DBSCAN1D.cluster(new double[0], 0.1).size());
+        Assert.assertEquals(0, DBSCAN1D.cluster(Collections.<Double>emptyList()).size());
+    }
+
+    @Test
+    public void single(){
+        Assert.assertEquals(0.0, DBSCAN1D.variance(new double[]{0.7}), 0.0);
+        Clusters1D clusters = DBSCAN1D.cluster(Collections.singletonList(0.7));
+        Assert.assertEquals(1, clusters.size());
+        Assert.assertEquals("t0", clusters.getGroups().get(0).getId());
+        Assert.assertEquals(0.7, clusters.mean(0), 0.0);
+    }
+
+    @Test
+    public void splitsOnGaps(){
+        // gaps of 0.1 are joined, the gap of 0.3 splits
+        Clusters1D clusters = DBSCAN1D.cluster(new double[]{0.0, 0.1, 0.2, 0.5, 0.6}, 0.15);
+        Assert.assertEquals(2, clusters.size());
+        Assert.assertEquals("t4_t3", clusters.getGroups().get(0).getId());
+        Assert.assertEquals("t2_t1_t0", clusters.getGroups().get(1).getId());
+    }
+
+    /**
+     * @return labels of the groups of a DBSCAN with no minimum of points, expanding neighbourhoods pairwise
+     */
+    private List<String> pairwiseDensity(double[] vector, double eps){
+        int n = vector.length;
+        int[] group = new int[n];
+        Arrays.fill(group, -1);
+        List<List<Integer>> groups = new ArrayList<>();
+        for(int i=0;i<n;i++){
+            if (group[i] >= 0) continue;
+            List<Integer> members = new ArrayList<>();
+            group[i] = groups.size();
+            members.add(i);
+            for(int m=0;m<members.size();m++){
+                for(int j=0;j<n;j++){
+                    if (group[j] < 0 && Math.abs(vector[members.get(m)] - vector[j]) <= eps){
+                        group[j] = groups.size();
+                        members.add(j);
+                    }
+                }
+            }
+            groups.add(members);
+        }
+        List<TopicPoint> points = new ArrayList<>();
+        for(List<Integer> members : groups){
+            double mean = members.stream().mapToDouble(m -> vector[m]).average().getAsDouble();
+            String label = members.stream().map(m -> "t" + m).sorted((x, y) -> -x.compareTo(y)).reduce((x, y) -> x + "_" + y).get();
+            points.add(new TopicPoint(label, mean));
+        }
+        points.sort((a, b) -> -a.getScore().compareTo(b.getScore()));
+        List<String> labels = new ArrayList<>();
+        for(TopicPoint point : points) labels.add(point.getId());
+        return labels;
+    }
+
+    private double twoPassVariance(double[] vector){
+        double mean = Arrays.stream(vector).average().getAsDouble();
+        double total = 0.0;
+        for(double value : vector) total += (value - mean) * (value - mean);
+        return total / (vector.length - 1);
+    }
+
+    /**
+     * @return a sparse distribution, as those inferred by topic models
+     */
+    private double[] topicDistribution(int topics){
+        double[] vector = new double[topics];
+        double total = 0.0;
+        for(int i=0;i<topics;i++){
+            vector[i] = Math.pow(-Math.log(1.0 - random.nextDouble()), 4);
+            total += vector[i];
+        }
+        for(int i=0;i<topics;i++) vector[i] /= total;
+        return vector;
+    }
+}
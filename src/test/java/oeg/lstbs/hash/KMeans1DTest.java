@@ -0,0 +1,106 @@
+package oeg.lstbs.hash;
+
+import oeg.lstbs.data.TopicPoint;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the exact one-dimensional k-means ({@link KMeans1D}) against a full O(k n^2) dynamic programming.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class KMeans1DTest {
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void optimal(){
+        for(int n : new int[]{1, 2, 3, 10, 50, 100}){
+            for(int k=1;k<=6;k++){
+                double[] vector = topicDistribution(n);
+                Clusters1D clusters = KMeans1D.cluster(vector, k);
+                Assert.assertEquals(Math.min(k, n), clusters.size());
+                Assert.assertEquals(bruteForce(vector, k), clusters.withinSS(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void ties(){
+        Clusters1D clusters = KMeans1D.cluster(new double[]{0.25, 0.25, 0.25, 0.25}, 3);
+        Assert.assertEquals(1, clusters.size());
+        Assert.assertEquals("t3_t2_t1_t0", clusters.getGroups().get(0).getId());
+
+        clusters = KMeans1D.cluster(new double[]{0.1, 0.4, 0.1, 0.4}, 3);
+        Assert.assertEquals(2, clusters.size());
+        Assert.assertEquals(0.0, clusters.withinSS(), 0.0);
+    }
+
+    @Test
+    public void deterministic(){
+        double[] vector = topicDistribution(500);
+        List<TopicPoint> groups = KMeans1D.cluster(vector, 4).getGroups();
+        for(int i=0;i<10;i++){
+            List<TopicPoint> other = KMeans1D.cluster(vector.clone(), 4).getGroups();
+            Assert.assertEquals(groups.size(), other.size());
+            for(int j=0;j<groups.size();j++) Assert.assertEquals(groups.get(j).getId(), other.get(j).getId());
+        }
+    }
+
+    @Test
+    public void hashCodeLevels(){
+        // groups by descending mean, the last one repeated when there are fewer groups than levels
+        Clusters1D clusters = KMeans1D.cluster(new double[]{0.1, 0.6, 0.1, 0.2}, 2);
+        HashCode hashcode = clusters.toHashCode(3);
+        Assert.assertArrayEquals(new int[]{1}, hashcode.getTopics(0));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, hashcode.getTopics(1));
+        Assert.assertArrayEquals(new int[]{0, 2, 3}, hashcode.getTopics(2));
+    }
+
+    private double bruteForce(double[] vector, int k){
+        double[] x = vector.clone();
+        Arrays.sort(x);
+        int n = x.length;
+        k = Math.min(k, n);
+        double[][] cost = new double[k][n];
+        for(int q=0;q<k;q++){
+            for(int i=0;i<n;i++){
+                if (q == 0){
+                    cost[q][i] = ssq(x, 0, i);
+                    continue;
+                }
+                cost[q][i] = Double.POSITIVE_INFINITY;
+                for(int j=q;j<=i;j++) cost[q][i] = Math.min(cost[q][i], cost[q-1][j-1] + ssq(x, j, i));
+            }
+        }
+        return cost[k-1][n-1];
+    }
+
+    private double ssq(double[] x, int from, int to){
+        double mean = 0.0;
+        for(int i=from;i<=to;i++) mean += x[i];
+        mean /= (to - from + 1);
+        double total = 0.0;
+        for(int i=from;i<=to;i++) total += (x[i] - mean) * (x[i] - mean);
+        return total;
+    }
+
+    /**
+     * @return a sparse distribution, as those inferred by topic models
+     */
+    private double[] topicDistribution(int topics){
+        double[] vector = new double[topics];
+        double total = 0.0;
+        for(int i=0;i<topics;i++){
+            vector[i] = Math.pow(-Math.log(1.0 - random.nextDouble()), 4);
+            total += vector[i];
+        }
+        for(int i=0;i<topics;i++) vector[i] /= total;
+        return vector;
+    }
+}
@@ -0,0 +1,131 @@
+package oeg.lstbs.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Converts a small CSV corpus with dense and sparse rows and reads it back through {@link VectorReader}.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class BinaryCorpusTest {
+
+    private static final int ROWS = 70;
+
+    private static final int TOPICS = 20;
+
+    // 70 rows in blocks of 16: the last block has 6
+    private static final int BLOCK_SIZE = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(1234);
+
+    private final List<String> ids = new ArrayList<>();
+
+    private final List<double[]> vectors = new ArrayList<>();
+
+    private File csv;
+
+    private File binary;
+
+    @Before
+    public void setup() throws IOException {
+        csv = new File(folder.getRoot(), "corpus.csv.gz");
+        try(Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(csv)))){
+            for(int i=0;i<ROWS;i++){
+                // even rows have every topic, odd rows only a few of them
+                double[] vector = i % 2 == 0? dense() : sparse();
+                ids.add("doc" + i);
+                vectors.add(vector);
+                StringBuilder row = new StringBuilder("doc" + i);
+                for(double value : vector) row.append(",").append(value);
+                writer.write(row.append("\n").toString());
+            }
+        }
+        binary = new File(folder.getRoot(), "corpus" + BinaryCorpus.EXTENSION);
+        Assert.assertEquals(ROWS, BinaryCorpus.convert(csv.getAbsolutePath(), binary, BLOCK_SIZE, 0f));
+    }
+
+    @Test
+    public void header() throws IOException {
+        try(BinaryCorpus.Reader reader = BinaryCorpus.open(binary.getAbsolutePath(), 0)){
+            Assert.assertEquals(ROWS, reader.size());
+            Assert.assertEquals(TOPICS, reader.getDimension());
+            Assert.assertEquals(BLOCK_SIZE, reader.capacity());
+        }
+        // sparse rows are smaller than the dense encoding of every row
+        Assert.assertTrue(binary.length() < (long) ROWS * (1 + TOPICS * Float.BYTES));
+    }
+
+    @Test
+    public void readAll(){
+        check(read(binary, 0), 0);
+    }
+
+    @Test
+    public void readFromMidBlockOffset(){
+        // rows are numbered from 1, so offset 21 starts at the 5th row of the second block
+        check(read(binary, 21), 20);
+        Assert.assertEquals(read(csv, 21).ids, read(binary, 21).ids);
+    }
+
+    @Test
+    public void readFromLastBlock(){
+        check(read(binary, 66), 65);
+        Assert.assertTrue(read(binary, ROWS + 1).ids.isEmpty());
+    }
+
+    private void check(Rows rows, int from){
+        Assert.assertEquals(ids.subList(from, ROWS), rows.ids);
+        for(int i=0;i<rows.vectors.size();i++){
+            double[] expected = vectors.get(from + i);
+            double[] found = rows.vectors.get(i);
+            Assert.assertEquals(TOPICS, found.length);
+            for(int j=0;j<TOPICS;j++) Assert.assertEquals(expected[j], found[j], Math.ulp((float) expected[j]));
+        }
+    }
+
+    private Rows read(File file, int offset){
+        Rows rows = new Rows();
+        VectorReader.from(file.getAbsolutePath(), offset, (id, vector, length) -> {
+            rows.ids.add(id);
+            rows.vectors.add(Arrays.copyOf(vector, length));
+        }, (id, vector, length) -> true, 100, 0, 4, true);
+        return rows;
+    }
+
+    private double[] dense(){
+        double[] vector = new double[TOPICS];
+        double total = 0.0;
+        for(int i=0;i<TOPICS;i++){
+            vector[i] = 0.01 + random.nextDouble();
+            total += vector[i];
+        }
+        for(int i=0;i<TOPICS;i++) vector[i] /= total;
+        return vector;
+    }
+
+    private double[] sparse(){
+        double[] vector = new double[TOPICS];
+        for(int i=0;i<3;i++) vector[random.nextInt(TOPICS)] += 1.0 / 3;
+        return vector;
+    }
+
+    private static class Rows {
+        private final List<String> ids = new ArrayList<>();
+        private final List<double[]> vectors = new ArrayList<>();
+    }
+}
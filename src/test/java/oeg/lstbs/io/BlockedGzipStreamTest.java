@@ -0,0 +1,147 @@
+package oeg.lstbs.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes with {@link BlockedGzipOutputStream} and reads back with {@link BlockedGzipInputStream} and with a plain
+ * {@link GZIPInputStream}.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class BlockedGzipStreamTest {
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void multipleBlocks() throws IOException {
+        byte[] content = content(5 * BlockedGzipOutputStream.BLOCK_SIZE + 1234);
+        byte[] compressed = compress(content);
+        Assert.assertTrue(members(compressed) > 5);
+        Assert.assertArrayEquals(content, read(new BlockedGzipInputStream(new ByteArrayInputStream(compressed), 4)));
+    }
+
+    @Test
+    public void singleBytes() throws IOException {
+        byte[] content = content(2 * BlockedGzipOutputStream.BLOCK_SIZE + 10);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(OutputStream out = new BlockedGzipOutputStream(output, 6, 2)){
+            for(byte b : content) out.write(b);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try(InputStream in = new BlockedGzipInputStream(new ByteArrayInputStream(output.toByteArray()), 2)){
+            int b;
+            while((b = in.read()) >= 0) result.write(b);
+        }
+        Assert.assertArrayEquals(content, result.toByteArray());
+    }
+
+    @Test
+    public void empty() throws IOException {
+        byte[] compressed = compress(new byte[0]);
+        Assert.assertArrayEquals(BlockedGzipOutputStream.EOF, compressed);
+        Assert.assertArrayEquals(new byte[0], read(new BlockedGzipInputStream(new ByteArrayInputStream(compressed))));
+        Assert.assertArrayEquals(new byte[0], read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void readableAsGzip() throws IOException {
+        byte[] content = content(3 * BlockedGzipOutputStream.BLOCK_SIZE + 77);
+        Assert.assertArrayEquals(content, read(new GZIPInputStream(new ByteArrayInputStream(compress(content)))));
+    }
+
+    @Test
+    public void openDetectsFormat() throws IOException {
+        byte[] content = content(BlockedGzipOutputStream.BLOCK_SIZE + 1);
+
+        InputStream blocked = BlockedGzipInputStream.open(new ByteArrayInputStream(compress(content)));
+        Assert.assertTrue(blocked instanceof BlockedGzipInputStream);
+        Assert.assertArrayEquals(content, read(blocked));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(output)){
+            out.write(content);
+        }
+        InputStream plain = BlockedGzipInputStream.open(new ByteArrayInputStream(output.toByteArray()));
+        Assert.assertTrue(plain instanceof GZIPInputStream);
+        Assert.assertArrayEquals(content, read(plain));
+    }
+
+    @Test
+    public void corruptedChecksum() throws IOException {
+        byte[] compressed = compress(content(3 * BlockedGzipOutputStream.BLOCK_SIZE));
+        // CRC32 of the second member, in the first 4 bytes of its footer
+        int first = memberSize(compressed, 0);
+        int second = memberSize(compressed, first);
+        compressed[first + second - BlockedGzipOutputStream.FOOTER_SIZE] ^= 0x01;
+
+        try{
+            read(new BlockedGzipInputStream(new ByteArrayInputStream(compressed), 2));
+            Assert.fail("corrupted member was read");
+        }catch (IOException e){
+            Assert.assertTrue(String.valueOf(e), contains(e, "CRC"));
+        }
+    }
+
+    private byte[] compress(byte[] content) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(OutputStream out = new BlockedGzipOutputStream(output, 6, 4)){
+            // odd-sized writes, so they do not line up with the blocks
+            for(int offset=0;offset<content.length;offset+=1000) out.write(content, offset, Math.min(1000, content.length - offset));
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try(InputStream in = input){
+            byte[] buffer = new byte[777];
+            int read;
+            while((read = in.read(buffer, 0, buffer.length)) >= 0) output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private int members(byte[] compressed){
+        int members = 0;
+        for(int offset=0;offset<compressed.length;offset+=memberSize(compressed, offset)) members++;
+        return members;
+    }
+
+    /**
+     * @return size of the member at the offset, from its 'BC' extra field
+     */
+    private int memberSize(byte[] compressed, int offset){
+        return ((compressed[offset+16] & 0xFF) | (compressed[offset+17] & 0xFF) << 8) + 1;
+    }
+
+    private boolean contains(Throwable e, String message){
+        for(Throwable cause=e;cause!=null;cause=cause.getCause()){
+            if (cause.getMessage() != null && cause.getMessage().contains(message)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return text-like content: words from a small vocabulary with some random bytes
+     */
+    private byte[] content(int size){
+        String[] words = {"topic ", "model ", "hash ", "vector ", "document ", "corpus ", "similarity ", "\n"};
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        while(output.size() < size){
+            if (random.nextInt(10) == 0) output.write(random.nextInt(256));
+            else {
+                byte[] word = words[random.nextInt(words.length)].getBytes();
+                output.write(word, 0, word.length);
+            }
+        }
+        return Arrays.copyOf(output.toByteArray(), size);
+    }
+}
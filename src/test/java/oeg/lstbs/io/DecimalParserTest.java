@@ -0,0 +1,146 @@
+package oeg.lstbs.io;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares {@link DecimalParser} with {@link Double#parseDouble(String)}, bit by bit, on the edges of the exact path and
+ * on the values that fall back to it.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class DecimalParserTest {
+
+    private final Random random = new Random(1234);
+
+    @Test
+    public void mantissaAroundExactLimit(){
+        long limit = 1L << 53;
+        for(long mantissa=limit-3;mantissa<=limit+3;mantissa++){
+            check(String.valueOf(mantissa));
+            check("-" + mantissa);
+            check(mantissa + "e10");
+            check(mantissa + "e-10");
+            check(mantissa + "0");
+            check(mantissa + ".0");
+            check(mantissa + ".5");
+            check("0." + mantissa);
+        }
+        check("9007199254740993000000");
+        check("90071992547409930e-1");
+        check("12345678901234567890.123456789");
+    }
+
+    @Test
+    public void exponents(){
+        for(int exponent=-30;exponent<=30;exponent++){
+            check("1e" + exponent);
+            check("7e" + exponent);
+            check("123456789e" + exponent);
+            check("0.3E" + exponent);
+            check("-4.5e" + exponent);
+        }
+        check("1e+22");
+        check("1e-022");
+        check("1.7976931348623157e308");
+        check("1e309");
+        check("4.9e-324");
+        check("1e-400");
+        check("1e99999999");
+        check("1e-99999999");
+    }
+
+    @Test
+    public void zeros(){
+        check("0");
+        check("-0");
+        check("+0.0");
+        check("-0.0e5");
+        check("000123");
+        check("123.45000000000000000000000000");
+        check("0.000000000000000000000000000001");
+        check("0.0000000000000000000001");
+        check("00000000000000000000000000000.5");
+        check("1000000000000000000000000");
+    }
+
+    @Test
+    public void signsAndShortForms(){
+        check("+1");
+        check("-1");
+        check(".5");
+        check("-.5");
+        check("5.");
+        check("+5.e2");
+        check("1e5d");
+        check("2.5f");
+    }
+
+    @Test
+    public void whitespace(){
+        check(" 0.25");
+        check("0.25 ");
+        check("\t-1.5e3\n");
+        check("  7  ");
+    }
+
+    @Test
+    public void specialValues(){
+        check("NaN");
+        check("-NaN");
+        check("Infinity");
+        check("-Infinity");
+        check("+Infinity");
+        check("0x1.8p1");
+    }
+
+    @Test
+    public void invalid(){
+        for(String text : new String[]{"", " ", "1e", "1e+", "-", "+", ".", "e5", ".e5", "1.2.3", "1,5", "--1", "1e5e5", "abc", "Inf"}){
+            try{
+                DecimalParser.parse(text, 0, text.length());
+                Assert.fail("'" + text + "' was parsed");
+            }catch (NumberFormatException e){
+                // as Double.parseDouble
+            }
+            try{
+                Double.parseDouble(text);
+                Assert.fail("'" + text + "' was parsed by Double.parseDouble");
+            }catch (NumberFormatException e){
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void range(){
+        String row = "doc1,0.125,-3e-4,,7";
+        Assert.assertEquals(0.125, DecimalParser.parse(row, 5, 10), 0.0);
+        Assert.assertEquals(-3e-4, DecimalParser.parse(row, 11, 16), 0.0);
+        Assert.assertEquals(7.0, DecimalParser.parse(row, 18, 19), 0.0);
+    }
+
+    @Test
+    public void randomValues(){
+        for(int i=0;i<100000;i++){
+            double value = i % 2 == 0? random.nextDouble() : Math.pow(-Math.log(1.0 - random.nextDouble()), 4) / 1000.0;
+            check(String.valueOf(value));
+            check(String.valueOf((float) value));
+            check(String.format(Locale.ROOT, "%.6f", value));
+            check(String.format(Locale.ROOT, "%.17e", value));
+        }
+    }
+
+    private void check(String text){
+        long expected = Double.doubleToLongBits(Double.parseDouble(text));
+        long found    = Double.doubleToLongBits(DecimalParser.parse(text, 0, text.length()));
+        Assert.assertEquals("'" + text + "'", expected, found);
+        // the same text within a row
+        String row = "id," + text + ",0";
+        Assert.assertEquals("'" + text + "' in a row", expected, Double.doubleToLongBits(DecimalParser.parse(row, 3, 3 + text.length())));
+    }
+}
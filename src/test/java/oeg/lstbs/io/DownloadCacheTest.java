@@ -0,0 +1,216 @@
+package oeg.lstbs.io;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Runs the cache against a local HTTP server, so it does not need network access.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class DownloadCacheTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DownloadCacheTest.class);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private byte[] content;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+
+    // bytes sent before dropping the connection, or -1 to send the whole content
+    private volatile int cut = -1;
+
+    private volatile String digest;
+
+    @Before
+    public void setup() throws IOException {
+        content = new byte[200000];
+        new Random(1234).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @After
+    public void shutdown(){
+        server.stop(0);
+        ReaderUtils.setCache(new DownloadCache());
+    }
+
+    @Test
+    public void downloadOnce() throws IOException {
+        DownloadCache cache = new DownloadCache(folder.newFolder(), 1 << 20);
+        String url = url("corpus");
+
+        Assert.assertArrayEquals(content, read(cache.open(url)));
+        Assert.assertArrayEquals(content, read(cache.open(url)));
+
+        Assert.assertEquals(1, requests.get());
+        Assert.assertTrue(cache.contains(url));
+        Assert.assertTrue(cache.verify(url));
+    }
+
+    @Test
+    public void resumeInterruptedDownload() throws IOException {
+        DownloadCache cache = new DownloadCache(folder.newFolder(), 1 << 20);
+        String url = url("corpus");
+
+        cut = content.length / 3;
+        try{
+            cache.get(url);
+            Assert.fail("Interrupted download was accepted");
+        }catch (IOException e){
+            LOG.info("Interrupted download: " + e.getMessage());
+        }
+        Assert.assertFalse(cache.contains(url));
+
+        cut = -1;
+        Assert.assertArrayEquals(content, read(cache.open(url)));
+        Assert.assertEquals(1, rangeRequests.get());
+        Assert.assertTrue(cache.verify(url));
+    }
+
+    @Test
+    public void rejectWrongChecksum() throws Exception {
+        DownloadCache cache = new DownloadCache(folder.newFolder(), 1 << 20);
+        String url = url("corpus");
+
+        digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest("other".getBytes(StandardCharsets.UTF_8)));
+        try{
+            cache.get(url);
+            Assert.fail("Download with a wrong checksum was accepted");
+        }catch (IOException e){
+            LOG.info("Wrong checksum: " + e.getMessage());
+        }
+        Assert.assertFalse(cache.contains(url));
+
+        digest = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content));
+        Assert.assertArrayEquals(content, read(cache.open(url)));
+    }
+
+    @Test
+    public void detectCorruptedCopy() throws IOException {
+        File directory = folder.newFolder();
+        DownloadCache cache = new DownloadCache(directory, 1 << 20);
+        String url = url("corpus");
+        File file = cache.get(url);
+
+        byte[] corrupted = content.clone();
+        corrupted[100] ^= 1;
+        Files.write(file.toPath(), corrupted);
+
+        Assert.assertFalse(cache.verify(url));
+        Assert.assertFalse(cache.contains(url));
+        Assert.assertArrayEquals(content, read(cache.open(url)));
+        Assert.assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void evictLeastRecentlyRead() throws IOException {
+        // room for two files
+        DownloadCache cache = new DownloadCache(folder.newFolder(), 2 * content.length + 1);
+        String a = url("a");
+        String b = url("b");
+        String c = url("c");
+
+        File fileA = cache.get(a);
+        File fileB = cache.get(b);
+        fileA.setLastModified(System.currentTimeMillis() - 20000);
+        fileB.setLastModified(System.currentTimeMillis() - 10000);
+        // 'a' is read again, so 'b' becomes the least recently read
+        cache.get(a);
+        cache.get(c);
+
+        Assert.assertTrue(cache.contains(a));
+        Assert.assertFalse(cache.contains(b));
+        Assert.assertTrue(cache.contains(c));
+        Assert.assertTrue(cache.size() <= cache.getMaxSize());
+    }
+
+    @Test
+    public void readThroughReaderUtils() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(Writer writer = new OutputStreamWriter(new GZIPOutputStream(bytes), StandardCharsets.UTF_8)){
+            writer.write("d1,0.25,0.75\nd2,0.5,0.5\n");
+        }
+        content = bytes.toByteArray();
+
+        ReaderUtils.setCache(new DownloadCache(folder.newFolder(), 1 << 20));
+        for(int i=0;i<2;i++){
+            try(BufferedReader reader = ReaderUtils.from(url("vectors.csv.gz"))){
+                Assert.assertEquals("d1,0.25,0.75", reader.readLine());
+                Assert.assertEquals("d2,0.5,0.5", reader.readLine());
+                Assert.assertNull(reader.readLine());
+            }
+        }
+        Assert.assertEquals(1, requests.get());
+    }
+
+    private String url(String name){
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + name;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        if (digest != null) exchange.getResponseHeaders().add("Digest", "sha-256=" + digest);
+
+        int from = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && "\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-Range"))){
+            rangeRequests.incrementAndGet();
+            from = Integer.valueOf(range.substring("bytes=".length(), range.indexOf('-')));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - from);
+        }else{
+            exchange.sendResponseHeaders(200, content.length);
+        }
+
+        OutputStream out = exchange.getResponseBody();
+        try{
+            int to = cut < 0? content.length : cut;
+            out.write(content, from, to - from);
+            out.flush();
+        }finally {
+            // with a cut, the connection is closed before the declared length
+            exchange.close();
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try(InputStream input = in){
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = input.read(buffer)) != -1) out.write(buffer, 0, read);
+            return out.toByteArray();
+        }
+    }
+
+}
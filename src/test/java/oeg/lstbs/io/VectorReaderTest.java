@@ -0,0 +1,120 @@
+package oeg.lstbs.io;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads a CSV corpus of many chunks with several workers, in order and in any order, with and without a maximum.
+ *
+ * @author Badenes Olmedo, Carlos <cbadenes@fi.upm.es>
+ */
+
+public class VectorReaderTest {
+
+    private static final int ROWS = 1000;
+
+    private static final int WORKERS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File csv;
+
+    @Before
+    public void setup() throws IOException {
+        csv = new File(folder.getRoot(), "vectors.csv.gz");
+        try(Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(csv)))){
+            for(int i=0;i<ROWS;i++){
+                // rows of different lengths, and an invalid one every 100 rows
+                if (i % 100 == 99) writer.write("doc" + i + ",0.5,invalid\n");
+                else writer.write("doc" + i + "," + i + "," + (i % 7) + "e-3" + (i % 3 == 0? ",-0.25" : "") + "\n");
+            }
+        }
+    }
+
+    @Test
+    public void ordered(){
+        List<String> ids = read(0, 0, true, id -> true);
+        Assert.assertEquals(expected(0, ROWS), ids);
+    }
+
+    @Test
+    public void orderedFromOffset(){
+        List<String> ids = read(150, 0, true, id -> true);
+        Assert.assertEquals(expected(149, ROWS), ids);
+    }
+
+    @Test
+    public void unordered(){
+        List<String> ids = read(0, 0, false, id -> true);
+        Assert.assertEquals(new HashSet<>(expected(0, ROWS)), new HashSet<>(ids));
+        Assert.assertEquals(expected(0, ROWS).size(), ids.size());
+    }
+
+    @Test
+    public void orderedWithMax(){
+        // the first accepted vectors of the file, also when the maximum is not at the end of a chunk
+        for(int max : new int[]{1, 64, 100, 333}){
+            List<String> ids = read(0, max, true, id -> true);
+            Assert.assertEquals(expected(0, ROWS).subList(0, max), ids);
+        }
+        // only accepted vectors count
+        List<String> ids = read(0, 50, true, id -> id.endsWith("0"));
+        Assert.assertEquals(50, ids.size());
+        Assert.assertEquals("doc490", ids.get(49));
+    }
+
+    @Test
+    public void unorderedWithMax(){
+        Set<String> all = new HashSet<>(expected(0, ROWS));
+        for(int max : new int[]{1, 64, 100, 333}){
+            List<String> ids = read(0, max, false, id -> true);
+            Assert.assertEquals(max, ids.size());
+            Assert.assertEquals(max, new HashSet<>(ids).size());
+            Assert.assertTrue(all.containsAll(ids));
+        }
+        // a maximum above the size of the corpus
+        Assert.assertEquals(all.size(), read(0, 5000, false, id -> true).size());
+    }
+
+    @Test
+    public void values(){
+        List<double[]> vectors = new ArrayList<>();
+        VectorReader.from(csv.getAbsolutePath(), 0, (id, vector, length) -> {
+            if (id.equals("doc3") || id.equals("doc4")) vectors.add(Arrays.copyOf(vector, length));
+        }, (id, vector, length) -> true, 100, 0, WORKERS, true);
+        Assert.assertArrayEquals(new double[]{3.0, 3e-3, -0.25}, vectors.get(0), 0.0);
+        Assert.assertArrayEquals(new double[]{4.0, 4e-3}, vectors.get(1), 0.0);
+    }
+
+    private List<String> read(int offset, int max, boolean ordered, IdValidation validation){
+        List<String> ids = Collections.synchronizedList(new ArrayList<>());
+        VectorReader.from(csv.getAbsolutePath(), offset, (id, vector, length) -> ids.add(id), (id, vector, length) -> validation.isValid(id), 100, max, WORKERS, ordered);
+        return ids;
+    }
+
+    /**
+     * @return ids of the valid rows from 'from' (inclusive) to 'to' (exclusive)
+     */
+    private List<String> expected(int from, int to){
+        List<String> ids = new ArrayList<>();
+        for(int i=from;i<to;i++) if (i % 100 != 99) ids.add("doc" + i);
+        return ids;
+    }
+
+    private interface IdValidation {
+        boolean isValid(String id);
+    }
+}